@@ -0,0 +1,154 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.BufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the decoding of masked client frames and the encoding of unmasked server frames, for a payload from
+ * each of the three payload length classes: 7-bit (at most 125 bytes), 16-bit (126 to 65535 bytes) and 64-bit
+ * (more than 65535 bytes).
+ * <p>
+ * Decoding unmasks the payload where it lies, so each invocation flips the payload of the encoded frame between its
+ * masked and unmasked forms. Either form costs the same to decode.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class FrameCodecBenchmark {
+	
+	@Param({"100", "4096", "262144"})
+	public int payloadSize;
+	
+	private final BufferPool pool = BufferPool.getDefault();
+	
+	private final ByteBuffer[] gather = new ByteBuffer[2];
+	
+	private final ByteBuffer headers = ByteBuffer.allocateDirect(OutboundMessage.MAX_HEADER_SIZE);
+	
+	/**
+	 * A complete, masked client frame, as it would be read from the channel.
+	 */
+	private ByteBuffer maskedFrame;
+	
+	/**
+	 * The same frame, split in two part way through its payload, as it would be read by two separate reads.
+	 */
+	private ByteBuffer firstHalf;
+	
+	private ByteBuffer secondHalf;
+	
+	private ByteBuffer payload;
+	
+	private WebSocketFrame frame;
+	
+	@Setup
+	public void setup() {
+		
+		byte[] bytes = new byte[payloadSize];
+		new Random(payloadSize).nextBytes(bytes);
+		payload = ByteBuffer.wrap(bytes);
+		
+		ByteBuffer[] buffers = new WebSocketFrame(null, true, WebSocketFrame.Type.BINARY, payload).getBuffers();
+		
+		maskedFrame = ByteBuffer.allocate(buffers[0].remaining() + buffers[1].remaining());
+		maskedFrame.put(buffers[0]).put(buffers[1]).flip();
+		
+		int split = maskedFrame.limit() / 2;
+		
+		firstHalf = maskedFrame.duplicate();
+		firstHalf.limit(split);
+		secondHalf = maskedFrame.duplicate();
+		secondHalf.position(split);
+		
+		frame = new WebSocketFrame(null, true);
+		
+	}
+	
+	/**
+	 * Decodes a frame that was read in a single read, which is unmasked in place without being copied.
+	 */
+	@Benchmark
+	public void decode(Blackhole blackhole) {
+		
+		frame.process(maskedFrame.duplicate());
+		blackhole.consume(frame.getPayload());
+		frame.reset();
+		
+	}
+	
+	/**
+	 * Decodes a frame that was read in two reads, whose payload is gathered into a pooled buffer.
+	 */
+	@Benchmark
+	public void decodeSplit(Blackhole blackhole) {
+		
+		frame.process(firstHalf.duplicate());
+		frame.process(secondHalf.duplicate());
+		blackhole.consume(frame.getPayload());
+		frame.reset();
+		
+	}
+	
+	/**
+	 * Encodes a server frame as it is drained from a WebSocket's outbound queue.
+	 */
+	@Benchmark
+	public void encode(Blackhole blackhole) {
+		
+		OutboundMessage message = new OutboundMessage(WebSocketFrame.Type.BINARY, payload.duplicate(), false);
+		
+		headers.clear();
+		message.encode(null, pool, headers);
+		blackhole.consume(message.collect(gather, 0));
+		message.release(pool);
+		
+	}
+	
+	/**
+	 * Encodes a masked frame, as a client would, which copies and masks the payload.
+	 */
+	@Benchmark
+	public ByteBuffer[] encodeMasked() {
+		
+		return new WebSocketFrame(null, true, WebSocketFrame.Type.BINARY, payload).getBuffers();
+		
+	}
+	
+}
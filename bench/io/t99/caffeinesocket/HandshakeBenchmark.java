@@ -0,0 +1,128 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the parsing of a client's half of the opening handshake, and the computation of the
+ * 'Sec-WebSocket-Accept' key that answers it.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeBenchmark {
+	
+	/**
+	 * A handshake as sent by a typical browser.
+	 */
+	private static final byte[] REQUEST = (
+			"GET /chat HTTP/1.1\r\n" +
+			"Host: server.example.com\r\n" +
+			"Connection: Upgrade\r\n" +
+			"Pragma: no-cache\r\n" +
+			"Cache-Control: no-cache\r\n" +
+			"User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0 Safari/537.36\r\n" +
+			"Upgrade: websocket\r\n" +
+			"Origin: http://example.com\r\n" +
+			"Sec-WebSocket-Version: 13\r\n" +
+			"Accept-Encoding: gzip, deflate, br\r\n" +
+			"Accept-Language: en-US,en;q=0.9\r\n" +
+			"Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+			"Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n" +
+			"\r\n"
+	).getBytes(StandardCharsets.US_ASCII);
+	
+	private final ByteBuffer request = ByteBuffer.wrap(REQUEST);
+	
+	private final ByteBuffer acceptKey = ByteBuffer.allocate(HandshakeRequest.ACCEPT_LENGTH);
+	
+	private HandshakeRequest parsed;
+	
+	@Setup
+	public void setup() {
+		
+		parsed = new HandshakeRequest();
+		parsed.consume(request.duplicate());
+		
+		if (!parsed.isValid()) throw new IllegalStateException(parsed.getError());
+		
+	}
+	
+	/**
+	 * Parses a handshake that was read in a single read.
+	 */
+	@Benchmark
+	public boolean parse() {
+		
+		HandshakeRequest handshake = new HandshakeRequest();
+		handshake.consume(request.duplicate());
+		
+		return handshake.isValid();
+		
+	}
+	
+	/**
+	 * Parses a handshake that arrives a few bytes at a time, as it would from a slow client.
+	 */
+	@Benchmark
+	public boolean parseFragmented() {
+		
+		HandshakeRequest handshake = new HandshakeRequest();
+		ByteBuffer fragment = request.duplicate();
+		fragment.limit(16);
+		
+		for (int end = 32; !handshake.consume(fragment); end += 16) {
+			
+			fragment.limit(Math.min(end, REQUEST.length));
+			
+		}
+		
+		return handshake.isValid();
+		
+	}
+	
+	@Benchmark
+	public ByteBuffer acceptKey() {
+		
+		acceptKey.clear();
+		parsed.putAcceptKey(acceptKey);
+		
+		return acceptKey;
+		
+	}
+	
+}
@@ -0,0 +1,128 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the growth of a {@link ByteList} from empty, one byte at a time and a chunk at a time, and iteration over
+ * a full list by index and by {@link ByteList.Cursor}.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteListBenchmark {
+	
+	/**
+	 * The size of the chunks appended by {@link #addChunks()}, roughly that of a single read.
+	 */
+	private static final int CHUNK_SIZE = 1024;
+	
+	@Param({"128", "16384", "1048576"})
+	public int size;
+	
+	private byte[] bytes;
+	
+	private ByteList full;
+	
+	@Setup
+	public void setup() {
+		
+		bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		
+		full = new ByteList();
+		full.add(bytes);
+		
+	}
+	
+	@Benchmark
+	public ByteList addBytes() {
+		
+		ByteList list = new ByteList();
+		
+		for (byte b: bytes) list.add(b);
+		
+		return list;
+		
+	}
+	
+	@Benchmark
+	public ByteList addChunks() {
+		
+		ByteList list = new ByteList();
+		
+		for (int offset = 0; offset < size; offset += CHUNK_SIZE) list.add(bytes, offset, Math.min(CHUNK_SIZE, size - offset));
+		
+		return list;
+		
+	}
+	
+	@Benchmark
+	public ByteList addBuffer() {
+		
+		ByteList list = new ByteList();
+		list.add(ByteBuffer.wrap(bytes));
+		
+		return list;
+		
+	}
+	
+	@Benchmark
+	public int iterateByIndex() {
+		
+		int sum = 0;
+		
+		for (int i = 0; i < full.size(); i++) sum += full.get(i);
+		
+		return sum;
+		
+	}
+	
+	@Benchmark
+	public int iterateByCursor() {
+		
+		int sum = 0;
+		ByteList.Cursor cursor = full.cursor();
+		
+		while (cursor.hasNext()) sum += cursor.next();
+		
+		return sum;
+		
+	}
+	
+}
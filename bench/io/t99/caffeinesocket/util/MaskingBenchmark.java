@@ -0,0 +1,108 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the throughput of {@link MaskingUtils#mask(ByteBuffer, int, long)}, on heap and direct buffers, with and
+ * without the Vector API path. Direct buffers never take the Vector API path, and so are only measured once.
+ * <p>
+ * Results are reported per call, so dividing the payload size by the time per call gives bytes per second.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MaskingBenchmark {
+	
+	@Param({"125", "4096", "65536", "1048576"})
+	public int payloadSize;
+	
+	@Param({"true", "false"})
+	public boolean vectorized;
+	
+	private ByteBuffer heap;
+	
+	private ByteBuffer direct;
+	
+	private final int maskingKey = 0x37FA213D;
+	
+	@Setup
+	public void setup() {
+		
+		byte[] bytes = new byte[payloadSize];
+		new Random(payloadSize).nextBytes(bytes);
+		
+		heap = ByteBuffer.wrap(bytes);
+		direct = ByteBuffer.allocateDirect(payloadSize);
+		direct.put(bytes).flip();
+		
+		MaskingUtils.setVectorized(vectorized);
+		
+	}
+	
+	@Benchmark
+	public ByteBuffer maskHeap() {
+		
+		MaskingUtils.mask(heap, maskingKey, 0);
+		
+		return heap;
+		
+	}
+	
+	/**
+	 * Masks from an offset that is not a multiple of four, as a payload that arrives across several reads is.
+	 */
+	@Benchmark
+	public ByteBuffer maskHeapUnaligned() {
+		
+		MaskingUtils.mask(heap, maskingKey, 3);
+		
+		return heap;
+		
+	}
+	
+	@Benchmark
+	public ByteBuffer maskDirect() {
+		
+		MaskingUtils.mask(direct, maskingKey, 0);
+		
+		return direct;
+		
+	}
+	
+}
@@ -0,0 +1,86 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the conversions of {@link NumberBaseConverter}, each over every value of a byte.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberBaseConverterBenchmark {
+	
+	private final boolean[][] binaries = new boolean[256][];
+	
+	public NumberBaseConverterBenchmark() {
+		
+		for (int i = 0; i < 256; i++) binaries[i] = NumberBaseConverter.decimalToBinary(i);
+		
+	}
+	
+	@Benchmark
+	public int decimalToBinary() {
+		
+		int bits = 0;
+		
+		for (int i = 0; i < 256; i++) bits += NumberBaseConverter.decimalToBinary(i).length;
+		
+		return bits;
+		
+	}
+	
+	@Benchmark
+	public int binaryToDecimal() {
+		
+		int sum = 0;
+		
+		for (boolean[] binary: binaries) sum += NumberBaseConverter.binaryToDecimal(binary);
+		
+		return sum;
+		
+	}
+	
+	@Benchmark
+	public int signedByteToBinary() {
+		
+		int bits = 0;
+		
+		for (int i = Byte.MIN_VALUE; i <= Byte.MAX_VALUE; i++) bits += NumberBaseConverter.signedByteToBinary((byte) i).length;
+		
+		return bits;
+		
+	}
+	
+}
@@ -16,6 +16,8 @@ package io.t99.caffeinesocket;
  *	limitations under the License.
  */
 
+import io.t99.caffeinesocket.util.BufferPool;
+
 public class CaffeineSocket {
 	
 	private static boolean debug = false;
@@ -34,6 +36,7 @@ public class CaffeineSocket {
 	public static void setDebug(boolean bool) {
 		
 		debug = bool;
+		BufferPool.setLeakDetection(bool);
 		
 	}
 	
@@ -0,0 +1,57 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event spanning a call to {@link WebSocket#close()} that found the WebSocket still open.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+@Name("io.t99.caffeinesocket.Close")
+@Label("WebSocket Close")
+@Category("CaffeineSocket")
+@Description("The closing of a WebSocket and the release of its resources")
+class CloseEvent extends Event {
+	
+	@Label("WebSocket")
+	String webSocket;
+	
+	@Label("Previous State")
+	@Description("The state the WebSocket was in when it began to close")
+	String previousState;
+	
+	@Label("State")
+	@Description("The state the WebSocket was left in")
+	String state;
+	
+	@Label("Successful")
+	boolean successful;
+	
+	@Label("Frames Received")
+	long framesReceived;
+	
+	@Label("Frames Sent")
+	long framesSent;
+	
+}
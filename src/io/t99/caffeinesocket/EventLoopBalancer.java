@@ -0,0 +1,92 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Picks which of a {@link WebSocketServer}'s event loops each newly accepted client is pinned to. The client stays
+ * with that loop for the rest of its lifetime.
+ * <p>
+ * Called by the server's handshake threads, possibly several at once, so implementations must be thread-safe. They
+ * should also return quickly and must not block, since the handshake thread cannot serve any other client meanwhile.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ * @see WebSocketConfig#setEventLoopBalancer(EventLoopBalancer)
+ */
+@FunctionalInterface
+public interface EventLoopBalancer {
+	
+	/**
+	 * Picks the event loop for a newly accepted client.
+	 *
+	 * @param loops The number of event loops.
+	 * @param connections Gives the number of clients currently pinned to the event loop at a given index, counting those
+	 *                    still handshaking.
+	 * @return The index of the chosen event loop, from 0 up to but not including <code>loops</code>.
+	 */
+	int select(int loops, IntUnaryOperator connections);
+	
+	/**
+	 * Returns a balancer that hands clients to each event loop in turn, ignoring how many clients each already has.
+	 *
+	 * @return A new round-robin balancer.
+	 */
+	static EventLoopBalancer roundRobin() {
+		
+		AtomicInteger next = new AtomicInteger();
+		
+		return (loops, connections) -> Math.floorMod(next.getAndIncrement(), loops);
+		
+	}
+	
+	/**
+	 * Returns a balancer that hands each client to the event loop with the fewest clients, choosing the lowest index on
+	 * a tie. Suits servers whose clients stay connected for very different lengths of time. Round-robin can leave some
+	 * loops with many more clients than others in that case.
+	 *
+	 * @return A new least-connections balancer.
+	 */
+	static EventLoopBalancer leastConnections() {
+		
+		return (loops, connections) -> {
+			
+			int least = 0;
+			int leastConnections = connections.applyAsInt(0);
+			
+			for (int i = 1; i < loops && leastConnections > 0; i++) {
+				
+				int count = connections.applyAsInt(i);
+				
+				if (count < leastConnections) {
+					
+					least = i;
+					leastConnections = count;
+					
+				}
+				
+			}
+			
+			return least;
+			
+		};
+		
+	}
+	
+}
@@ -0,0 +1,78 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event spanning the decoding of a single incoming frame by {@link WebSocketFrame#process}, from the
+ * first of its bytes being processed until the frame was complete.
+ * <p>
+ * A frame that arrives over several reads also spends the time between those reads waiting, so only frames decoded
+ * in a single read time the decoding alone. The number of reads is recorded so that the two can be told apart.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+@Name("io.t99.caffeinesocket.FrameDecode")
+@Label("WebSocket Frame Decode")
+@Category("CaffeineSocket")
+@Description("The decoding of an incoming frame, from its first byte until it was complete")
+@StackTrace(false)
+class FrameDecodeEvent extends Event {
+	
+	/**
+	 * Looked up once, so that checking whether the event is wanted costs no more than a field read.
+	 */
+	private static final EventType TYPE = EventType.getEventType(FrameDecodeEvent.class);
+	
+	@Label("WebSocket")
+	String webSocket;
+	
+	@Label("Frame Type")
+	String frameType;
+	
+	@Label("Final")
+	boolean fin;
+	
+	@Label("Payload Length")
+	@DataAmount
+	long payloadLength;
+	
+	@Label("Reads")
+	@Description("The number of reads that the frame arrived over")
+	int reads;
+	
+	/**
+	 * Returns whether or not a recording currently wants this event, without allocating one.
+	 *
+	 * @return true if the event is enabled in a running recording.
+	 */
+	static boolean isRecording() {
+		
+		return TYPE.isEnabled();
+		
+	}
+	
+}
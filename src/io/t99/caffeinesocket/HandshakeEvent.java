@@ -0,0 +1,58 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event spanning a {@link WebSocket}'s opening handshake, from the moment its client was accepted
+ * until the WebSocket left the handshaking state, whether or not the handshake succeeded.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+@Name("io.t99.caffeinesocket.Handshake")
+@Label("WebSocket Handshake")
+@Category("CaffeineSocket")
+@Description("An opening handshake, from accepting the client until the handshake succeeded or failed")
+class HandshakeEvent extends Event {
+	
+	@Label("WebSocket")
+	String webSocket;
+	
+	@Label("Remote Address")
+	String remoteAddress;
+	
+	@Label("Secure")
+	boolean secure;
+	
+	@Label("Successful")
+	boolean successful;
+	
+	@Label("Extensions")
+	@Description("The extensions agreed upon with the client")
+	String extensions;
+	
+	@Label("Error")
+	@Description("Why the handshake failed, if it is known")
+	String error;
+	
+}
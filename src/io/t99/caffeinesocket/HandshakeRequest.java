@@ -0,0 +1,555 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.ScratchPool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * A client's half of the opening handshake: an HTTP/1.1 GET request asking to be upgraded to a WebSocket.
+ * <p>
+ * See <a href="https://tools.ietf.org/html/rfc6455#section-4.2.1">[RFC6455]</a>. The request is parsed a line at a
+ * time, straight out of the buffers that it is read into, and only the headers that matter to the handshake are looked
+ * at: the 'Host', 'Upgrade', 'Connection', 'Sec-WebSocket-Version' and 'Sec-WebSocket-Key' headers are validated and
+ * compared byte by byte, and the only value turned into a String is that of the optional 'Sec-WebSocket-Extensions'
+ * header. A line is only copied if it is split across two reads.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class HandshakeRequest {
+	
+	/**
+	 * The maximum number of bytes that a client's half of the opening handshake may occupy before it is rejected.
+	 */
+	static final int MAX_SIZE = 8192;
+	
+	/**
+	 * The length of a valid 'Sec-WebSocket-Key': sixteen random bytes, encoded in base64.
+	 */
+	private static final int KEY_LENGTH = 24;
+	
+	/**
+	 * The length of the 'Sec-WebSocket-Accept' value derived from the key: a SHA-1 digest, encoded in base64.
+	 */
+	static final int ACCEPT_LENGTH = 28;
+	
+	private static final byte[] GUID = ascii(WebSocket.WS_GUID);
+	
+	private static final byte[] METHOD = ascii("GET ");
+	
+	private static final byte[] HTTP_VERSION = ascii(" HTTP/1.1");
+	
+	private static final byte[] HOST = ascii("host");
+	
+	private static final byte[] UPGRADE = ascii("upgrade");
+	
+	private static final byte[] CONNECTION = ascii("connection");
+	
+	private static final byte[] VERSION = ascii("sec-websocket-version");
+	
+	private static final byte[] KEY = ascii("sec-websocket-key");
+	
+	private static final byte[] EXTENSIONS = ascii("sec-websocket-extensions");
+	
+	private static final byte[] WEBSOCKET = ascii("websocket");
+	
+	private static final byte[] SUPPORTED_VERSION = ascii("13");
+	
+	private static final byte[] BAD_REQUEST = ascii("HTTP/1.1 400 Bad Request\r\nConnection: close\r\nContent-Length: 0\r\n\r\n");
+	
+	private static final byte[] UPGRADE_REQUIRED = ascii("HTTP/1.1 426 Upgrade Required\r\nSec-WebSocket-Version: 13\r\nConnection: close\r\nContent-Length: 0\r\n\r\n");
+	
+	/**
+	 * The digest and scratch space used to derive 'Sec-WebSocket-Accept' values, one set per thread, as setting up a
+	 * MessageDigest is far slower than using one.
+	 */
+	private static final ScratchPool<HandshakeRequest.AcceptKeyEncoder> ACCEPT_KEY_ENCODERS = new ScratchPool<>(HandshakeRequest.AcceptKeyEncoder::new, 64);
+	
+	/**
+	 * The number of bytes of the request consumed so far.
+	 */
+	private int size;
+	
+	/**
+	 * The start of a line that was split across two reads, or null if no line has been.
+	 */
+	private byte[] partialLine;
+	
+	private int partialLineLength;
+	
+	private boolean requestLineParsed;
+	
+	private boolean complete;
+	
+	private boolean host;
+	
+	private boolean upgrade;
+	
+	private boolean connection;
+	
+	/**
+	 * Whether or not a 'Sec-WebSocket-Version' header was received, and if so, whether or not it was one we speak.
+	 */
+	private boolean versionReceived;
+	
+	private boolean versionSupported;
+	
+	private final byte[] key = new byte[KEY_LENGTH];
+	
+	private boolean keyReceived;
+	
+	private String extensions;
+	
+	/**
+	 * Why the request was rejected, or null if it has not been.
+	 */
+	private String error;
+	
+	/**
+	 * Whether or not the request was rejected for asking for a version of the protocol that is not supported.
+	 */
+	private boolean unsupportedVersion;
+	
+	private static byte[] ascii(String string) {
+		
+		return string.getBytes(StandardCharsets.US_ASCII);
+		
+	}
+	
+	/**
+	 * Consumes bytes of the request, up to and including the empty line that ends its headers.
+	 *
+	 * @param buffer Bytes received from the client. Any bytes following the end of the request are left in the buffer.
+	 * @return true once the request is complete, or has been rejected.
+	 */
+	boolean consume(ByteBuffer buffer) {
+		
+		while (!complete && buffer.hasRemaining()) {
+			
+			int start = buffer.position();
+			int limit = buffer.limit();
+			int end = start;
+			
+			while (end < limit && buffer.get(end) != '\n') end++;
+			
+			boolean lineEnded = end < limit;
+			
+			if (lineEnded) end++;
+			
+			size += end - start;
+			
+			if (size > MAX_SIZE) {
+				
+				reject("The opening handshake exceeded " + MAX_SIZE + " bytes.");
+				return true;
+				
+			}
+			
+			buffer.position(end);
+			
+			if (!lineEnded || partialLineLength > 0) {
+				
+				appendPartialLine(buffer, start, end);
+				
+				if (!lineEnded) return false;
+				
+				parseLine(ByteBuffer.wrap(partialLine), 0, partialLineLength);
+				partialLineLength = 0;
+				
+			} else {
+				
+				parseLine(buffer, start, end);
+				
+			}
+			
+		}
+		
+		return complete;
+		
+	}
+	
+	private void appendPartialLine(ByteBuffer buffer, int start, int end) {
+		
+		int length = end - start;
+		
+		if (partialLine == null || partialLine.length < partialLineLength + length) {
+			
+			byte[] grown = new byte[Math.min(MAX_SIZE, Math.max(256, (partialLineLength + length) * 2))];
+			
+			if (partialLine != null) System.arraycopy(partialLine, 0, grown, 0, partialLineLength);
+			
+			partialLine = grown;
+			
+		}
+		
+		for (int i = start; i < end; i++) partialLine[partialLineLength++] = buffer.get(i);
+		
+	}
+	
+	/**
+	 * Parses a single line of the request.
+	 *
+	 * @param line The buffer that holds the line.
+	 * @param start The index of the first byte of the line.
+	 * @param end The index following the line's terminating line feed.
+	 */
+	private void parseLine(ByteBuffer line, int start, int end) {
+		
+		if (end - start < 2 || line.get(end - 2) != '\r') {
+			
+			reject("A line of the opening handshake did not end with a CRLF.");
+			return;
+			
+		}
+		
+		end -= 2;
+		
+		if (!requestLineParsed) {
+			
+			parseRequestLine(line, start, end);
+			
+		} else if (start == end) {
+			
+			complete = true;
+			validate();
+			
+		} else {
+			
+			parseHeader(line, start, end);
+			
+		}
+		
+	}
+	
+	private void parseRequestLine(ByteBuffer line, int start, int end) {
+		
+		requestLineParsed = true;
+		
+		// The request-target is left unchecked, as this server serves every path alike.
+		if (end - start <= METHOD.length + HTTP_VERSION.length ||
+			!regionMatches(line, start, METHOD, false) ||
+			!regionMatches(line, end - HTTP_VERSION.length, HTTP_VERSION, false) ||
+			line.get(start + METHOD.length) == ' ') {
+			
+			reject("The opening handshake was not an HTTP/1.1 GET request.");
+			
+		}
+		
+	}
+	
+	private void parseHeader(ByteBuffer line, int start, int end) {
+		
+		byte first = line.get(start);
+		
+		if (first == ' ' || first == '\t') {
+			
+			reject("The opening handshake contained a folded header line.");
+			return;
+			
+		}
+		
+		int colon = start;
+		
+		while (colon < end && line.get(colon) != ':') colon++;
+		
+		// An empty name is checked for first, as the byte before it is not part of the line.
+		if (colon == end || colon == start || line.get(colon - 1) == ' ' || line.get(colon - 1) == '\t') {
+			
+			reject("The opening handshake contained a malformed header line.");
+			return;
+			
+		}
+		
+		int valueStart = colon + 1;
+		int valueEnd = end;
+		
+		while (valueStart < valueEnd && isWhitespace(line.get(valueStart))) valueStart++;
+		while (valueEnd > valueStart && isWhitespace(line.get(valueEnd - 1))) valueEnd--;
+		
+		int nameLength = colon - start;
+		
+		if (nameMatches(line, start, nameLength, HOST)) {
+			
+			if (host) reject("The opening handshake contained more than one 'Host' header.");
+			
+			host = valueEnd > valueStart;
+			
+		} else if (nameMatches(line, start, nameLength, UPGRADE)) {
+			
+			upgrade |= containsToken(line, valueStart, valueEnd, WEBSOCKET);
+			
+		} else if (nameMatches(line, start, nameLength, CONNECTION)) {
+			
+			connection |= containsToken(line, valueStart, valueEnd, UPGRADE);
+			
+		} else if (nameMatches(line, start, nameLength, VERSION)) {
+			
+			if (versionReceived) reject("The opening handshake contained more than one 'Sec-WebSocket-Version' header.");
+			
+			versionReceived = true;
+			versionSupported = valueEnd - valueStart == SUPPORTED_VERSION.length && regionMatches(line, valueStart, SUPPORTED_VERSION, false);
+			
+		} else if (nameMatches(line, start, nameLength, KEY)) {
+			
+			if (keyReceived || !isValidKey(line, valueStart, valueEnd)) {
+				
+				reject("The opening handshake did not contain a single valid 'Sec-WebSocket-Key' header.");
+				return;
+				
+			}
+			
+			keyReceived = true;
+			
+			for (int i = 0; i < KEY_LENGTH; i++) key[i] = line.get(valueStart + i);
+			
+		} else if (nameMatches(line, start, nameLength, EXTENSIONS)) {
+			
+			byte[] value = new byte[valueEnd - valueStart];
+			
+			for (int i = 0; i < value.length; i++) value[i] = line.get(valueStart + i);
+			
+			String offers = new String(value, StandardCharsets.US_ASCII);
+			
+			// Repeated headers are the same as a single header listing each of their values in turn.
+			extensions = extensions == null ? offers : extensions + ", " + offers;
+			
+		}
+		
+	}
+	
+	/**
+	 * Checks the headers once every one of them has been received.
+	 */
+	private void validate() {
+		
+		if (error != null) return;
+		
+		if (!host) reject("The opening handshake had no 'Host' header.");
+		else if (!upgrade) reject("The opening handshake did not ask to be upgraded to 'websocket'.");
+		else if (!connection) reject("The opening handshake did not have 'Upgrade' in its 'Connection' header.");
+		else if (!keyReceived) reject("The opening handshake had no 'Sec-WebSocket-Key' header.");
+		else if (!versionSupported) {
+			
+			unsupportedVersion = true;
+			reject("The opening handshake did not ask for version 13 of the WebSocket protocol.");
+			
+		}
+		
+	}
+	
+	private void reject(String error) {
+		
+		if (this.error == null) this.error = error;
+		
+		complete = true;
+		
+	}
+	
+	/**
+	 * Checks that a key is a valid base64 encoding of 16 bytes.
+	 */
+	private static boolean isValidKey(ByteBuffer line, int start, int end) {
+		
+		if (end - start != KEY_LENGTH || line.get(end - 1) != '=' || line.get(end - 2) != '=') return false;
+		
+		for (int i = start; i < end - 2; i++) {
+			
+			byte b = line.get(i);
+			
+			if (!(b >= 'A' && b <= 'Z') && !(b >= 'a' && b <= 'z') && !(b >= '0' && b <= '9') && b != '+' && b != '/') return false;
+			
+		}
+		
+		return true;
+		
+	}
+	
+	private static boolean nameMatches(ByteBuffer line, int start, int length, byte[] name) {
+		
+		return length == name.length && regionMatches(line, start, name, true);
+		
+	}
+	
+	/**
+	 * Checks whether a comma-separated list of tokens contains the given token, regardless of case.
+	 */
+	private static boolean containsToken(ByteBuffer line, int start, int end, byte[] token) {
+		
+		int tokenStart = start;
+		
+		while (tokenStart < end) {
+			
+			int tokenEnd = tokenStart;
+			
+			while (tokenEnd < end && line.get(tokenEnd) != ',') tokenEnd++;
+			
+			int next = tokenEnd + 1;
+			
+			while (tokenStart < tokenEnd && isWhitespace(line.get(tokenStart))) tokenStart++;
+			while (tokenEnd > tokenStart && isWhitespace(line.get(tokenEnd - 1))) tokenEnd--;
+			
+			if (tokenEnd - tokenStart == token.length && regionMatches(line, tokenStart, token, true)) return true;
+			
+			tokenStart = next;
+			
+		}
+		
+		return false;
+		
+	}
+	
+	/**
+	 * Compares bytes of a line against an ASCII string.
+	 *
+	 * @param ignoreCase Whether or not to ignore case, in which case <code>expected</code> must be lowercase.
+	 */
+	private static boolean regionMatches(ByteBuffer line, int start, byte[] expected, boolean ignoreCase) {
+		
+		for (int i = 0; i < expected.length; i++) {
+			
+			byte b = line.get(start + i);
+			
+			if (ignoreCase && b >= 'A' && b <= 'Z') b += 'a' - 'A';
+			
+			if (b != expected[i]) return false;
+			
+		}
+		
+		return true;
+		
+	}
+	
+	private static boolean isWhitespace(byte b) {
+		
+		return b == ' ' || b == '\t';
+		
+	}
+	
+	boolean isValid() {
+		
+		return complete && error == null;
+		
+	}
+	
+	/**
+	 * Returns why the request was rejected.
+	 *
+	 * @return A description of the problem, or null if the request has not been rejected.
+	 */
+	String getError() {
+		
+		return error;
+		
+	}
+	
+	/**
+	 * Returns the value of the client's 'Sec-WebSocket-Extensions' header, with repeated headers joined into one.
+	 *
+	 * @return The extensions offered by the client, or null if it offered none.
+	 */
+	String getExtensions() {
+		
+		return extensions;
+		
+	}
+	
+	/**
+	 * Writes the 'Sec-WebSocket-Accept' value that answers the client's key: the base64-encoded SHA-1 digest of the key
+	 * followed by the WebSocket GUID.
+	 *
+	 * @param buffer The buffer to write the value to, which must have room for {@link #ACCEPT_LENGTH} bytes.
+	 */
+	void putAcceptKey(ByteBuffer buffer) {
+		
+		HandshakeRequest.AcceptKeyEncoder encoder = ACCEPT_KEY_ENCODERS.lease();
+		
+		try {
+			
+			encoder.encode(key, buffer);
+			
+		} finally {
+			
+			ACCEPT_KEY_ENCODERS.release(encoder);
+			
+		}
+		
+	}
+	
+	/**
+	 * Returns the response with which to turn the client away, once the request has been rejected.
+	 *
+	 * @return A complete HTTP response, telling the client which version to use if it asked for another.
+	 */
+	ByteBuffer getRejection() {
+		
+		return ByteBuffer.wrap(unsupportedVersion ? UPGRADE_REQUIRED : BAD_REQUEST);
+		
+	}
+	
+	private static class AcceptKeyEncoder {
+		
+		private final MessageDigest sha1;
+		
+		private final byte[] digest = new byte[20];
+		
+		private final byte[] encoded = new byte[ACCEPT_LENGTH];
+		
+		private AcceptKeyEncoder() {
+			
+			try {
+				
+				sha1 = MessageDigest.getInstance("SHA-1");
+				
+			} catch (NoSuchAlgorithmException e) {
+				
+				// Every Java platform is required to support SHA-1.
+				throw new IllegalStateException(e);
+				
+			}
+			
+		}
+		
+		private void encode(byte[] key, ByteBuffer buffer) {
+			
+			sha1.update(key);
+			sha1.update(GUID);
+			
+			try {
+				
+				sha1.digest(digest, 0, digest.length);
+				
+			} catch (DigestException e) {
+				
+				throw new IllegalStateException(e);
+				
+			}
+			
+			Base64.getEncoder().encode(digest, encoded);
+			buffer.put(encoded);
+			
+		}
+		
+	}
+	
+}
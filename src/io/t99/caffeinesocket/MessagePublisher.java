@@ -0,0 +1,282 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the messages received by a single {@link WebSocket} to a single subscriber, whose demand decides whether
+ * or not the WebSocket keeps reading from its client.
+ * <p>
+ * Messages are handed over by the thread that reads the WebSocket and taken by the subscriber as it requests them.
+ * Once the subscriber has no demand left, the WebSocket stops reading, and TCP flow control pushes back on the client
+ * until more messages are requested. Reads are never interrupted part way through, so the only messages held between
+ * the two are those completed by the read that used up the last of the demand.
+ * <p>
+ * Signals to the subscriber are emitted by whichever thread finds messages and demand available, but never by two
+ * threads at once, as the <code>Flow</code> specification requires.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class MessagePublisher implements Flow.Publisher<WebSocketMessage>, Flow.Subscription {
+	
+	/**
+	 * The subscription handed to every subscriber after the first, each of which is refused.
+	 */
+	private static final Flow.Subscription REFUSED = new Flow.Subscription() {
+		
+		@Override
+		public void request(long n) {}
+		
+		@Override
+		public void cancel() {}
+		
+	};
+	
+	/**
+	 * The WebSocket whose messages are published.
+	 */
+	private final WebSocket parent;
+	
+	private final AtomicReference<Flow.Subscriber<? super WebSocketMessage>> subscriber = new AtomicReference<>();
+	
+	/**
+	 * Messages received but not yet requested.
+	 */
+	private final Queue<WebSocketMessage> pending = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * The number of messages requested but not yet emitted, or {@link Long#MAX_VALUE} if demand is unbounded.
+	 */
+	private final AtomicLong demand = new AtomicLong();
+	
+	/**
+	 * Counts the calls to {@link #drain()} made while one was already emitting, so that the emitting thread goes round
+	 * again rather than leaving messages behind.
+	 */
+	private final AtomicInteger drains = new AtomicInteger();
+	
+	/**
+	 * Set once the subscriber's <code>onSubscribe</code> has returned, before which nothing else may be emitted to it.
+	 */
+	private volatile boolean subscribed = false;
+	
+	/**
+	 * Set once the WebSocket has closed, after which the subscriber is completed as soon as it has taken every pending
+	 * message.
+	 */
+	private volatile boolean done = false;
+	
+	/**
+	 * Set once the subscriber has cancelled or been sent a terminal signal, after which nothing more is emitted to it.
+	 */
+	private volatile boolean terminated = false;
+	
+	/**
+	 * The error that the subscriber is to be sent in place of any further messages, once it broke the rules of its
+	 * subscription.
+	 */
+	private volatile Throwable error;
+	
+	MessagePublisher(WebSocket parent) {
+		
+		this.parent = parent;
+		
+	}
+	
+	/**
+	 * Subscribes to the WebSocket's messages. Only the first subscriber is accepted, and only messages received after it
+	 * subscribed are published to it. Every later subscriber is sent an {@link IllegalStateException}.
+	 *
+	 * @param subscriber The subscriber.
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super WebSocketMessage> subscriber) {
+		
+		if (subscriber == null) throw new NullPointerException("Subscriber may not be null.");
+		
+		if (!this.subscriber.compareAndSet(null, subscriber)) {
+			
+			subscriber.onSubscribe(REFUSED);
+			subscriber.onError(new IllegalStateException("The messages of WebSocket '" + parent.name + "' already have a subscriber."));
+			return;
+			
+		}
+		
+		subscriber.onSubscribe(this);
+		subscribed = true;
+		
+		drain();
+		
+	}
+	
+	@Override
+	public void request(long n) {
+		
+		if (terminated) return;
+		
+		if (n <= 0) {
+			
+			error = new IllegalArgumentException("Illegal number of messages requested: " + n);
+			drain();
+			parent.resumeReading();
+			return;
+			
+		}
+		
+		long current;
+		
+		while (!demand.compareAndSet(current = demand.get(), current + n < 0 ? Long.MAX_VALUE : current + n));
+		
+		drain();
+		parent.resumeReading();
+		
+	}
+	
+	/**
+	 * Stops publishing messages, and lets the WebSocket read freely again. Messages that arrive from then on are not
+	 * published.
+	 */
+	@Override
+	public void cancel() {
+		
+		terminated = true;
+		pending.clear();
+		
+		parent.resumeReading();
+		
+	}
+	
+	/**
+	 * Returns whether or not a subscriber would take a message received now. Called by the reading thread to decide
+	 * whether or not to allocate a message at all.
+	 *
+	 * @return true if there is a subscriber that has not cancelled.
+	 */
+	boolean isSubscribed() {
+		
+		return subscriber.get() != null && !terminated && error == null;
+		
+	}
+	
+	/**
+	 * Returns whether or not the WebSocket should go on reading from its client: which it should unless there is a
+	 * subscriber that has no demand left, or has yet to take messages already received.
+	 *
+	 * @return true if more messages are wanted.
+	 */
+	boolean wantsMessages() {
+		
+		if (!isSubscribed() || done) return true;
+		
+		return demand.get() > 0 && pending.isEmpty();
+		
+	}
+	
+	/**
+	 * Hands a received message to the subscriber, or holds it until the subscriber requests it.
+	 *
+	 * @param message The message.
+	 */
+	void publish(WebSocketMessage message) {
+		
+		if (!isSubscribed()) return;
+		
+		pending.offer(message);
+		
+		drain();
+		
+	}
+	
+	/**
+	 * Completes the subscriber once it has taken every message already received. Called as the WebSocket closes.
+	 */
+	void complete() {
+		
+		done = true;
+		
+		drain();
+		
+	}
+	
+	private void drain() {
+		
+		if (drains.getAndIncrement() != 0) return;
+		
+		int missed = 1;
+		
+		do {
+			
+			if (subscribed) emit();
+			
+			missed = drains.addAndGet(-missed);
+			
+		} while (missed != 0);
+		
+	}
+	
+	/**
+	 * Emits as many pending messages as have been requested, and completes the subscriber if the WebSocket has closed
+	 * and no messages are left. Only ever run by one thread at a time.
+	 */
+	private void emit() {
+		
+		Flow.Subscriber<? super WebSocketMessage> subscriber = this.subscriber.get();
+		
+		while (!terminated) {
+			
+			if (error != null) {
+				
+				terminated = true;
+				pending.clear();
+				subscriber.onError(error);
+				return;
+				
+			}
+			
+			if (pending.isEmpty()) {
+				
+				if (done) {
+					
+					terminated = true;
+					subscriber.onComplete();
+					
+				}
+				
+				return;
+				
+			}
+			
+			long current = demand.get();
+			
+			if (current == 0) return;
+			
+			if (current != Long.MAX_VALUE) demand.decrementAndGet();
+			
+			subscriber.onNext(pending.poll());
+			
+		}
+		
+	}
+	
+}
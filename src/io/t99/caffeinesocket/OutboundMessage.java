@@ -0,0 +1,255 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.BufferPool;
+import io.t99.caffeinesocket.util.MpscQueue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single frame waiting in a {@link WebSocket}'s outbound queue.
+ * <p>
+ * Messages are queued by whichever thread sends them, but are only encoded once the thread draining the queue reaches
+ * them, so that compression, which has to happen in the order in which messages are written, happens on a single
+ * thread.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class OutboundMessage extends MpscQueue.Node {
+	
+	/**
+	 * The largest header that any message may need, that of a masked frame with a 64-bit payload length.
+	 */
+	static final int MAX_HEADER_SIZE = 14;
+	
+	private final WebSocketFrame.Type frameType;
+	
+	private final boolean fin;
+	
+	private final boolean masked;
+	
+	private final int maskingKey;
+	
+	/**
+	 * Whether or not the payload may be compressed, which a pre-built frame's may not be.
+	 */
+	private final boolean compressible;
+	
+	/**
+	 * The number of bytes that this message was expected to occupy on the wire when it was queued, which it is
+	 * accounted as until it is released.
+	 */
+	private final int size;
+	
+	/**
+	 * The number of bytes that this message actually occupies on the wire, which differs from its {@link #size} if its
+	 * payload was compressed. Set once the message has been encoded.
+	 */
+	private int encodedSize;
+	
+	/**
+	 * The payload of a frame that is yet to be encoded.
+	 */
+	private ByteBuffer payload;
+	
+	/**
+	 * Whether or not the {@link #payload} was leased from the sending WebSocket's {@link BufferPool}.
+	 */
+	private final boolean pooledPayload;
+	
+	/**
+	 * The shared frame that this message holds a reference to, if it was queued as one.
+	 */
+	private SharedFrame sharedFrame;
+	
+	/**
+	 * The compressed payload, leased from the sending WebSocket's {@link BufferPool}.
+	 */
+	private ByteBuffer compressed;
+	
+	/**
+	 * The frame's header, a slice of the scratch buffer that it was encoded into, or null if the header is part of the
+	 * {@link #body}.
+	 */
+	private ByteBuffer header;
+	
+	/**
+	 * The bytes that follow the {@link #header} on the wire. Set once the message has been encoded.
+	 */
+	private ByteBuffer body;
+	
+	/**
+	 * Creates a message that will be encoded as a single, final, unmasked frame once it is drained.
+	 *
+	 * @param frameType The type of the frame.
+	 * @param payload The payload of the frame, between its position and limit.
+	 * @param pooledPayload Whether or not the payload was leased from the sending WebSocket's pool, and so is to be
+	 *                      released once it has been written.
+	 */
+	OutboundMessage(WebSocketFrame.Type frameType, ByteBuffer payload, boolean pooledPayload) {
+		
+		this.frameType = frameType;
+		this.payload = payload;
+		this.pooledPayload = pooledPayload;
+		fin = true;
+		masked = false;
+		maskingKey = 0;
+		compressible = true;
+		size = payload == null ? 0 : WebSocketFrame.getHeaderSize(payload.remaining(), false) + payload.remaining();
+		
+	}
+	
+	/**
+	 * Creates a message from a pre-built frame, whose header is encoded afresh once it is drained.
+	 *
+	 * @param frame The frame, whose payload is not copied.
+	 */
+	OutboundMessage(WebSocketFrame frame) {
+		
+		frameType = frame.getType();
+		fin = frame.isFinal();
+		masked = frame.isMasked();
+		maskingKey = frame.getMaskingKey();
+		compressible = false;
+		pooledPayload = false;
+		payload = frame.viewPayload();
+		size = WebSocketFrame.getHeaderSize(payload.remaining(), masked) + payload.remaining();
+		
+	}
+	
+	/**
+	 * Creates a message from a shared frame, which the message holds a reference to until it is released.
+	 *
+	 * @param sharedFrame The frame.
+	 */
+	OutboundMessage(SharedFrame sharedFrame) {
+		
+		frameType = sharedFrame.getType();
+		fin = true;
+		masked = false;
+		maskingKey = 0;
+		compressible = false;
+		pooledPayload = false;
+		size = encodedSize = sharedFrame.size();
+		
+		sharedFrame.retain();
+		
+		this.sharedFrame = sharedFrame;
+		body = sharedFrame.view();
+		
+	}
+	
+	/**
+	 * Encodes this message's header, compressing its payload first if permessage-deflate was agreed upon. Called by the
+	 * draining thread, in the order in which messages are written.
+	 *
+	 * @param deflate The sending WebSocket's compression extension, or null if there is none.
+	 * @param pool The sending WebSocket's pool.
+	 * @param headers The buffer to encode the header into, which must have at least {@link #MAX_HEADER_SIZE} bytes
+	 *                remaining, and which the header occupies until this message has been written.
+	 */
+	void encode(PerMessageDeflate deflate, BufferPool pool, ByteBuffer headers) {
+		
+		if (body != null) return;
+		
+		ByteBuffer data = payload;
+		
+		if (deflate != null && compressible && !frameType.isControlFrame()) compressed = deflate.deflate(payload, pool);
+		
+		if (compressed != null) data = compressed;
+		
+		int start = headers.position();
+		
+		WebSocketFrame.encodeHeader(headers, fin, compressed != null, frameType, masked, maskingKey, data.remaining());
+		
+		header = headers.duplicate();
+		header.limit(headers.position()).position(start);
+		
+		// The payload is this message's own, whether leased, compressed, or a view taken when it was queued.
+		body = data;
+		encodedSize = header.remaining() + body.remaining();
+		
+	}
+	
+	/**
+	 * Adds whichever of this message's buffers are yet to be written to an array bound for a gathering write.
+	 *
+	 * @param buffers The array, which must have room for two more buffers.
+	 * @param count The number of buffers already in the array.
+	 * @return The number of buffers now in the array.
+	 */
+	int collect(ByteBuffer[] buffers, int count) {
+		
+		if (header != null && header.hasRemaining()) buffers[count++] = header;
+		if (body.hasRemaining()) buffers[count++] = body;
+		
+		return count;
+		
+	}
+	
+	boolean isControlFrame() {
+		
+		return frameType.isControlFrame();
+		
+	}
+	
+	WebSocketFrame.Type getType() {
+		
+		return frameType;
+		
+	}
+	
+	int size() {
+		
+		return size;
+		
+	}
+	
+	int getEncodedSize() {
+		
+		return encodedSize;
+		
+	}
+	
+	boolean isWritten() {
+		
+		return (header == null || !header.hasRemaining()) && !body.hasRemaining();
+		
+	}
+	
+	/**
+	 * Returns every buffer held by this message to where it came from, once it has been written or discarded.
+	 *
+	 * @param pool The sending WebSocket's pool.
+	 */
+	void release(BufferPool pool) {
+		
+		if (pooledPayload) pool.release(payload);
+		if (compressed != null) pool.release(compressed);
+		if (sharedFrame != null) sharedFrame.release();
+		
+		payload = null;
+		compressed = null;
+		sharedFrame = null;
+		header = null;
+		body = null;
+		
+	}
+	
+}
@@ -0,0 +1,384 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.BufferPool;
+import io.t99.caffeinesocket.util.DeflatePool;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate extension, as negotiated with a single client.
+ * <p>
+ * See <a href="https://tools.ietf.org/html/rfc7692">[RFC7692]</a>. A message is compressed as a whole, and the first
+ * frame of a compressed message has its RSV1 bit set. Unless no context takeover has been agreed for a direction, the
+ * compression context of that direction carries over from one message to the next, and so the {@link Deflater} or
+ * {@link Inflater} behind it is held for the lifetime of the connection. Otherwise one is leased from a
+ * {@link DeflatePool} for each message.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class PerMessageDeflate {
+	
+	static final String EXTENSION_NAME = "permessage-deflate";
+	
+	/**
+	 * The empty stored block that ends every flushed deflate stream, which is stripped from compressed messages before
+	 * they are sent, and appended to them before they are inflated.
+	 */
+	static final byte[] TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+	
+	/**
+	 * The LZ77 window size that {@link java.util.zip} always compresses with, which is also the largest allowed.
+	 */
+	private static final int MAX_WINDOW_BITS = 15;
+	
+	private static final byte[] NO_INPUT = new byte[0];
+	
+	private final boolean serverNoContextTakeover;
+	
+	private final boolean clientNoContextTakeover;
+	
+	/**
+	 * The window size that the client has been told to compress with, or 0 if the client was not told.
+	 */
+	private final int clientMaxWindowBits;
+	
+	private final WebSocketConfig config;
+	
+	private final DeflatePool pool = DeflatePool.getDefault();
+	
+	/**
+	 * Compresses outgoing messages. Only ever used by the thread draining the owning WebSocket's outbound queue.
+	 */
+	private Deflater deflater;
+	
+	/**
+	 * Inflates incoming messages. Only ever used by the thread reading from the connection, between
+	 * {@link #beginInflate()} and {@link #endInflate(boolean)}.
+	 */
+	private Inflater inflater;
+	
+	/**
+	 * Set by the thread reading from the connection for as long as it is using the {@link #inflater}, during which the
+	 * inflater must not be ended.
+	 */
+	private volatile boolean inflating = false;
+	
+	/**
+	 * Set once the connection has closed, after which the {@link #inflater} is ended by whichever of the closing thread
+	 * and the reading thread is the last to be done with it.
+	 */
+	private volatile boolean released = false;
+	
+	private final AtomicBoolean inflaterEnded = new AtomicBoolean(false);
+	
+	private PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover, int clientMaxWindowBits, WebSocketConfig config) {
+		
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		this.clientNoContextTakeover = clientNoContextTakeover;
+		this.clientMaxWindowBits = clientMaxWindowBits;
+		this.config = config;
+		
+	}
+	
+	/**
+	 * Accepts the first of a client's permessage-deflate offers that can be honoured.
+	 *
+	 * @param offers The value of the client's 'Sec-WebSocket-Extensions' header, or null if it sent none.
+	 * @param config The settings of the WebSocket that received the offers.
+	 * @return The agreed extension, or null if compression is disabled or no offer could be accepted.
+	 */
+	static PerMessageDeflate negotiate(String offers, WebSocketConfig config) {
+		
+		if (offers == null || !config.getCompression()) return null;
+		
+		for (String offer: offers.split(",")) {
+			
+			PerMessageDeflate deflate = accept(offer.split(";"), config);
+			
+			if (deflate != null) return deflate;
+			
+		}
+		
+		return null;
+		
+	}
+	
+	/**
+	 * Accepts a single offer, if it is a valid permessage-deflate offer that can be honoured.
+	 *
+	 * @param offer The extension name, followed by its parameters.
+	 * @param config The settings of the WebSocket that received the offer.
+	 * @return The agreed extension, or null if the offer was declined.
+	 */
+	private static PerMessageDeflate accept(String[] offer, WebSocketConfig config) {
+		
+		if (!offer[0].trim().equalsIgnoreCase(EXTENSION_NAME)) return null;
+		
+		boolean serverNoContextTakeover = config.getServerNoContextTakeover();
+		boolean clientNoContextTakeover = false;
+		int clientMaxWindowBits = 0;
+		
+		Set<String> seen = new HashSet<>();
+		
+		for (int i = 1; i < offer.length; i++) {
+			
+			String parameter = offer[i].trim();
+			int equals = parameter.indexOf('=');
+			
+			String name = (equals < 0 ? parameter : parameter.substring(0, equals)).trim().toLowerCase(Locale.ROOT);
+			String value = equals < 0 ? null : unquote(parameter.substring(equals + 1).trim());
+			
+			if (!seen.add(name)) return null;
+			
+			switch (name) {
+				
+				case "server_no_context_takeover":
+					if (value != null) return null;
+					serverNoContextTakeover = true;
+					break;
+					
+				case "client_no_context_takeover":
+					if (value != null) return null;
+					clientNoContextTakeover = true;
+					break;
+					
+				case "server_max_window_bits":
+					// A smaller window than java.util.zip compresses with can not be promised.
+					if (parseWindowBits(value) != MAX_WINDOW_BITS) return null;
+					break;
+					
+				case "client_max_window_bits":
+					int offered = value == null ? MAX_WINDOW_BITS : parseWindowBits(value);
+					
+					if (offered < 0) return null;
+					
+					// The client can be limited to a smaller window than it offered, but never a larger one.
+					int limit = Math.min(offered, config.getClientMaxWindowBits());
+					if (limit < MAX_WINDOW_BITS) clientMaxWindowBits = limit;
+					break;
+					
+				default:
+					return null;
+					
+			}
+			
+		}
+		
+		return new PerMessageDeflate(serverNoContextTakeover, clientNoContextTakeover, clientMaxWindowBits, config);
+		
+	}
+	
+	private static String unquote(String value) {
+		
+		if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') return value.substring(1, value.length() - 1);
+		
+		return value;
+		
+	}
+	
+	/**
+	 * Parses the value of a window bits parameter.
+	 *
+	 * @param value The value of the parameter.
+	 * @return The number of window bits, or -1 if the value was missing or invalid.
+	 */
+	private static int parseWindowBits(String value) {
+		
+		if (value == null || value.length() < 1 || value.length() > 2) return -1;
+		
+		for (int i = 0; i < value.length(); i++) if (value.charAt(i) < '0' || value.charAt(i) > '9') return -1;
+		
+		int bits = Integer.parseInt(value);
+		
+		return bits >= 8 && bits <= MAX_WINDOW_BITS ? bits : -1;
+		
+	}
+	
+	/**
+	 * Returns the value of the 'Sec-WebSocket-Extensions' header that tells the client which parameters were agreed.
+	 *
+	 * @return The agreed extension and its parameters.
+	 */
+	String getResponseHeader() {
+		
+		StringBuilder header = new StringBuilder(EXTENSION_NAME);
+		
+		if (serverNoContextTakeover) header.append("; server_no_context_takeover");
+		if (clientNoContextTakeover) header.append("; client_no_context_takeover");
+		if (clientMaxWindowBits != 0) header.append("; client_max_window_bits=").append(clientMaxWindowBits);
+		
+		return header.toString();
+		
+	}
+	
+	/**
+	 * Compresses the payload of an outgoing message. Must only be called by the thread draining the owning WebSocket's
+	 * outbound queue, in the order in which messages are written.
+	 * <p>
+	 * Messages smaller than the configured threshold are not compressed, and neither are messages that would not shrink
+	 * by compressing them.
+	 *
+	 * @param payload The payload of the message, between its position and limit. Left untouched.
+	 * @param buffers The pool to lease the compressed payload's buffer from.
+	 * @return The compressed payload, to be released to <code>buffers</code> once it has been sent, or null if the
+	 *         message should be sent uncompressed.
+	 */
+	ByteBuffer deflate(ByteBuffer payload, BufferPool buffers) {
+		
+		int length = payload.remaining();
+		
+		if (length < config.getCompressionThreshold()) return null;
+		
+		if (deflater == null) deflater = pool.leaseDeflater(config.getCompressionLevel());
+		
+		// Compressing is only worthwhile if it saves something, so the output is given no more room than the input had.
+		ByteBuffer output = buffers.lease(length + TAIL.length);
+		
+		deflater.setInput(payload.duplicate());
+		deflater.deflate(output, Deflater.SYNC_FLUSH);
+		deflater.setInput(NO_INPUT);
+		
+		// A full output buffer means that the flush may not have completed.
+		if (!output.hasRemaining() || output.position() - TAIL.length >= length) {
+			
+			// The client never sees what was just compressed, so the context has to be started over.
+			deflater.reset();
+			buffers.release(output);
+			
+			return null;
+			
+		}
+		
+		output.flip();
+		output.limit(output.limit() - TAIL.length);
+		
+		if (serverNoContextTakeover) {
+			
+			pool.releaseDeflater(deflater);
+			deflater = null;
+			
+		}
+		
+		return output;
+		
+	}
+	
+	/**
+	 * Returns the inflater for the message currently being received, which may be used until
+	 * {@link #endInflate(boolean)} is called. Must only be called by the thread reading from the connection.
+	 *
+	 * @return An inflater holding the context left by the previous message, unless no context takeover was agreed, or
+	 *         null if the connection has closed, in which case <code>endInflate</code> must not be called.
+	 */
+	Inflater beginInflate() {
+		
+		// Marked before the close is checked for, so that a close in between either sees the mark or is seen here.
+		inflating = true;
+		
+		if (released) {
+			
+			inflating = false;
+			endInflater();
+			return null;
+			
+		}
+		
+		if (inflater == null) inflater = pool.leaseInflater();
+		
+		return inflater;
+		
+	}
+	
+	/**
+	 * Lets go of the inflater returned by {@link #beginInflate()}, readying it for the next message if every byte of a
+	 * compressed message has been inflated, and ending it if the connection closed in the meantime.
+	 *
+	 * @param complete Whether or not the message has been inflated in full.
+	 */
+	void endInflate(boolean complete) {
+		
+		if (complete && inflater != null) {
+			
+			if (clientNoContextTakeover) {
+				
+				pool.releaseInflater(inflater);
+				inflater = null;
+				
+			} else if (inflater.finished()) {
+				
+				// The client ended its deflate stream, and so will begin the next message with a fresh context.
+				inflater.reset();
+				
+			}
+			
+		}
+		
+		inflating = false;
+		
+		if (released) endInflater();
+		
+	}
+	
+	/**
+	 * Frees the compression contexts held for the connection once it is closed. Must only be called by the thread
+	 * draining the owning WebSocket's outbound queue. The inflater is left to the thread reading from the connection to
+	 * end if that thread is still using it.
+	 */
+	void release() {
+		
+		if (deflater != null) {
+			
+			pool.releaseDeflater(deflater);
+			deflater = null;
+			
+		}
+		
+		released = true;
+		
+		if (!inflating) endInflater();
+		
+	}
+	
+	/**
+	 * Ends the inflater once the connection has closed. Rather than being handed back to a pool that could lend it to
+	 * another connection, it is ended, and only ever once, by whichever thread finds it no longer in use.
+	 */
+	private void endInflater() {
+		
+		if (!inflaterEnded.compareAndSet(false, true)) return;
+		
+		Inflater inflater = this.inflater;
+		
+		if (inflater != null) {
+			
+			inflater.end();
+			this.inflater = null;
+			
+		}
+		
+	}
+	
+}
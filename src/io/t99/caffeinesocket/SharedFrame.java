@@ -0,0 +1,150 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A complete, unmasked server frame that is encoded once and then written to any number of {@link WebSocket}s.
+ * <p>
+ * The header and payload are encoded together into a single pooled buffer, which every recipient writes from through
+ * a read-only view of its own, so sending the frame to another client costs neither an encode nor a copy. The buffer
+ * is reference counted: a SharedFrame starts out with a single reference held by its creator, each WebSocket that has
+ * to queue the frame holds another until the frame has been written, and the buffer is returned to its pool once the
+ * last reference is {@link #release() released}.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ * @see WebSocket#broadcast(java.util.Collection, String)
+ */
+public class SharedFrame {
+	
+	private final BufferPool pool;
+	
+	private final WebSocketFrame.Type frameType;
+	
+	/**
+	 * The encoded frame, whose position and limit never change once it has been encoded. Only ever read through views.
+	 */
+	private final ByteBuffer buffer;
+	
+	private final AtomicInteger references = new AtomicInteger(1);
+	
+	private SharedFrame(WebSocketFrame.Type frameType, ByteBuffer payload, BufferPool pool) {
+		
+		int length = payload.remaining();
+		
+		this.pool = pool;
+		this.frameType = frameType;
+		
+		buffer = pool.lease(WebSocketFrame.getHeaderSize(length, false) + length);
+		WebSocketFrame.encodeHeader(buffer, true, false, frameType, false, 0, length);
+		buffer.put(payload.duplicate());
+		buffer.flip();
+		
+	}
+	
+	/**
+	 * Encodes a text message.
+	 *
+	 * @param text The text of the message.
+	 * @return A frame holding a single reference, which the caller must release.
+	 */
+	public static SharedFrame text(String text) {
+		
+		return new SharedFrame(WebSocketFrame.Type.TEXT, ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), BufferPool.getDefault());
+		
+	}
+	
+	/**
+	 * Encodes a binary message. The data is copied, and so may be reused as soon as this method returns.
+	 *
+	 * @param data The bytes of the message, between the buffer's position and limit. Left untouched.
+	 * @return A frame holding a single reference, which the caller must release.
+	 */
+	public static SharedFrame binary(ByteBuffer data) {
+		
+		return new SharedFrame(WebSocketFrame.Type.BINARY, data, BufferPool.getDefault());
+		
+	}
+	
+	/**
+	 * Returns a new read-only view of the encoded frame, with a position and limit of its own.
+	 *
+	 * @return A view of the whole frame.
+	 * @throws IllegalStateException If every reference to this frame has already been released.
+	 */
+	ByteBuffer view() {
+		
+		if (references.get() <= 0) throw new IllegalStateException("A SharedFrame was used after it had been released.");
+		
+		return buffer.asReadOnlyBuffer();
+		
+	}
+	
+	/**
+	 * Takes another reference to this frame, which keeps its buffer from being returned to the pool until it is
+	 * released.
+	 */
+	public void retain() {
+		
+		int count;
+		
+		do {
+			
+			count = references.get();
+			
+			if (count <= 0) throw new IllegalStateException("A SharedFrame was retained after it had been released.");
+			
+		} while (!references.compareAndSet(count, count + 1));
+		
+	}
+	
+	/**
+	 * Gives up a reference to this frame, returning its buffer to the pool if it was the last.
+	 */
+	public void release() {
+		
+		int count = references.decrementAndGet();
+		
+		if (count == 0) pool.release(buffer);
+		else if (count < 0) throw new IllegalStateException("A SharedFrame was released more times than it was retained.");
+		
+	}
+	
+	WebSocketFrame.Type getType() {
+		
+		return frameType;
+		
+	}
+	
+	/**
+	 * Returns the number of bytes that the encoded frame occupies on the wire.
+	 *
+	 * @return The size of the frame's header and payload.
+	 */
+	public int size() {
+		
+		return buffer.remaining();
+		
+	}
+	
+}
@@ -0,0 +1,471 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.BufferPool;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The TLS session of a single <code>wss://</code> client, through which every byte exchanged with the client passes.
+ * <p>
+ * Built on a non-blocking {@link SSLEngine}, and so driven entirely by the threads that already read from and write to
+ * the client's channel. Ciphertext is read into the reading thread's own receive buffer and decrypted straight into a
+ * pooled plaintext buffer, and only the tail of a record that was not read in full is kept between reads. On the way
+ * out, queued frames are gathered into as few records as possible, and as many records as fit into a single pooled
+ * batch are written with a single write. Buffers are only leased while there are bytes to hold, so an idle client
+ * holds none.
+ * <p>
+ * Like the queues they serve, the two directions of the session are each owned by a single thread at a time: the
+ * inbound side by whichever thread holds {@link #unwrapping}, and the outbound side by whichever thread holds the
+ * WebSocket's outbound queue. Tasks that the engine delegates are run inline, on the thread that needs them, which is
+ * a {@link WebSocketHandshakeLoop} for the TLS handshake itself.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class TlsSession {
+	
+	/**
+	 * The size of the batch into which outgoing records are wrapped before they are written. Set to 64KiB, which holds
+	 * three full-sized records.
+	 */
+	static final int WRITE_BATCH_SIZE = 64 * 1024;
+	
+	/**
+	 * The size of the buffer into which incoming records are decrypted before they are processed. Set to 64KiB, to
+	 * match the buffer that the ciphertext is read into.
+	 */
+	static final int PLAINTEXT_BUFFER_SIZE = 64 * 1024;
+	
+	private static final ByteBuffer[] NO_SOURCES = new ByteBuffer[0];
+	
+	private final SSLEngine engine;
+	
+	private final SocketChannel channel;
+	
+	private final BufferPool pool;
+	
+	/**
+	 * Ciphertext of a record that has only partly been read, kept in write mode between reads. Leased only while there
+	 * is such a record.
+	 */
+	private ByteBuffer inbound;
+	
+	/**
+	 * Records that have been wrapped but not yet taken by the channel, kept in write mode. Leased only while there are
+	 * such records.
+	 */
+	private ByteBuffer outbound;
+	
+	/**
+	 * Held by the single thread that may decrypt incoming records at any one time. Whoever holds it last once the
+	 * channel has been closed returns the {@link #inbound} buffer to the pool.
+	 */
+	private final AtomicBoolean unwrapping = new AtomicBoolean(false);
+	
+	/**
+	 * Creates the server side of a TLS session, whose handshake begins with the first bytes read from the client.
+	 *
+	 * @param context The context to create the session's engine from.
+	 * @param parameters The parameters to apply to the engine, or null to use the context's defaults.
+	 * @param channel The channel connected to the client.
+	 * @param pool The pool to lease the session's buffers from.
+	 * @throws SSLException If the handshake could not be begun.
+	 */
+	TlsSession(SSLContext context, SSLParameters parameters, SocketChannel channel, BufferPool pool) throws SSLException {
+		
+		this.channel = channel;
+		this.pool = pool;
+		
+		engine = context.createSSLEngine();
+		
+		if (parameters != null) engine.setSSLParameters(parameters);
+		
+		engine.setUseClientMode(false);
+		engine.beginHandshake();
+		
+	}
+	
+	/**
+	 * Decrypts ciphertext read from the channel, handing each batch of plaintext to the WebSocket, and answering the
+	 * handshake messages of the TLS handshake as they arrive. The tail of a record that has not been read in full is
+	 * kept until the next read.
+	 *
+	 * @param ciphertext The bytes most recently read from the channel, which are all consumed.
+	 * @param webSocket The WebSocket that the session belongs to.
+	 * @return false if the client has closed the session.
+	 * @throws IOException If the ciphertext could not be decrypted, or a response could not be written.
+	 */
+	boolean unwrap(ByteBuffer ciphertext, WebSocket webSocket) throws IOException {
+		
+		if (!unwrapping.compareAndSet(false, true)) return true;
+		
+		ByteBuffer plaintext = pool.lease(Math.max(PLAINTEXT_BUFFER_SIZE, engine.getSession().getApplicationBufferSize()));
+		
+		try {
+			
+			while (channel.isOpen()) {
+				
+				ByteBuffer source = ciphertext;
+				
+				if (inbound != null) {
+					
+					// The partial record is topped up with as much of what was just read as it has room for.
+					int length = Math.min(inbound.remaining(), ciphertext.remaining());
+					ByteBuffer more = ciphertext.duplicate();
+					
+					more.limit(more.position() + length);
+					inbound.put(more);
+					ciphertext.position(ciphertext.position() + length);
+					inbound.flip();
+					
+					source = inbound;
+					
+				}
+				
+				boolean open = unwrapRecords(source, plaintext, webSocket);
+				
+				if (source == inbound) {
+					
+					if (!inbound.hasRemaining()) {
+						
+						pool.release(inbound);
+						inbound = null;
+						
+					} else {
+						
+						inbound.compact();
+						
+						// A record larger than the buffer can only follow a renegotiated, larger packet size.
+						if (!inbound.hasRemaining()) inbound = grow(inbound, engine.getSession().getPacketBufferSize());
+						
+					}
+					
+				} else if (ciphertext.hasRemaining()) {
+					
+					inbound = pool.lease(Math.max(ciphertext.remaining(), engine.getSession().getPacketBufferSize()));
+					inbound.put(ciphertext);
+					
+				}
+				
+				if (!open) return false;
+				
+				if (!ciphertext.hasRemaining()) return true;
+				
+			}
+			
+			return true;
+			
+		} finally {
+			
+			pool.release(plaintext);
+			endUnwrap(false);
+			
+		}
+		
+	}
+	
+	/**
+	 * Decrypts every complete record in the source.
+	 *
+	 * @param source Ciphertext, of which a trailing partial record is left unconsumed.
+	 * @param plaintext The buffer to decrypt into, which is empty between calls.
+	 * @param webSocket The WebSocket that the session belongs to.
+	 * @return false if the client has closed the session.
+	 * @throws IOException If a record could not be decrypted, or a response could not be written.
+	 */
+	private boolean unwrapRecords(ByteBuffer source, ByteBuffer plaintext, WebSocket webSocket) throws IOException {
+		
+		while (channel.isOpen()) {
+			
+			SSLEngineResult result = engine.unwrap(source, plaintext);
+			
+			switch (result.getStatus()) {
+				
+				case BUFFER_OVERFLOW:
+					if (plaintext.position() == 0) throw new SSLException("A record was larger than the session's application buffer.");
+					deliver(plaintext, webSocket);
+					continue;
+					
+				case BUFFER_UNDERFLOW:
+					deliver(plaintext, webSocket);
+					return true;
+					
+				case CLOSED:
+					deliver(plaintext, webSocket);
+					return false;
+					
+				default:
+					break;
+					
+			}
+			
+			SSLEngineResult.HandshakeStatus status = runDelegatedTasks(result.getHandshakeStatus());
+			
+			if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) webSocket.flushTls();
+			else if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) break;
+			
+		}
+		
+		deliver(plaintext, webSocket);
+		
+		return true;
+		
+	}
+	
+	private void deliver(ByteBuffer plaintext, WebSocket webSocket) throws IOException {
+		
+		plaintext.flip();
+		
+		if (plaintext.hasRemaining()) webSocket.deliver(plaintext);
+		
+		plaintext.clear();
+		
+	}
+	
+	/**
+	 * Returns the {@link #inbound} buffer to the pool once the channel has been closed, as {@link WebSocket#close()} does
+	 * for the outbound side, first taking {@link #unwrapping} if <code>acquire</code> is set. Once released, the buffer
+	 * is never leased again, as <code>unwrapping</code> is never let go of.
+	 *
+	 * @param acquire Whether or not the caller has yet to take <code>unwrapping</code>.
+	 */
+	void endUnwrap(boolean acquire) {
+		
+		if (!acquire) unwrapping.set(false);
+		
+		if (channel.isOpen() || !unwrapping.compareAndSet(false, true)) return;
+		
+		pool.release(inbound);
+		inbound = null;
+		
+	}
+	
+	/**
+	 * Encrypts as much of the given plaintext as fits into a single batch, behind any records that the engine has to
+	 * send of its own accord, and writes the batch to the channel. Nothing new is wrapped while an earlier batch has
+	 * yet to be written in full. Must only be called while holding the WebSocket's outbound queue.
+	 *
+	 * @param sources The plaintext, from each buffer's position to its limit. Consumed as it is wrapped.
+	 * @param count The number of buffers in <code>sources</code>.
+	 * @throws IOException If the plaintext could not be encrypted, or the channel could not be written to.
+	 */
+	void write(ByteBuffer[] sources, int count) throws IOException {
+		
+		if (!flush()) return;
+		
+		wrap(sources, count);
+		flush();
+		
+	}
+	
+	/**
+	 * Encrypts plaintext into the {@link #outbound} batch, until either the plaintext and the engine's own records have
+	 * all been wrapped, or the batch has no room for another full record.
+	 */
+	private void wrap(ByteBuffer[] sources, int count) throws SSLException {
+		
+		long remaining = 0;
+		
+		for (int i = 0; i < count; i++) remaining += sources[i].remaining();
+		
+		int packetSize = engine.getSession().getPacketBufferSize();
+		
+		while (remaining > 0 || needsWrap()) {
+			
+			if (outbound == null) outbound = pool.lease(Math.max(WRITE_BATCH_SIZE, packetSize));
+			
+			if (outbound.remaining() < packetSize) return;
+			
+			SSLEngineResult result = engine.wrap(sources, 0, count, outbound);
+			
+			remaining -= result.bytesConsumed();
+			
+			if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+				
+				if (remaining > 0) throw new SSLException("Data was sent after the TLS session had been closed.");
+				return;
+				
+			}
+			
+			runDelegatedTasks(result.getHandshakeStatus());
+			
+			if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) return;
+			
+		}
+		
+	}
+	
+	/**
+	 * Writes as much of the {@link #outbound} batch as the channel will take, returning the batch to the pool once it
+	 * has all been written. Must only be called while holding the WebSocket's outbound queue.
+	 *
+	 * @return true if there is nothing left to write.
+	 * @throws IOException If the channel could not be written to.
+	 */
+	boolean flush() throws IOException {
+		
+		if (outbound == null) return true;
+		
+		outbound.flip();
+		
+		try {
+			
+			if (outbound.hasRemaining()) channel.write(outbound);
+			
+		} finally {
+			
+			outbound.compact();
+			
+		}
+		
+		if (outbound.position() != 0) return false;
+		
+		pool.release(outbound);
+		outbound = null;
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Encrypts the bytes of the opening handshake, which are written ahead of the outbound queue, and makes a single
+	 * attempt at writing them out. Must only be called while holding the WebSocket's outbound queue.
+	 *
+	 * @param bytes The plaintext.
+	 * @param keep Whether or not to wrap every byte, growing the {@link #outbound} batch as needed so that what the
+	 *             channel does not take is left for the next flush, rather than only as much as fits into the batch.
+	 * @throws IOException If the bytes could not be encrypted or written.
+	 */
+	void writeHandshake(ByteBuffer bytes, boolean keep) throws IOException {
+		
+		ByteBuffer[] sources = {bytes};
+		int packetSize = engine.getSession().getPacketBufferSize();
+		
+		wrap(sources, 1);
+		
+		while (keep && (bytes.hasRemaining() || needsWrap()) && outbound.remaining() < packetSize) {
+			
+			outbound = grow(outbound, outbound.position() + packetSize);
+			wrap(sources, 1);
+			
+		}
+		
+		if (keep && bytes.hasRemaining()) throw new SSLException("The handshake response could not be encrypted.");
+		
+		flush();
+		
+	}
+	
+	/**
+	 * Wraps the records that the engine has to send of its own accord, such as those of the TLS handshake, and writes
+	 * as much of them as the channel will take, leaving the rest for the next flush. Must only be called while holding
+	 * the WebSocket's outbound queue.
+	 *
+	 * @return true if there is nothing left to write.
+	 * @throws IOException If the records could not be wrapped or written.
+	 */
+	boolean writeEngineRecords() throws IOException {
+		
+		write(NO_SOURCES, 0);
+		
+		return !hasPendingOutput();
+		
+	}
+	
+	/**
+	 * Returns whether or not there are records waiting to be written, either already wrapped or yet to be wrapped by
+	 * the engine. Must only be called while holding the WebSocket's outbound queue.
+	 *
+	 * @return true if the session has bytes to write.
+	 */
+	boolean hasPendingOutput() {
+		
+		return outbound != null || needsWrap();
+		
+	}
+	
+	private boolean needsWrap() {
+		
+		return !engine.isOutboundDone() && engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP;
+		
+	}
+	
+	/**
+	 * Sends the client a close_notify alert, as a courtesy that is not waited on. Must only be called while holding
+	 * the WebSocket's outbound queue.
+	 *
+	 * @throws IOException If the alert could not be wrapped or written.
+	 */
+	void closeOutbound() throws IOException {
+		
+		engine.closeOutbound();
+		write(NO_SOURCES, 0);
+		
+	}
+	
+	/**
+	 * Returns the {@link #outbound} batch to the pool once the channel has been closed. Must only be called while
+	 * holding the WebSocket's outbound queue.
+	 */
+	void releaseOutbound() {
+		
+		pool.release(outbound);
+		outbound = null;
+		
+	}
+	
+	/**
+	 * Runs the tasks that the engine has delegated, on the calling thread.
+	 *
+	 * @param status The engine's handshake status, as last reported.
+	 * @return The engine's handshake status once its tasks have been run.
+	 */
+	private SSLEngineResult.HandshakeStatus runDelegatedTasks(SSLEngineResult.HandshakeStatus status) {
+		
+		if (status != SSLEngineResult.HandshakeStatus.NEED_TASK) return status;
+		
+		Runnable task;
+		
+		while ((task = engine.getDelegatedTask()) != null) task.run();
+		
+		return engine.getHandshakeStatus();
+		
+	}
+	
+	private ByteBuffer grow(ByteBuffer buffer, int size) {
+		
+		ByteBuffer grown = pool.lease(Math.max(size, buffer.capacity() * 2));
+		
+		buffer.flip();
+		grown.put(buffer);
+		pool.release(buffer);
+		
+		return grown;
+		
+	}
+	
+}
@@ -16,18 +16,43 @@ package io.t99.caffeinesocket;
  *	limitations under the License.
  */
 
-import javax.xml.bind.DatatypeConverter;
+import io.t99.caffeinesocket.util.BufferPool;
+import io.t99.caffeinesocket.util.MpscQueue;
+import io.t99.caffeinesocket.util.ScratchPool;
+import io.t99.caffeinesocket.util.SerialExecutor;
+import io.t99.caffeinesocket.util.TimingWheel;
+import io.t99.caffeinesocket.util.VirtualThreads;
+
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.security.MessageDigest;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Random;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A WebSocket server.
@@ -44,12 +69,46 @@ public class WebSocket {
 	 */
 	public static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 	
+	/**
+	 * The status code reported to a {@link WebSocketHandler} for a CLOSE frame that gave no status code of its own, as
+	 * reserved by <a href="https://tools.ietf.org/html/rfc6455#section-7.4.1">[RFC6455]</a>.
+	 */
+	public static final int CLOSE_NO_STATUS = 1005;
+	
+	/**
+	 * The status code reported to a {@link WebSocketHandler} for a connection that was closed without the client
+	 * sending a CLOSE frame, as reserved by <a href="https://tools.ietf.org/html/rfc6455#section-7.4.1">[RFC6455]</a>.
+	 */
+	public static final int CLOSE_ABNORMAL = 1006;
+	
+	/**
+	 * The status code sent to a client whose frames broke the protocol, as defined by
+	 * <a href="https://tools.ietf.org/html/rfc6455#section-7.4.1">[RFC6455]</a>.
+	 */
+	public static final int CLOSE_PROTOCOL_ERROR = 1002;
+	
+	/**
+	 * The status code sent to a client that sent text which was not valid UTF-8, as defined by
+	 * <a href="https://tools.ietf.org/html/rfc6455#section-7.4.1">[RFC6455]</a>.
+	 */
+	public static final int CLOSE_INVALID_PAYLOAD = 1007;
+	
+	/**
+	 * The number of calls to a {@link WebSocketHandler} that may wait on the handler executor of a single WebSocket
+	 * before it stops reading from its client, until the handler catches up. Set to 256.
+	 *
+	 * @see WebSocketConfig#setHandlerExecutor(Executor)
+	 */
+	public static final int MAX_DISPATCH_BACKLOG = 256;
+	
 	/**
 	 * Port on which a given {@link WebSocket} instance will listen.
 	 */
 	private int port;
 	
-	private WebSocket.State state = WebSocket.State.PRESTART;
+	private volatile WebSocket.State state = WebSocket.State.PRESTART;
+	
+	private static final AtomicReferenceFieldUpdater<WebSocket, WebSocket.State> STATE = AtomicReferenceFieldUpdater.newUpdater(WebSocket.class, WebSocket.State.class, "state");
 	
 	/**
 	 * {@link ServerSocket} that acts as the 'Socket' in 'WebSocket'.
@@ -68,6 +127,193 @@ public class WebSocket {
 	 */
 	private OutputStream output;
 	
+	/**
+	 * {@link SocketChannel} through which a WebSocket accepted by a {@link WebSocketServer} communicates with its
+	 * client. This is <code>null</code> for WebSockets that perform their own {@link #handshake()}.
+	 */
+	SocketChannel channel;
+	
+	/**
+	 * The {@link WebSocketEventLoop} that services this WebSocket's {@link #channel}, if it was accepted by a
+	 * {@link WebSocketServer}.
+	 */
+	WebSocketEventLoop loop;
+	
+	/**
+	 * The {@link WebSocketServer} that accepted this WebSocket, if it was accepted by one.
+	 */
+	private WebSocketServer server;
+	
+	/**
+	 * Frames waiting to be written to the {@link #channel}, in the order in which they were sent. Filled by any thread
+	 * that sends, and drained by whichever thread holds {@link #draining}.
+	 */
+	private final MpscQueue<OutboundMessage> outbound = new MpscQueue<>();
+	
+	/**
+	 * Messages taken from the {@link #outbound} queue that the channel has not yet taken in full, in order. Only ever
+	 * touched while holding {@link #draining}.
+	 */
+	private final ArrayDeque<OutboundMessage> inFlight = new ArrayDeque<>();
+	
+	/**
+	 * The buffer that the headers of the messages in {@link #inFlight} are encoded into, one after another, leased from
+	 * the {@link #pool} while any message is in flight. Only ever touched while holding {@link #draining}.
+	 */
+	private ByteBuffer headers;
+	
+	/**
+	 * Held by the single thread that may drain the {@link #outbound} queue at any one time: this WebSocket's
+	 * {@link WebSocketEventLoop}, or, for a WebSocket that runs its own listener, whichever sending thread gets to it
+	 * first. Never blocked on, so sending never waits for another thread's write.
+	 */
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	
+	/**
+	 * Bytes of this server's half of the opening handshake that the channel did not take straight away, kept in read
+	 * mode until the {@link WebSocketHandshakeLoop} finds the channel writable, or null if there are none. Only ever
+	 * touched while holding {@link #draining}.
+	 */
+	private ByteBuffer handshakeOutput;
+	
+	/**
+	 * Set when a frame is queued and cleared as a drain begins, so that a burst of frames sent before the queue is next
+	 * drained costs only a single wakeup, and is written with as few gathering writes as possible.
+	 */
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	
+	/**
+	 * The number of bytes that frames in the {@link #outbound} queue or in flight are expected to occupy on the wire.
+	 */
+	private final AtomicLong queuedBytes = new AtomicLong();
+	
+	/**
+	 * Whether or not the {@link #queuedBytes} are within this WebSocket's water marks. See {@link #isWritable()}.
+	 */
+	private volatile boolean writable = true;
+	
+	/**
+	 * Guards changes to {@link #writable}. A lock rather than a monitor, so that a virtual thread waiting on
+	 * {@link #writableCondition} lets go of its carrier thread.
+	 */
+	private final ReentrantLock writabilityLock = new ReentrantLock();
+	
+	/**
+	 * Waited on by senders blocked by the {@link WebSocketConfig.BackpressurePolicy#BLOCK} policy, and signalled when
+	 * this WebSocket becomes writable or is closed.
+	 */
+	private final Condition writableCondition = writabilityLock.newCondition();
+	
+	/**
+	 * The number of times that {@link #writable} has changed. Only changed while holding the {@link #writabilityLock}.
+	 * Changes alternate, starting from writable, so every odd change is to unwritable and every even change back again.
+	 */
+	private volatile int writabilityChanges = 0;
+	
+	/**
+	 * The number of {@link #writabilityChanges} that the {@link WritabilityListener} has been told of. Only touched by
+	 * the thread holding {@link #writabilityNotifiers}.
+	 */
+	private int writabilityNotified = 0;
+	
+	/**
+	 * Counts the calls to {@link #notifyWritability()} made while one was already telling the listener of changes, so
+	 * that the notifying thread goes round again rather than leaving a change untold.
+	 */
+	private final AtomicInteger writabilityNotifiers = new AtomicInteger();
+	
+	/**
+	 * The most buffers handed to a single gathering write. Matches the usual IOV_MAX of 1024.
+	 */
+	private static final int MAX_GATHER = 1024;
+	
+	/**
+	 * The size of the buffer that the headers of the messages in flight are encoded into, which bounds how many messages
+	 * a single gathering write takes alongside {@link #MAX_GATHER}.
+	 */
+	private static final int HEADER_SCRATCH_SIZE = 4096;
+	
+	/**
+	 * Arrays handed to gathering writes, one per draining thread, as they are only ever needed for a single write.
+	 */
+	private static final ScratchPool<ByteBuffer[]> GATHER_BUFFERS = new ScratchPool<>(() -> new ByteBuffer[MAX_GATHER], 64);
+	
+	/**
+	 * Encoders used by {@link #send(String)} to encode text straight into a pooled buffer, one per sending thread.
+	 */
+	private static final ScratchPool<CharsetEncoder> TEXT_ENCODERS = new ScratchPool<>(() -> StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE), 64);
+	
+	/**
+	 * The pool from which this WebSocket's listener and frames lease their buffers: that of the
+	 * {@link WebSocketEventLoop} it is pinned to, or else the default pool. A loop's pool is used from the moment this
+	 * WebSocket is accepted, as a pool may be leased from and released to by any thread: buffers that the handshake
+	 * thread leases and the loop's thread releases simply move from the one thread's cache to the other's.
+	 */
+	private BufferPool pool = BufferPool.getDefault();
+	
+	/**
+	 * The settings this WebSocket operates under, which are shared with every other client of the same
+	 * {@link WebSocketServer}.
+	 */
+	private WebSocketConfig config = new WebSocketConfig();
+	
+	/**
+	 * The permessage-deflate extension, if it was agreed upon during the opening handshake.
+	 */
+	private volatile PerMessageDeflate deflate;
+	
+	/**
+	 * The wheel on which this WebSocket's handshake and keepalive timeouts are scheduled: the default wheel until the
+	 * {@link WebSocketEventLoop} it is pinned to has adopted it, and that loop's from then on. A loop's wheel runs its
+	 * tasks on the loop's thread, which must therefore not be handed the timeouts of a WebSocket that it does not yet
+	 * service.
+	 */
+	private TimingWheel timer = TimingWheel.getDefault();
+	
+	/**
+	 * This WebSocket's handshake timeout while it is handshaking, and its next keepalive check once it is running.
+	 */
+	private volatile TimingWheel.Timeout timeout;
+	
+	/**
+	 * The {@link System#nanoTime()} at which bytes were last received from the client. Rather than rescheduling a
+	 * timeout each time bytes arrive, the keepalive check looks back at this once it runs.
+	 */
+	private volatile long lastReceived;
+	
+	/**
+	 * The {@link System#nanoTime()} at which this WebSocket last sent its client a PING.
+	 */
+	private volatile long lastPingSent;
+	
+	private static final ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0);
+	
+	/**
+	 * The client's half of the opening handshake as parsed so far, when the handshake is being read without blocking by
+	 * a {@link WebSocketEventLoop}. Let go of once the handshake is complete.
+	 */
+	private HandshakeRequest handshakeRequest;
+	
+	/**
+	 * The start of every successful response to an opening handshake, up to the value of its 'Sec-WebSocket-Accept'
+	 * header.
+	 */
+	private static final byte[] HANDSHAKE_RESPONSE_START = (
+			"HTTP/1.1 101 Switching Protocols\r\n" +
+			"Connection: upgrade\r\n" +
+			"Upgrade: websocket\r\n" +
+			"Sec-WebSocket-Accept: "
+	).getBytes(StandardCharsets.US_ASCII);
+	
+	private static final byte[] CRLF = {'\r', '\n'};
+	
+	/**
+	 * Room enough for any response to an opening handshake.
+	 */
+	private static final int HANDSHAKE_RESPONSE_SIZE = 512;
+	
 	/**
 	 * {@link WebSocketListener} that continously checks a given WebSocket instance's {@link InputStream},
 	 * {@link #input} for incoming bytes.
@@ -81,8 +327,100 @@ public class WebSocket {
 	 */
 	public final String name;
 	
+	/**
+	 * Whether or not this WebSocket's client connected over TLS, through the {@link #tls} session.
+	 */
 	private boolean secure = false;
 	
+	/**
+	 * The TLS session through which every byte exchanged with the client passes, for WebSockets accepted by a
+	 * {@link WebSocketServer} that serves <code>wss://</code>. Null for plain connections.
+	 */
+	private TlsSession tls;
+	
+	/**
+	 * The registry that this WebSocket's traffic, state changes and latencies are recorded to: that of the
+	 * {@link WebSocketServer} that accepted it, or else the default registry.
+	 */
+	private WebSocketMetrics metrics = WebSocketMetrics.getDefault();
+	
+	/**
+	 * The {@link System#nanoTime()} at which this WebSocket's client was accepted, from which its handshake is timed.
+	 */
+	private long handshakeStart;
+	
+	/**
+	 * The Flight Recorder event spanning this WebSocket's opening handshake, if a recording wanted one when the client
+	 * was accepted.
+	 */
+	private volatile HandshakeEvent handshakeEvent;
+	
+	/*
+	 * Counts of this WebSocket's own traffic. Each is only ever written by one thread at a time, the received counts by
+	 * whichever thread is processing incoming bytes and the sent counts by whichever thread holds draining, so they are
+	 * plain volatile fields rather than adders.
+	 */
+	
+	private volatile long framesReceived;
+	
+	private volatile long bytesReceived;
+	
+	private volatile long framesSent;
+	
+	private volatile long bytesSent;
+	
+	/**
+	 * Publishes the messages received by this WebSocket to whichever subscriber has subscribed to them.
+	 */
+	private final MessagePublisher publisher = new MessagePublisher(this);
+	
+	/**
+	 * The handler of this WebSocket's events, taken from its {@link #config} once the opening handshake completes, or
+	 * null if there is none.
+	 */
+	private volatile WebSocketHandler handler;
+	
+	/**
+	 * Queues the calls to the {@link #handler} on the configured handler executor, one at a time and in order, or null
+	 * if the handler is called on the thread reading this WebSocket.
+	 */
+	private volatile SerialExecutor dispatcher;
+	
+	/**
+	 * The number of calls queued on the {@link #dispatcher} that have yet to finish.
+	 */
+	private final AtomicInteger dispatchBacklog = new AtomicInteger();
+	
+	/**
+	 * Set once the {@link #handler} has been told that this WebSocket opened, and cleared once it has been told that it
+	 * closed.
+	 */
+	private final AtomicBoolean open = new AtomicBoolean(false);
+	
+	/**
+	 * Set by the first call to {@link #close()}, which alone runs the close sequence. The state cannot serve, as a
+	 * WebSocket that is answering a client's CLOSE frame is already in the closing state before it is closed.
+	 */
+	private final AtomicBoolean closing = new AtomicBoolean(false);
+	
+	/**
+	 * The status code of the CLOSE frame received from the client, or {@link #CLOSE_ABNORMAL} if none has been.
+	 */
+	private volatile int closeCode = CLOSE_ABNORMAL;
+	
+	private volatile String closeReason = "";
+	
+	/**
+	 * Set once a CLOSE frame has been written to the client, after which this WebSocket closes.
+	 */
+	private volatile boolean closeFrameWritten = false;
+	
+	/**
+	 * Set by the thread reading this WebSocket once it has stopped reading for want of demand from the
+	 * {@link #publisher}'s subscriber, so that a subscriber requesting more knows to wake it.
+	 */
+	private volatile boolean readingPaused = false;
+	
 	public WebSocket() {
 		
 		this(generateName(), 0);
@@ -109,30 +447,98 @@ public class WebSocket {
 	
 	}
 	
+	/**
+	 * Constructor for WebSockets accepted by a {@link WebSocketServer}. The opening handshake is read from the provided
+	 * {@link SocketChannel} either by one of the server's {@link WebSocketHandshakeLoop}s, before the WebSocket is
+	 * adopted by the given {@link WebSocketEventLoop}, or, if there is no event loop, by this WebSocket's own
+	 * {@link WebSocketListener} thread.
+	 *
+	 * @param channel The already-accepted channel connected to the client, which must be non-blocking if there is an
+	 *                event loop and blocking otherwise.
+	 * @param server The server that accepted the client.
+	 * @param loop The event loop that this WebSocket is pinned to, whose buffer pool it uses, and which services the
+	 *             channel and takes over its timeouts once the handshake is complete, or null if this WebSocket is to be
+	 *             serviced by a thread of its own.
+	 */
+	WebSocket(SocketChannel channel, WebSocketServer server, WebSocketEventLoop loop) {
+		
+		this(generateName(), channel.socket().getLocalPort());
+		
+		this.channel = channel;
+		this.server = server;
+		this.loop = loop;
+		config = server.getConfig();
+		
+		if (loop != null) {
+			
+			pool = loop.getBufferPool();
+			loop.pin(this);
+			
+		}
+		
+		metrics = server.getMetrics();
+		handshakeRequest = new HandshakeRequest();
+		handshakeStart = System.nanoTime();
+		beginHandshakeEvent();
+		setState(WebSocket.State.HANDSHAKING);
+		
+		SSLContext sslContext = config.getSslContext();
+		
+		if (sslContext != null) {
+			
+			try {
+				
+				tls = new TlsSession(sslContext, config.getSslParameters(), channel, pool);
+				secure = true;
+				
+			} catch (IOException | RuntimeException e) {
+				
+				// A context that is not initialized, or parameters that it rejects, fail this client alone.
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to begin the TLS handshake of WebSocket '" + name + "': " + e.getMessage());
+				close();
+				setState(WebSocket.State.ERRORED);
+				return;
+				
+			}
+			
+		}
+		
+		long handshakeTimeout = config.getHandshakeTimeout();
+		
+		if (handshakeTimeout > 0) timeout = schedule(this::handshakeTimedOut, handshakeTimeout, TimeUnit.MILLISECONDS);
+		
+	}
+	
 	public boolean handshake() {
 		
-		state = WebSocket.State.HANDSHAKING;
+		setState(WebSocket.State.HANDSHAKING);
 		
 		try {
 			
-			socket = new ServerSocket(port);
+			// Opened through a channel so that accepted clients have a channel to perform gathering writes on.
+			socket = ServerSocketChannel.open().socket();
+			socket.bind(new InetSocketAddress(port));
 			
 		} catch (IOException e) {
 			
-			state = WebSocket.State.ERRORED;
+			setState(WebSocket.State.ERRORED);
 			
 			if (CaffeineSocket.getDebug()) System.out.println("Could not get the requested port.");
 			return false;
 			
 		}
 		
+		// Registered once the socket is bound, so that a client connecting meanwhile waits in the backlog rather than
+		// being refused.
+		WebSocketMetrics.registerDefault();
+		
 		try {
 			
 			if (CaffeineSocket.getDebug()) System.out.println("Server has started on " + socket.getInetAddress().getLocalHost().getHostAddress() + ":" + port + "." + System.lineSeparator() + "Waiting for a connection..." + System.lineSeparator());
 			
 		} catch (UnknownHostException e) {
 			
-			state = WebSocket.State.ERRORED;
+			setState(WebSocket.State.ERRORED);
 			
 			if (CaffeineSocket.getDebug()) System.out.println("Unknown host.");
 			
@@ -143,10 +549,12 @@ public class WebSocket {
 		try {
 			
 			client = socket.accept();
+			handshakeStart = System.nanoTime();
+			beginHandshakeEvent();
 			
 		} catch (IOException e) {
 			
-			state = WebSocket.State.ERRORED;
+			setState(WebSocket.State.ERRORED);
 			
 			if (CaffeineSocket.getDebug()) System.out.println("Failed to accept client connection.");
 			return false;
@@ -155,13 +563,15 @@ public class WebSocket {
 		
 		if (CaffeineSocket.getDebug()) System.out.println("A client connected." + System.lineSeparator());
 		
+		channel = client.getChannel();
+		
 		try {
 			
 			input = client.getInputStream();
 			
 		} catch (IOException e) {
 			
-			state = WebSocket.State.ERRORED;
+			setState(WebSocket.State.ERRORED);
 			
 			if (CaffeineSocket.getDebug()) System.out.println("Failed to get the client's InputStream.");
 			return false;
@@ -174,117 +584,1333 @@ public class WebSocket {
 			
 		} catch (IOException e) {
 			
-			state = WebSocket.State.ERRORED;
+			setState(WebSocket.State.ERRORED);
 			
 			if (CaffeineSocket.getDebug()) System.out.println("Failed to get the client's OutputStream.");
 			return false;
 			
 		}
 		
-		String receivedClientHeaders = new Scanner(input, "UTF-8").useDelimiter("\\r\\n\\r\\n").next();
-		
-		// Get the WebSocket Key sent by the client.
-		// This is extracted via regex from the client's sent headers.
-		Pattern p = Pattern.compile("(?<=Sec-WebSocket-Key: )\\S+");
-		Matcher m = p.matcher(receivedClientHeaders);
-		String websocketReceivedKey = null;
+		HandshakeRequest request = new HandshakeRequest();
+		ByteBuffer buffer = pool.lease(HandshakeRequest.MAX_SIZE);
 		
-		if (m.find()) {
+		try {
 			
-			websocketReceivedKey = m.group(0);
+			buffer.flip();
 			
-		}
-		
-		String websocketAcceptKey;
-		
-		try {
+			try {
+				
+				while (!request.consume(buffer)) {
+					
+					buffer.clear();
+					
+					if (channel.read(buffer) < 0) {
+						
+						setState(WebSocket.State.ERRORED);
+						
+						setHandshakeError("The client closed the connection");
+						
+						if (CaffeineSocket.getDebug()) System.out.println("The client closed the connection during the opening handshake.");
+						return false;
+						
+					}
+					
+					buffer.flip();
+					
+				}
+				
+				if (!request.isValid()) {
+					
+					setState(WebSocket.State.ERRORED);
+					
+					setHandshakeError(request.getError());
+					
+					if (CaffeineSocket.getDebug()) System.out.println(request.getError());
+					channel.write(request.getRejection());
+					return false;
+					
+				}
+				
+				deflate = PerMessageDeflate.negotiate(request.getExtensions(), config);
+				writeHandshakeResponse(request);
+				
+			} catch (IOException e) {
+				
+				setState(WebSocket.State.ERRORED);
+				
+				setHandshakeError(e.toString());
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to complete the opening handshake with the client: " + e.getMessage());
+				return false;
+				
+			}
 			
-			websocketAcceptKey = DatatypeConverter.printBase64Binary(MessageDigest.getInstance("SHA-1").digest((websocketReceivedKey + WS_GUID).getBytes("UTF-8")));
+			setState(WebSocket.State.RUNNING);
+			startKeepAlive();
+			opened();
 			
-		} catch (Exception e) {
+			// Frames that the client sent straight after its handshake may have been read along with it.
+			if (buffer.hasRemaining()) listener.process(buffer);
 			
-			state = WebSocket.State.ERRORED;
+		} finally {
 			
-			return false;
+			pool.release(buffer);
 			
 		}
 		
-		byte[] response = (
-				"HTTP/1.1 101 Switching Protocols\r\n" +
-				"Connection: upgrade\r\n" +
-				"Upgrade: websocket\r\n" +
-				"Sec-WebSocket-Accept: " + websocketAcceptKey + "\r\n" +
-				"\r\n"
-		).getBytes(); // TODO - Remember to add conditionals for subprotocols and extensions, as well as different WebSocket versions.
+		listener.provideChannel(channel);
 		
-		try {
-			
-			output.write(response, 0, response.length);
-			
-		} catch (IOException e) {
-			
-			state = WebSocket.State.ERRORED;
-			
-			if (CaffeineSocket.getDebug()) System.out.println("Failed to write the HTTP 101 Switching Protocols response to the client's OutputStream.");
-			return false;
-			
-		}
+		return true;
+	
+	}
+	
+	/**
+	 * Handles bytes read from this WebSocket's {@link #channel} by a {@link WebSocketHandshakeLoop} or
+	 * {@link WebSocketEventLoop}, decrypting them first if the client connected over TLS.
+	 *
+	 * @param buffer The bytes most recently read, which are all consumed.
+	 * @return false if the client closed its TLS session.
+	 * @throws IOException If the bytes could not be decrypted, or a response could not be written.
+	 */
+	boolean receive(ByteBuffer buffer) throws IOException {
 		
-		listener.provideInputStream(input);
+		if (tls != null) return tls.unwrap(buffer, this);
 		
-		state = WebSocket.State.RUNNING;
+		deliver(buffer);
 		
 		return true;
+		
+	}
 	
+	/**
+	 * Hands plaintext received from the client to the opening handshake while it is in progress, and to the
+	 * {@link #listener} from then on.
+	 *
+	 * @param bytes The plaintext, which is all consumed.
+	 * @throws IOException If the opening handshake could not be written back to the client.
+	 */
+	void deliver(ByteBuffer bytes) throws IOException {
+		
+		if (state == WebSocket.State.HANDSHAKING && !receiveHandshake(bytes)) return;
+		
+		// Frames that the client sent straight after its handshake may have been read along with it, and are processed
+		// here so that they come before anything read later.
+		if (bytes.hasRemaining() && acceptsFrames()) listener.process(bytes);
+		
 	}
 	
-	public boolean close() {
+	/**
+	 * Writes out the records that this WebSocket's {@link #tls} session has to send of its own accord, such as those of
+	 * the TLS handshake. Whatever the channel does not take straight away is left for the next flush, which the
+	 * {@link WebSocketHandshakeLoop} makes through {@link #flushHandshake()} while the opening handshake is in progress.
+	 *
+	 * @throws IOException If the records could not be written.
+	 */
+	void flushTls() throws IOException {
 		
-		state = WebSocket.State.CLOSING;
+		// Only a close can be holding the outbound queue while the client is read from, in which case the records are moot.
+		if (!draining.compareAndSet(false, true)) return;
+		
+		boolean pending;
 		
 		try {
 			
-			input.close();
-			
-		} catch (IOException e) {
+			pending = !tls.writeEngineRecords();
 			
-			state = WebSocket.State.ERRORED;
+		} finally {
 			
-			if (CaffeineSocket.getDebug()) System.out.println("InputStream could not be closed.");
-			if (CaffeineSocket.getDebug()) System.err.println(e);
-			return false;
+			endDrain(false);
 			
 		}
 		
-		try {
-			
-			output.close();
-			
-		} catch (IOException e) {
+		if (pending && state != WebSocket.State.HANDSHAKING && flushScheduled.compareAndSet(false, true)) {
 			
-			state = WebSocket.State.ERRORED;
-			
-			if (CaffeineSocket.getDebug()) System.out.println("OutputStream could not be closed.");
-			if (CaffeineSocket.getDebug()) System.err.println(e);
-			return false;
+			if (loop != null) loop.requestFlush(this);
+			else flushFromSender();
 			
 		}
 		
+	}
+	
+	/**
+	 * Writes bytes of the opening handshake straight to the channel, ahead of the outbound queue, encrypting them first
+	 * if the client connected over TLS. The channel is never waited on: bytes that it does not take straight away are
+	 * either kept for {@link #flushHandshake()}, or dropped.
+	 *
+	 * @param bytes The bytes to write.
+	 * @param keep Whether or not to keep the bytes that the channel does not take, rather than making a single attempt.
+	 * @throws IOException If the bytes could not be written.
+	 */
+	private void writeHandshake(ByteBuffer bytes, boolean keep) throws IOException {
+		
+		if (!draining.compareAndSet(false, true)) throw new ClosedChannelException();
+		
 		try {
 			
-			socket.close();
+			if (tls != null) {
+				
+				tls.writeHandshake(bytes, keep);
+				return;
+				
+			}
 			
-		} catch (IOException e) {
+			channel.write(bytes);
 			
-			state = WebSocket.State.ERRORED;
+			if (keep && bytes.hasRemaining()) {
+				
+				handshakeOutput = pool.lease(bytes.remaining());
+				handshakeOutput.put(bytes).flip();
+				
+			}
 			
-			if (CaffeineSocket.getDebug()) System.out.println("Socket could not be closed.");
-			if (CaffeineSocket.getDebug()) System.err.println(e);
-			return false;
+		} finally {
+			
+			endDrain(false);
+			
+		}
+		
+	}
+	
+	/**
+	 * Writes whatever of the opening handshake the channel did not take straight away, including any records of the TLS
+	 * handshake. Called by the {@link WebSocketHandshakeLoop} once the channel is writable, which keeps the WebSocket
+	 * until nothing is left.
+	 *
+	 * @return true if every byte of the opening handshake has been written.
+	 * @throws IOException If the bytes could not be written.
+	 */
+	boolean flushHandshake() throws IOException {
+		
+		if (!draining.compareAndSet(false, true)) throw new ClosedChannelException();
+		
+		try {
+			
+			if (tls != null) return tls.writeEngineRecords();
+			
+			ByteBuffer output = handshakeOutput;
+			
+			if (output == null) return true;
+			
+			channel.write(output);
+			
+			if (output.hasRemaining()) return false;
+			
+			handshakeOutput = null;
+			pool.release(output);
+			
+			return true;
+			
+		} finally {
+			
+			endDrain(false);
+			
+		}
+		
+	}
+	
+	/**
+	 * Consumes bytes of the client's half of the opening handshake as they are read by a
+	 * {@link WebSocketHandshakeLoop}, and writes out this server's half of the handshake once the client's headers are
+	 * complete.
+	 * <p>
+	 * Any bytes following the end of the client's headers are left in the provided buffer.
+	 *
+	 * @param buffer The bytes most recently read from this WebSocket's {@link #channel}.
+	 * @return true if the opening handshake has completed.
+	 * @throws IOException If the handshake could not be written back to the client.
+	 */
+	boolean receiveHandshake(ByteBuffer buffer) throws IOException {
+		
+		if (!handshakeRequest.consume(buffer)) return false;
+		
+		HandshakeRequest request = handshakeRequest;
+		handshakeRequest = null;
+		
+		if (!request.isValid()) {
+			
+			setHandshakeError(request.getError());
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Rejected a client's opening handshake: " + request.getError());
+			
+			// Only a courtesy, so a client that is not reading is not waited on.
+			writeHandshake(request.getRejection(), false);
+			close();
+			setState(WebSocket.State.ERRORED);
+			return false;
+			
+		}
+		
+		deflate = PerMessageDeflate.negotiate(request.getExtensions(), config);
+		writeHandshakeResponse(request);
+		
+		setState(WebSocket.State.RUNNING);
+		
+		// Keepalive checks are scheduled by the event loop once it has adopted this WebSocket, on the loop's own wheel.
+		if (loop == null) startKeepAlive();
+		
+		opened();
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Writes this server's half of the opening handshake to the client.
+	 *
+	 * @param request The client's half of the opening handshake, which has been found to be valid.
+	 * @throws IOException If the response could not be written.
+	 */
+	private void writeHandshakeResponse(HandshakeRequest request) throws IOException {
+		
+		ByteBuffer response = pool.lease(HANDSHAKE_RESPONSE_SIZE);
+		
+		try {
+			
+			response.put(HANDSHAKE_RESPONSE_START);
+			request.putAcceptKey(response);
+			response.put(CRLF);
+			
+			if (deflate != null) response.put(("Sec-WebSocket-Extensions: " + deflate.getResponseHeader() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+			
+			// TODO - Remember to add conditionals for subprotocols, as well as different WebSocket versions.
+			response.put(CRLF);
+			response.flip();
+			
+			writeHandshake(response, true);
+			
+		} finally {
+			
+			pool.release(response);
+			
+		}
+		
+	}
+	
+	private void beginHandshakeEvent() {
+		
+		HandshakeEvent event = new HandshakeEvent();
+		
+		if (!event.isEnabled()) return;
+		
+		event.begin();
+		handshakeEvent = event;
+		
+	}
+	
+	private void setHandshakeError(String error) {
+		
+		HandshakeEvent event = handshakeEvent;
+		
+		if (event != null) event.error = error;
+		
+	}
+	
+	/**
+	 * Records the end of the opening handshake, once this WebSocket has left the handshaking state.
+	 *
+	 * @param successful Whether or not the handshake completed.
+	 */
+	private void endHandshake(boolean successful) {
+		
+		if (successful) metrics.recordHandshake(System.nanoTime() - handshakeStart);
+		
+		HandshakeEvent event = handshakeEvent;
+		
+		if (event == null) return;
+		
+		handshakeEvent = null;
+		event.end();
+		
+		if (!event.shouldCommit()) return;
+		
+		event.webSocket = name;
+		event.remoteAddress = String.valueOf(channel.socket().getRemoteSocketAddress());
+		event.secure = secure;
+		event.successful = successful;
+		event.extensions = deflate != null ? deflate.getResponseHeader() : null;
+		event.commit();
+		
+	}
+	
+	private void handshakeTimedOut() {
+		
+		if (state != WebSocket.State.HANDSHAKING) return;
+		
+		setHandshakeError("The handshake timed out");
+		
+		if (CaffeineSocket.getDebug()) System.out.println("Client of WebSocket '" + name + "' did not complete its opening handshake in time.");
+		close();
+		setState(WebSocket.State.ERRORED);
+		
+	}
+	
+	/**
+	 * Records that bytes have just been received from the client, which keeps this WebSocket from being considered idle.
+	 */
+	void markReceived() {
+		
+		lastReceived = System.nanoTime();
+		
+	}
+	
+	/**
+	 * Records a frame whose header has just been received from the client.
+	 *
+	 * @param type The type of the frame.
+	 * @param bytes The size of the frame's header and payload.
+	 */
+	void frameReceived(WebSocketFrame.Type type, long bytes) {
+		
+		framesReceived++;
+		bytesReceived += bytes;
+		metrics.frameReceived(type, bytes);
+		
+	}
+	
+	/**
+	 * Records that a message, or a piece of one, has just been handed to the application, timing the delivery from when
+	 * the bytes that completed it were received.
+	 */
+	void delivered() {
+		
+		metrics.recordDelivery(System.nanoTime() - lastReceived);
+		
+	}
+	
+	/**
+	 * Tells the configured {@link WebSocketHandler} that this WebSocket has opened, once the opening handshake has
+	 * completed and before any frames that followed the handshake are processed.
+	 */
+	private void opened() {
+		
+		WebSocketHandler handler = config.getHandler();
+		
+		if (handler == null) return;
+		
+		Executor executor = config.getHandlerExecutor();
+		
+		if (executor != null) dispatcher = new SerialExecutor(executor);
+		
+		this.handler = handler;
+		open.set(true);
+		
+		try {
+			
+			handle(() -> handler.onOpen(this));
+			
+		} catch (RuntimeException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("The handler of WebSocket '" + name + "' failed to open it: " + e);
+			close();
+			
+		}
+		
+	}
+	
+	/**
+	 * Answers a CLOSE frame received from the client with a CLOSE frame of this WebSocket's own, echoing the client's
+	 * status code, and closes this WebSocket once that has been written. Frames that the client sends after its CLOSE
+	 * frame are ignored.
+	 *
+	 * @param code The status code of the client's CLOSE frame, or {@link #CLOSE_NO_STATUS} if it had none.
+	 * @param reason The reason given by the client, or an empty String.
+	 */
+	void closeReceived(int code, String reason) {
+		
+		closeCode = code;
+		closeReason = reason;
+		
+		setState(WebSocket.State.CLOSING);
+		
+		ByteBuffer payload = pool.lease(code == CLOSE_NO_STATUS ? 0 : 2);
+		
+		if (code != CLOSE_NO_STATUS) payload.putShort((short) code);
+		
+		payload.flip();
+		
+		if (!send(WebSocketFrame.Type.CONNECTION_CLOSE, payload, true)) close();
+		
+	}
+	
+	/**
+	 * Fails the connection, as <a href="https://tools.ietf.org/html/rfc6455#section-7.1.7">[RFC6455] Section 7.1.7</a>
+	 * describes: sends the client a CLOSE frame with the given status code, and closes this WebSocket once that has been
+	 * written. Frames that the client sends in the meantime are ignored.
+	 *
+	 * @param code The status code to send.
+	 */
+	void fail(int code) {
+		
+		setState(WebSocket.State.CLOSING);
+		
+		ByteBuffer payload = pool.lease(2);
+		payload.putShort((short) code);
+		payload.flip();
+		
+		if (!send(WebSocketFrame.Type.CONNECTION_CLOSE, payload, true)) close();
+		
+	}
+	
+	/**
+	 * Moves this WebSocket's timeouts onto the wheel of its {@link WebSocketEventLoop}, and schedules its first keepalive
+	 * check there. Called on the loop's thread as the loop adopts this WebSocket, once its opening handshake has been
+	 * written in full, which hands over everything the handshake thread did to it.
+	 */
+	void adopted() {
+		
+		timer = loop.getTimer();
+		startKeepAlive();
+		
+	}
+	
+	/**
+	 * Replaces the handshake timeout with the first keepalive check, once the opening handshake has completed.
+	 */
+	private void startKeepAlive() {
+		
+		TimingWheel.Timeout handshakeTimeout = timeout;
+		
+		if (handshakeTimeout != null) handshakeTimeout.cancel();
+		
+		lastReceived = lastPingSent = System.nanoTime();
+		scheduleKeepAlive();
+		
+	}
+	
+	/**
+	 * Schedules one of this WebSocket's timeouts on its {@link #timer}. A loop's wheel runs the task on the loop's own
+	 * thread, which services this WebSocket anyway. The default wheel is shared by every WebSocket without a loop, and
+	 * by those whose loop has yet to adopt them, so its thread only hands the task to a thread of its own: a PING
+	 * written to a client that has stopped reading, or a close, may block on this WebSocket's channel, which would
+	 * otherwise hold up every other WebSocket's timeouts.
+	 *
+	 * @param task The task to run.
+	 * @param delay The time to wait before running the task.
+	 * @param unit The unit of <code>delay</code>.
+	 * @return The timeout, through which the task may be cancelled.
+	 */
+	private TimingWheel.Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		
+		TimingWheel timer = this.timer;
+		
+		if (loop != null && timer == loop.getTimer()) return timer.schedule(task, delay, unit);
+		
+		return timer.schedule(() -> VirtualThreads.newThread(task, "wst for ws:'" + name + "'").start(), delay, unit);
+		
+	}
+	
+	/**
+	 * Schedules the next keepalive check for whenever a PING would next be due, or this WebSocket would next be idle
+	 * for too long, whichever is sooner.
+	 */
+	private void scheduleKeepAlive() {
+		
+		long pingInterval = TimeUnit.MILLISECONDS.toNanos(config.getPingInterval());
+		long idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeout());
+		
+		if (pingInterval == 0 && idleTimeout == 0) {
+			
+			timeout = null;
+			return;
+			
+		}
+		
+		long next = Long.MAX_VALUE;
+		
+		if (idleTimeout > 0) next = lastReceived + idleTimeout;
+		if (pingInterval > 0) next = Math.min(next, Math.max(lastReceived, lastPingSent) + pingInterval);
+		
+		timeout = schedule(this::keepAlive, next - System.nanoTime(), TimeUnit.NANOSECONDS);
+		
+	}
+	
+	/**
+	 * Closes this WebSocket if its client has been silent for longer than the idle timeout, and otherwise sends the
+	 * client a PING if it has been silent for longer than the ping interval. Run as arranged by {@link #schedule(Runnable, long, TimeUnit)}.
+	 */
+	private void keepAlive() {
+		
+		if (state != WebSocket.State.RUNNING) return;
+		
+		long now = System.nanoTime();
+		long idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeout());
+		long pingInterval = TimeUnit.MILLISECONDS.toNanos(config.getPingInterval());
+		
+		// The client cannot be heard from while reads are paused, so its silence in the meantime is not held against it.
+		if (readingPaused) lastReceived = now;
+		
+		if (idleTimeout > 0 && now - lastReceived >= idleTimeout) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Client of WebSocket '" + name + "' has been idle for too long, closing the connection.");
+			close();
+			return;
+			
+		}
+		
+		if (pingInterval > 0 && now - Math.max(lastReceived, lastPingSent) >= pingInterval) {
+			
+			lastPingSent = now;
+			send(WebSocketFrame.Type.PING, EMPTY_PAYLOAD, false);
+			
+		}
+		
+		scheduleKeepAlive();
+		
+	}
+	
+	/**
+	 * Sends a complete text message to the client.
+	 *
+	 * @param text The text to send.
+	 * @return true if the message was queued to be written to the client, or discarded under the
+	 *         {@link WebSocketConfig.BackpressurePolicy#DROP} policy.
+	 */
+	public boolean send(String text) {
+		
+		// Every UTF-16 char encodes to at most three bytes of UTF-8.
+		if (text.length() > BufferPool.MAX_SIZE_CLASS / 3) {
+			
+			return send(WebSocketFrame.Type.TEXT, ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), false);
+			
+		}
+		
+		ByteBuffer payload = pool.lease(text.length() * 3);
+		CharsetEncoder textEncoder = TEXT_ENCODERS.lease();
+		
+		try {
+			
+			textEncoder.reset();
+			textEncoder.encode(CharBuffer.wrap(text), payload, true);
+			textEncoder.flush(payload);
+			payload.flip();
+			
+		} finally {
+			
+			TEXT_ENCODERS.release(textEncoder);
+			
+		}
+		
+		return send(WebSocketFrame.Type.TEXT, payload, true);
+		
+	}
+	
+	/**
+	 * Sends a complete binary message to the client.
+	 * <p>
+	 * The data is not copied, so the bytes between its position and limit must not be modified until they have been
+	 * written. The buffer's own position is left untouched.
+	 *
+	 * @param data The bytes to send, between the buffer's position and limit.
+	 * @return true if the message was queued to be written to the client, or discarded under the
+	 *         {@link WebSocketConfig.BackpressurePolicy#DROP} policy.
+	 */
+	public boolean send(ByteBuffer data) {
+		
+		return send(WebSocketFrame.Type.BINARY, data, false);
+		
+	}
+	
+	/**
+	 * Sends a pre-built frame to the client. The frame's payload is not copied.
+	 *
+	 * @param frame The frame to send.
+	 * @return true if the frame was queued to be written to the client, or discarded under the
+	 *         {@link WebSocketConfig.BackpressurePolicy#DROP} policy.
+	 */
+	public boolean send(WebSocketFrame frame) {
+		
+		return enqueue(new OutboundMessage(frame));
+		
+	}
+	
+	/**
+	 * Sends a frame that may also be sent to other clients, without encoding or copying it. A reference to the frame is
+	 * held until it has been written.
+	 *
+	 * @param frame The frame to send, which the caller remains responsible for releasing.
+	 * @return true if the frame was queued to be written to the client, or discarded under the
+	 *         {@link WebSocketConfig.BackpressurePolicy#DROP} policy.
+	 */
+	public boolean send(SharedFrame frame) {
+		
+		return enqueue(new OutboundMessage(frame));
+		
+	}
+	
+	/**
+	 * Sends the same text message to every given client, encoding it only once.
+	 * <p>
+	 * Broadcast messages are never compressed, as a message compressed for one client's compression context can not be
+	 * sent to another.
+	 *
+	 * @param targets The clients to send the message to.
+	 * @param text The text to send.
+	 * @return The number of clients that the message was queued to be written to.
+	 */
+	public static int broadcast(Collection<WebSocket> targets, String text) {
+		
+		return broadcast(targets, SharedFrame.text(text));
+		
+	}
+	
+	/**
+	 * Sends the same binary message to every given client, encoding it only once.
+	 * <p>
+	 * Broadcast messages are never compressed, as a message compressed for one client's compression context can not be
+	 * sent to another.
+	 *
+	 * @param targets The clients to send the message to.
+	 * @param data The bytes to send, between the buffer's position and limit, which may be reused once this method
+	 *             returns.
+	 * @return The number of clients that the message was queued to be written to.
+	 */
+	public static int broadcast(Collection<WebSocket> targets, ByteBuffer data) {
+		
+		return broadcast(targets, SharedFrame.binary(data));
+		
+	}
+	
+	private static int broadcast(Collection<WebSocket> targets, SharedFrame frame) {
+		
+		int sent = 0;
+		
+		try {
+			
+			for (WebSocket target: targets) if (target.send(frame)) sent++;
+			
+		} finally {
+			
+			frame.release();
+			
+		}
+		
+		return sent;
+		
+	}
+	
+	/**
+	 * Sends a single, final, unmasked frame. Data frames are compressed as they are drained if permessage-deflate was
+	 * agreed upon.
+	 *
+	 * @param frameType The type of the frame.
+	 * @param payload The payload of the frame, between its position and limit.
+	 * @param pooledPayload Whether or not the payload was leased from this WebSocket's {@link #pool}, in which case it
+	 *                      is released once it has been written.
+	 * @return true if the frame was queued to be written to the client.
+	 */
+	boolean send(WebSocketFrame.Type frameType, ByteBuffer payload, boolean pooledPayload) {
+		
+		return enqueue(new OutboundMessage(frameType, pooledPayload ? payload : payload.duplicate(), pooledPayload));
+		
+	}
+	
+	/**
+	 * Adds a message to the {@link #outbound} queue, and makes sure that the queue will be drained. Never blocks on
+	 * another sending thread.
+	 *
+	 * @param message The message to queue.
+	 * @return true if the message was queued, or discarded under the {@link WebSocketConfig.BackpressurePolicy#DROP}
+	 *         policy, or false if this WebSocket can not currently be written to.
+	 */
+	private boolean enqueue(OutboundMessage message) {
+		
+		if (channel == null || !acceptsFrames()) {
+			
+			message.release(pool);
+			return false;
+			
+		}
+		
+		if (!writable && !message.isControlFrame() && !awaitWritable()) {
+			
+			message.release(pool);
+			return config.getBackpressurePolicy() == WebSocketConfig.BackpressurePolicy.DROP;
+			
+		}
+		
+		// Counted before the message can be drained, so that the count never drops below what is actually queued.
+		queuedBytes.addAndGet(message.size());
+		updateWritability();
+		
+		outbound.offer(message);
+		
+		// A close that raced this send may have already discarded the queue, in which case this message is discarded too.
+		if (!channel.isOpen()) {
+			
+			endDrain(true);
+			return false;
+			
+		}
+		
+		if (flushScheduled.compareAndSet(false, true)) {
+			
+			if (loop != null) loop.requestFlush(this);
+			else flushFromSender();
+			
+		}
+		
+		return true;
+		
+	}
+	
+	private boolean acceptsFrames() {
+		
+		return state == WebSocket.State.RUNNING || state == WebSocket.State.CLOSING;
+		
+	}
+	
+	/**
+	 * Waits for this WebSocket to become writable, if its {@link WebSocketConfig.BackpressurePolicy} allows the calling
+	 * thread to wait.
+	 *
+	 * @return true if this WebSocket became writable, or false if it was closed first, the thread was interrupted, or
+	 *         the thread is not allowed to wait.
+	 */
+	private boolean awaitWritable() {
+		
+		if (config.getBackpressurePolicy() != WebSocketConfig.BackpressurePolicy.BLOCK) return false;
+		
+		// An event loop waiting on one of its own connections would never write the bytes that it is waiting for.
+		if (loop != null && loop.inLoop()) return false;
+		
+		writabilityLock.lock();
+		
+		try {
+			
+			while (!writable) {
+				
+				if (!channel.isOpen() || !acceptsFrames()) return false;
+				
+				try {
+					
+					writableCondition.await();
+					
+				} catch (InterruptedException e) {
+					
+					Thread.currentThread().interrupt();
+					return false;
+					
+				}
+				
+			}
+			
+		} finally {
+			
+			writabilityLock.unlock();
+			
+		}
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Brings {@link #writable} in line with the number of {@link #queuedBytes}, telling the configured
+	 * {@link WritabilityListener} of each change. Called by any thread after changing the number of queued bytes.
+	 * <p>
+	 * Changes are made while holding the {@link #writabilityLock}, and counted, so that the listener hears of them in
+	 * the order in which they were made. Once a change has been made the number of queued bytes is checked again, as
+	 * another thread may have changed it in the meantime without seeing a need to change <code>writable</code> itself.
+	 * The listener is only told once the lock has been let go, so that it may send to or close this WebSocket.
+	 */
+	private void updateWritability() {
+		
+		if (writable ? queuedBytes.get() <= config.getHighWaterMark() : queuedBytes.get() > config.getLowWaterMark()) return;
+		
+		writabilityLock.lock();
+		
+		try {
+			
+			while (writable ? queuedBytes.get() > config.getHighWaterMark() : queuedBytes.get() <= config.getLowWaterMark()) {
+				
+				writable = !writable;
+				writabilityChanges++;
+				
+				if (writable) writableCondition.signalAll();
+				
+			}
+			
+		} finally {
+			
+			writabilityLock.unlock();
+			
+		}
+		
+		notifyWritability();
+		
+	}
+	
+	/**
+	 * Tells the configured {@link WritabilityListener} of every change to {@link #writable} that it has yet to hear of.
+	 * Only one thread tells it at a time. A change made meanwhile, including by the listener itself, is told by that
+	 * thread before it stops.
+	 */
+	private void notifyWritability() {
+		
+		if (writabilityNotifiers.getAndIncrement() != 0) return;
+		
+		int missed = 1;
+		
+		do {
+			
+			while (writabilityNotified != writabilityChanges) {
+				
+				writabilityNotified++;
+				
+				WritabilityListener listener = config.getWritabilityListener();
+				
+				if (listener == null) continue;
+				
+				try {
+					
+					listener.writabilityChanged(this, (writabilityNotified & 1) == 0);
+					
+				} catch (RuntimeException e) {
+					
+					if (CaffeineSocket.getDebug()) System.out.println("The writability listener of WebSocket '" + name + "' failed: " + e);
+					
+				}
+				
+			}
+			
+			missed = writabilityNotifiers.addAndGet(-missed);
+			
+		} while (missed != 0);
+		
+	}
+	
+	/**
+	 * Returns whether or not this WebSocket is writable: that is, whether the outbound bytes queued for its client are
+	 * within the high water mark set by its {@link WebSocketConfig}. A WebSocket that stops being writable becomes
+	 * writable again once its queue has drained to the low water mark.
+	 *
+	 * @return true if data messages sent to this WebSocket will be queued without regard to its backpressure policy.
+	 */
+	public boolean isWritable() {
+		
+		return writable;
+		
+	}
+	
+	/**
+	 * Returns the number of outbound bytes queued for this WebSocket's client that are yet to be written.
+	 *
+	 * @return The number of queued bytes, counting each frame as its uncompressed size.
+	 */
+	public long getQueuedBytes() {
+		
+		return queuedBytes.get();
+		
+	}
+	
+	/**
+	 * Drains the {@link #outbound} queue from the sending thread, for WebSockets that have no event loop to do so. If
+	 * another sender is already draining, it picks up this sender's messages before it stops.
+	 */
+	private void flushFromSender() {
+		
+		while (flushScheduled.get() && draining.compareAndSet(false, true)) {
+			
+			boolean failed = false;
+			
+			try {
+				
+				flushScheduled.set(false);
+				drain();
+				
+			} catch (IOException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to write to WebSocket '" + name + "': " + e.getMessage());
+				failed = true;
+				
+			} finally {
+				
+				endDrain(false);
+				
+			}
+			
+			if (failed) close();
+			
+		}
+		
+		if (closeFrameWritten) close();
+		
+	}
+	
+	/**
+	 * Drains as much of the {@link #outbound} queue as the channel will take. Called by this WebSocket's
+	 * {@link WebSocketEventLoop} when frames have been queued, and again whenever the channel becomes writable while
+	 * frames remain. Interest in writability is only kept while there are frames the channel could not take.
+	 *
+	 * @param key The key of this WebSocket's channel.
+	 * @throws IOException If the channel could not be written to.
+	 */
+	void flush(SelectionKey key) throws IOException {
+		
+		if (!draining.compareAndSet(false, true)) return;
+		
+		try {
+			
+			flushScheduled.set(false);
+			
+			boolean drained = drain();
+			
+			if (key.isValid()) key.interestOps(drained ? key.interestOps() & ~SelectionKey.OP_WRITE : key.interestOps() | SelectionKey.OP_WRITE);
+			
+		} finally {
+			
+			endDrain(false);
+			
+		}
+		
+		if (closeFrameWritten) close();
+		
+	}
+	
+	/**
+	 * Writes queued messages to the channel, coalescing as many as possible into each gathering write, until either the
+	 * queue is empty or the channel will take no more. Must only be called while holding {@link #draining}.
+	 *
+	 * @return true if every queued message has been written.
+	 * @throws IOException If the channel could not be written to.
+	 */
+	private boolean drain() throws IOException {
+		
+		ByteBuffer[] buffers = GATHER_BUFFERS.lease();
+		
+		try {
+			
+			return drain(buffers);
+			
+		} finally {
+			
+			GATHER_BUFFERS.release(buffers);
+			
+		}
+		
+	}
+	
+	/**
+	 * Does the work of {@link #drain()}, gathering each write through the given array.
+	 */
+	private boolean drain(ByteBuffer[] buffers) throws IOException {
+		
+		PerMessageDeflate deflate = this.deflate;
+		
+		while (true) {
+			
+			int count = 0;
+			
+			for (OutboundMessage message: inFlight) {
+				
+				if (count > MAX_GATHER - 2) break;
+				count = message.collect(buffers, count);
+				
+			}
+			
+			OutboundMessage message;
+			
+			if (headers == null) headers = pool.lease(HEADER_SCRATCH_SIZE);
+			
+			while (count <= MAX_GATHER - 2 && headers.remaining() >= OutboundMessage.MAX_HEADER_SIZE && (message = outbound.poll()) != null) {
+				
+				message.encode(deflate, pool, headers);
+				inFlight.addLast(message);
+				count = message.collect(buffers, count);
+				
+			}
+			
+			if (count == 0 && (tls == null || !tls.hasPendingOutput())) {
+				
+				pool.release(headers);
+				headers = null;
+				return true;
+				
+			}
+			
+			try {
+				
+				if (tls == null) channel.write(buffers, 0, count);
+				else tls.write(buffers, count);
+				
+			} finally {
+				
+				for (int i = 0; i < count; i++) buffers[i] = null;
+				
+			}
+			
+			long written = 0;
+			
+			while (!inFlight.isEmpty() && inFlight.peekFirst().isWritten()) {
+				
+				OutboundMessage retired = inFlight.pollFirst();
+				
+				written += retired.size();
+				framesSent++;
+				bytesSent += retired.getEncodedSize();
+				metrics.frameSent(retired.getType(), retired.getEncodedSize());
+				retired.release(pool);
+				
+				if (retired.getType() == WebSocketFrame.Type.CONNECTION_CLOSE) closeFrameWritten = true;
+				
+			}
+			
+			// The headers still in the buffer all belong to messages that have been written.
+			if (inFlight.isEmpty()) headers.clear();
+			
+			if (written != 0) {
+				
+				queuedBytes.addAndGet(-written);
+				updateWritability();
+				
+			}
+			
+			// A non-blocking channel that did not take everything has no room left for now.
+			if ((!inFlight.isEmpty() || tls != null && tls.hasPendingOutput()) && !channel.isBlocking()) return false;
+			
+		}
+		
+	}
+	
+	/**
+	 * Lets go of {@link #draining}, first taking it if <code>acquire</code> is set. If this WebSocket has been closed,
+	 * whoever holds <code>draining</code> last discards every message still queued, so that a close never has to wait
+	 * for a drain in progress on another thread.
+	 *
+	 * @param acquire Whether or not the caller has yet to take <code>draining</code>.
+	 */
+	private void endDrain(boolean acquire) {
+		
+		if (!acquire) draining.set(false);
+		
+		if (channel.isOpen() || !draining.compareAndSet(false, true)) return;
+		
+		try {
+			
+			OutboundMessage message;
+			long discarded = 0;
+			
+			while ((message = inFlight.pollFirst()) != null || (message = outbound.poll()) != null) {
+				
+				discarded += message.size();
+				message.release(pool);
+				
+			}
+			
+			queuedBytes.addAndGet(-discarded);
+			updateWritability();
+			
+			if (deflate != null) deflate.release();
+			
+			if (headers != null) {
+				
+				pool.release(headers);
+				headers = null;
+				
+			}
+			
+			if (tls != null) tls.releaseOutbound();
+			
+			if (handshakeOutput != null) {
+				
+				pool.release(handshakeOutput);
+				handshakeOutput = null;
+				
+			}
+			
+		} finally {
+			
+			draining.set(false);
+			
+		}
+		
+	}
+	
+	public boolean close() {
+		
+		WebSocket.State previous = state;
+		
+		// Closes racing this one, from the reading thread, a sender or a timeout, leave it to finish on its own.
+		if (!closing.compareAndSet(false, true)) return state != WebSocket.State.ERRORED;
+		
+		CloseEvent event = new CloseEvent();
+		event.begin();
+		
+		boolean closed = shutDown();
+		
+		event.end();
+		
+		WebSocketHandler handler = this.handler;
+		
+		if (handler != null && open.compareAndSet(true, false)) {
+			
+			int code = closeCode;
+			String reason = closeReason;
+			
+			handle(() -> {
+				
+				try {
+					
+					handler.onClose(this, code, reason);
+					
+				} catch (RuntimeException e) {
+					
+					if (CaffeineSocket.getDebug()) System.out.println("The handler of WebSocket '" + name + "' failed to close it: " + e);
+					
+				}
+				
+			});
+			
+		}
+		
+		if (event.shouldCommit()) {
+			
+			event.webSocket = name;
+			event.previousState = previous.name();
+			event.state = state.name();
+			event.successful = closed;
+			event.framesReceived = framesReceived;
+			event.framesSent = framesSent;
+			event.commit();
+			
+		}
+		
+		return closed;
+		
+	}
+	
+	/**
+	 * Moves this WebSocket to the closing state, lets go of everything it holds, and then moves it to the closed state.
+	 *
+	 * @return true if every resource was closed, or false if one could not be, in which case this WebSocket is left
+	 *         errored.
+	 */
+	private boolean shutDown() {
+		
+		setState(WebSocket.State.CLOSING);
+		
+		TimingWheel.Timeout timeout = this.timeout;
+		
+		if (timeout != null) timeout.cancel();
+		
+		if (loop != null) loop.deregister(this);
+		else if (server != null) server.deregister(this);
+		
+		publisher.complete();
+		
+		// A listener thread waiting for demand has to be woken to see that there is nothing left to read.
+		resumeReading();
+		
+		if (input != null) {
+			
+			try {
+				
+				input.close();
+				
+			} catch (IOException e) {
+				
+				setState(WebSocket.State.ERRORED);
+				
+				if (CaffeineSocket.getDebug()) System.out.println("InputStream could not be closed.");
+				if (CaffeineSocket.getDebug()) System.err.println(e);
+				return false;
+				
+			}
+			
+		}
+		
+		if (output != null) {
+			
+			try {
+				
+				output.close();
+				
+			} catch (IOException e) {
+				
+				setState(WebSocket.State.ERRORED);
+				
+				if (CaffeineSocket.getDebug()) System.out.println("OutputStream could not be closed.");
+				if (CaffeineSocket.getDebug()) System.err.println(e);
+				return false;
+				
+			}
+			
+		}
+		
+		// Only a courtesy, and so only sent if no other thread is in the middle of a write.
+		if (tls != null && channel.isOpen() && draining.compareAndSet(false, true)) {
+			
+			try {
+				
+				tls.closeOutbound();
+				
+			} catch (IOException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to send the client of WebSocket '" + name + "' a close_notify alert.");
+				
+			} finally {
+				
+				draining.set(false);
+				
+			}
+			
+		}
+		
+		if (channel != null) {
+			
+			try {
+				
+				channel.close();
+				
+			} catch (IOException e) {
+				
+				setState(WebSocket.State.ERRORED);
+				
+				if (CaffeineSocket.getDebug()) System.out.println("SocketChannel could not be closed.");
+				if (CaffeineSocket.getDebug()) System.err.println(e);
+				return false;
+				
+			}
 			
 		}
 		
-		state = WebSocket.State.CLOSED;
+		if (socket != null) {
+			
+			try {
+				
+				socket.close();
+				
+			} catch (IOException e) {
+				
+				setState(WebSocket.State.ERRORED);
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Socket could not be closed.");
+				if (CaffeineSocket.getDebug()) System.err.println(e);
+				return false;
+				
+			}
+			
+		}
+		
+		// Frames still queued are discarded now, unless a drain is in progress, in which case it discards them as it ends.
+		if (channel != null) endDrain(true);
+		
+		if (tls != null) tls.endUnwrap(true);
+		
+		// Senders waiting for this WebSocket to become writable give up once they see that it has been closed.
+		writabilityLock.lock();
+		
+		try {
+			
+			writableCondition.signalAll();
+			
+		} finally {
+			
+			writabilityLock.unlock();
+			
+		}
+		
+		setState(WebSocket.State.CLOSED);
 		
 		if (CaffeineSocket.getDebug()) System.out.println("Successfully closed the WebSocket.");
 		
@@ -292,12 +1918,408 @@ public class WebSocket {
 		
 	}
 	
+	/**
+	 * Returns the {@link WebSocketListener} that processes this WebSocket's incoming bytes.
+	 *
+	 * @return This WebSocket's listener.
+	 */
+	WebSocketListener getListener() {
+		
+		return listener;
+		
+	}
+	
+	WebSocketEventLoop getLoop() {
+		
+		return loop;
+		
+	}
+	
+	/**
+	 * Decides whether or not the thread reading this WebSocket should go on reading from the client once it has handed
+	 * over the bytes of its last read, which it should unless the subscriber to this WebSocket's messages has no
+	 * demand left, or the handler executor has too many of this WebSocket's calls waiting.
+	 *
+	 * @return true to go on reading, or false to stop until {@link #resumeReading()} is called.
+	 */
+	boolean continueReading() {
+		
+		if (wantsMessages()) {
+			
+			if (readingPaused) readingPaused = false;
+			return true;
+			
+		}
+		
+		// Marked paused before demand is checked again, so that a request made in between either finds the mark or is
+		// seen by the check.
+		readingPaused = true;
+		
+		if (!wantsMessages()) return false;
+		
+		readingPaused = false;
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Wakes the thread reading this WebSocket if it stopped reading for want of demand, or for a backlog of handler
+	 * calls, and there is now demand again and room in the backlog, or this WebSocket has closed.
+	 */
+	void resumeReading() {
+		
+		if (!readingPaused || !wantsMessages()) return;
+		
+		if (loop != null) loop.requestRead(this);
+		else listener.wake();
+		
+	}
+	
+	private boolean wantsMessages() {
+		
+		// Once closing there is nothing left to read, and the reading thread must be let go whatever the backlog.
+		if (dispatchBacklog.get() >= MAX_DISPATCH_BACKLOG && state == WebSocket.State.RUNNING) return false;
+		
+		return publisher.wantsMessages();
+		
+	}
+	
+	/**
+	 * Makes a call to the {@link #handler}: right away on the calling thread if there is no handler executor, or else
+	 * queued on the {@link #dispatcher} behind every call made before it. A queued call that throws closes this
+	 * WebSocket, as does the executor refusing it, while one made right away throws to the caller.
+	 *
+	 * @param call The call.
+	 */
+	private void handle(Runnable call) {
+		
+		SerialExecutor dispatcher = this.dispatcher;
+		
+		if (dispatcher == null) {
+			
+			call.run();
+			return;
+			
+		}
+		
+		dispatchBacklog.incrementAndGet();
+		
+		try {
+			
+			dispatcher.execute(() -> {
+				
+				try {
+					
+					call.run();
+					
+				} catch (RuntimeException e) {
+					
+					if (CaffeineSocket.getDebug()) System.out.println("The handler of WebSocket '" + name + "' failed: " + e + ", closing it...");
+					close();
+					
+				} finally {
+					
+					dispatchBacklog.decrementAndGet();
+					resumeReading();
+					
+				}
+				
+			});
+			
+		} catch (RejectedExecutionException e) {
+			
+			dispatchBacklog.decrementAndGet();
+			
+			if (CaffeineSocket.getDebug()) System.out.println("The handler executor of WebSocket '" + name + "' refused a call: " + e + ", closing it...");
+			close();
+			
+		}
+		
+	}
+	
+	/**
+	 * Hands received text to the {@link #handler}: lent as it is if the handler is called right away, or else copied
+	 * into a String to outlive the read that produced it.
+	 *
+	 * @param handler The handler.
+	 * @param text The text, only valid for the duration of the call.
+	 * @param last Whether or not this is the end of the message.
+	 */
+	void handleText(WebSocketHandler handler, CharSequence text, boolean last) {
+		
+		if (dispatcher == null) {
+			
+			handler.onText(this, text, last);
+			return;
+			
+		}
+		
+		String copy = text.toString();
+		
+		handle(() -> handler.onText(this, copy, last));
+		
+	}
+	
+	/**
+	 * Hands received binary data to the {@link #handler} as a read-only view: of the bytes as they are if the handler is
+	 * called right away, or else of a pooled copy, released once the call returns.
+	 *
+	 * @param handler The handler.
+	 * @param bytes The bytes, between the buffer's position and limit, only valid for the duration of the call.
+	 * @param last Whether or not this is the end of the message.
+	 */
+	void handleBinary(WebSocketHandler handler, ByteBuffer bytes, boolean last) {
+		
+		if (dispatcher == null) {
+			
+			handler.onBinary(this, bytes.asReadOnlyBuffer(), last);
+			return;
+			
+		}
+		
+		ByteBuffer copy = retain(bytes);
+		
+		handle(() -> {
+			
+			try {
+				
+				handler.onBinary(this, copy.asReadOnlyBuffer(), last);
+				
+			} finally {
+				
+				release(copy);
+				
+			}
+			
+		});
+		
+	}
+	
+	/**
+	 * Hands the application data of a received PING to the {@link #handler}, in the same way as
+	 * {@link #handleBinary(WebSocketHandler, ByteBuffer, boolean)}.
+	 *
+	 * @param handler The handler.
+	 * @param payload The application data, only valid for the duration of the call.
+	 */
+	void handlePing(WebSocketHandler handler, ByteBuffer payload) {
+		
+		if (dispatcher == null) {
+			
+			handler.onPing(this, payload.asReadOnlyBuffer());
+			return;
+			
+		}
+		
+		ByteBuffer copy = retain(payload);
+		
+		handle(() -> {
+			
+			try {
+				
+				handler.onPing(this, copy.asReadOnlyBuffer());
+				
+			} finally {
+				
+				release(copy);
+				
+			}
+			
+		});
+		
+	}
+	
+	MessagePublisher getPublisher() {
+		
+		return publisher;
+		
+	}
+	
+	/**
+	 * Returns the handler of this WebSocket's events.
+	 *
+	 * @return The handler, or null if there is none or this WebSocket has yet to open.
+	 */
+	WebSocketHandler getHandler() {
+		
+		return handler;
+		
+	}
+	
+	BufferPool getBufferPool() {
+		
+		return pool;
+		
+	}
+	
+	/**
+	 * Returns the permessage-deflate extension agreed upon with the client.
+	 *
+	 * @return The extension, or null if compression was not agreed upon.
+	 */
+	PerMessageDeflate getDeflate() {
+		
+		return deflate;
+		
+	}
+	
+	public WebSocketConfig getConfig() {
+		
+		return config;
+		
+	}
+	
+	/**
+	 * Returns whether or not this WebSocket's client connected over TLS, using <code>wss://</code>.
+	 *
+	 * @return true if every byte exchanged with the client is encrypted.
+	 */
+	public boolean isSecure() {
+		
+		return secure;
+		
+	}
+	
 	public WebSocket.State getState() {
 		
 		return state;
 		
 	}
 	
+	/**
+	 * Moves this WebSocket into a new state, and records the change to its {@link #metrics} and to Flight Recorder,
+	 * along with the end of the opening handshake if it has just ended.
+	 *
+	 * @param next The new state.
+	 */
+	private void setState(WebSocket.State next) {
+		
+		WebSocket.State previous = STATE.getAndSet(this, next);
+		
+		if (previous == next) return;
+		
+		metrics.stateChanged(previous, next);
+		
+		if (previous == WebSocket.State.HANDSHAKING) endHandshake(next == WebSocket.State.RUNNING);
+		
+		StateChangeEvent event = new StateChangeEvent();
+		
+		if (event.shouldCommit()) {
+			
+			event.webSocket = name;
+			event.previousState = previous.name();
+			event.state = next.name();
+			event.commit();
+			
+		}
+		
+	}
+	
+	/**
+	 * Returns the number of frames received from the client, counting each as soon as its header has arrived.
+	 *
+	 * @return The number of frames received.
+	 */
+	public long getFramesReceived() {
+		
+		return framesReceived;
+		
+	}
+	
+	/**
+	 * Returns the number of bytes received from the client in frames, counting each frame's header and payload as they
+	 * were on the wire.
+	 *
+	 * @return The number of bytes received.
+	 */
+	public long getBytesReceived() {
+		
+		return bytesReceived;
+		
+	}
+	
+	/**
+	 * Returns the number of frames written to the client in full.
+	 *
+	 * @return The number of frames sent.
+	 */
+	public long getFramesSent() {
+		
+		return framesSent;
+		
+	}
+	
+	/**
+	 * Returns the number of bytes written to the client in frames, after compression and before encryption.
+	 *
+	 * @return The number of bytes sent.
+	 */
+	public long getBytesSent() {
+		
+		return bytesSent;
+		
+	}
+	
+	/**
+	 * Copies data lent to a {@link WebSocketHandler} into a buffer that the caller may keep beyond the callback. The
+	 * buffer is leased from this WebSocket's pool, and should be handed back with {@link #release(ByteBuffer)} once it
+	 * is no longer needed. If it is never handed back, it is simply left to the garbage collector.
+	 *
+	 * @param borrowed The lent data, between the buffer's position and limit, which is left as it was.
+	 * @return A copy of the data, positioned at zero and limited at its length.
+	 */
+	public ByteBuffer retain(ByteBuffer borrowed) {
+		
+		ByteBuffer retained = pool.lease(borrowed.remaining());
+		
+		retained.put(borrowed.duplicate()).flip();
+		
+		return retained;
+		
+	}
+	
+	/**
+	 * Hands a buffer returned by {@link #retain(ByteBuffer)} back to this WebSocket's pool. The buffer must not be used
+	 * again afterwards.
+	 *
+	 * @param retained The buffer, exactly as it was returned by <code>retain</code>.
+	 */
+	public void release(ByteBuffer retained) {
+		
+		pool.release(retained);
+		
+	}
+	
+	/**
+	 * Returns a publisher of the messages this WebSocket receives, to which a single subscriber may subscribe. The
+	 * subscriber's demand decides whether or not this WebSocket reads from its client: once every requested message has
+	 * been delivered, reading stops until more are requested, and the client is held back by TCP flow control in the
+	 * meantime.
+	 * <p>
+	 * Messages are delivered on the thread that read them, or on the thread that requested them if they were read
+	 * first. The subscriber is completed once this WebSocket has closed and every message read before then has been
+	 * delivered. Messages received before the subscriber subscribed, or after it cancelled, are not published.
+	 *
+	 * @return This WebSocket's inbound messages.
+	 */
+	public Flow.Publisher<WebSocketMessage> getMessages() {
+		
+		return publisher;
+		
+	}
+	
+	/**
+	 * Returns the registry that this WebSocket's traffic is recorded to.
+	 *
+	 * @return The registry of the server that accepted this WebSocket, or the default registry.
+	 */
+	public WebSocketMetrics getMetrics() {
+		
+		return metrics;
+		
+	}
+	
 	private static String generateName() {
 	
 		StringBuilder output = new StringBuilder();
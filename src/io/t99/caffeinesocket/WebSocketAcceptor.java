@@ -0,0 +1,164 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * A single accepting thread of a {@link WebSocketServer}, which accepts incoming connections and passes them straight
+ * on to the server's {@link WebSocketHandshakeLoop}s, or to threads of their own, so that no handshake, however slow,
+ * ever holds up an accept.
+ * <p>
+ * An acceptor either has a listening socket of its own, bound with SO_REUSEPORT so that the kernel spreads incoming
+ * connections across every acceptor, or shares a single listening socket with the server's other acceptors.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class WebSocketAcceptor implements Runnable {
+	
+	/**
+	 * The server that owns this acceptor.
+	 */
+	private final WebSocketServer parent;
+	
+	/**
+	 * The listening socket that this acceptor accepts connections from.
+	 */
+	private final ServerSocketChannel serverChannel;
+	
+	/**
+	 * Selector on which this acceptor waits for incoming connections.
+	 */
+	private final Selector selector;
+	
+	/**
+	 * Thread that continuously accepts connections.
+	 */
+	private final Thread thread;
+	
+	volatile boolean isRunning;
+	
+	WebSocketAcceptor(WebSocketServer parent, ServerSocketChannel serverChannel, int index) throws IOException {
+		
+		this.parent = parent;
+		this.serverChannel = serverChannel;
+		selector = Selector.open();
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		thread = new Thread(this, "wsa-" + index + " for wss:'" + parent.name + "'");
+		
+	}
+	
+	void start() {
+		
+		isRunning = true;
+		thread.start();
+		
+	}
+	
+	void stop() {
+		
+		isRunning = false;
+		selector.wakeup();
+		
+		try {
+			
+			thread.join();
+			
+		} catch (InterruptedException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Interrupted the " + thread.getName() + " thread while attempting to join it.");
+			
+		}
+		
+	}
+	
+	/**
+	 * Continuously accepts incoming connections, handing them to the server's handshake stage.
+	 */
+	@Override
+	public void run() {
+		
+		while (isRunning) {
+			
+			try {
+				
+				selector.select();
+				
+			} catch (IOException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Selector of " + thread.getName() + " failed: " + e.getMessage());
+				break;
+				
+			}
+			
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			
+			while (keys.hasNext()) {
+				
+				keys.next();
+				keys.remove();
+				accept();
+				
+			}
+			
+		}
+		
+		try {
+			
+			selector.close();
+			
+		} catch (IOException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Selector of " + thread.getName() + " could not be closed.");
+			
+		}
+		
+	}
+	
+	/**
+	 * Accepts every connection currently pending on the {@link #serverChannel}. When the listening socket is shared,
+	 * other acceptors may get to some, or all, of them first.
+	 */
+	private void accept() {
+		
+		SocketChannel client;
+		
+		try {
+			
+			while ((client = serverChannel.accept()) != null) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("A client connected from " + client.getRemoteAddress() + ".");
+				
+				parent.accepted(client);
+				
+			}
+			
+		} catch (IOException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to accept client connection.");
+			
+		}
+		
+	}
+	
+}
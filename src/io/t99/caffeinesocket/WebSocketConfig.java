@@ -0,0 +1,625 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.SerialExecutor;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+/**
+ * Settings that govern the behaviour of {@link WebSocket} connections.
+ * <p>
+ * A {@link WebSocketServer} shares a single WebSocketConfig with every connection it accepts, so changes made while
+ * the server is running apply to every connection from the next message onwards.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class WebSocketConfig {
+	
+	/**
+	 * The largest message that is aggregated when none is specified. Set to 16MiB.
+	 */
+	public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+	
+	/**
+	 * The number of queued outbound bytes above which a connection stops being writable, when none is specified. Set
+	 * to 1MiB.
+	 */
+	public static final int DEFAULT_HIGH_WATER_MARK = 1024 * 1024;
+	
+	/**
+	 * The number of queued outbound bytes at or below which a connection becomes writable again, when none is
+	 * specified. Set to 512KiB.
+	 */
+	public static final int DEFAULT_LOW_WATER_MARK = 512 * 1024;
+	
+	private volatile WebSocketConfig.DeliveryMode deliveryMode = WebSocketConfig.DeliveryMode.AGGREGATED;
+	
+	private volatile int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+	
+	private volatile boolean compression = true;
+	
+	private volatile int compressionThreshold = 256;
+	
+	private volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	
+	private volatile boolean serverNoContextTakeover = false;
+	
+	private volatile int clientMaxWindowBits = 15;
+	
+	private volatile int lowWaterMark = DEFAULT_LOW_WATER_MARK;
+	
+	private volatile int highWaterMark = DEFAULT_HIGH_WATER_MARK;
+	
+	private volatile WebSocketConfig.BackpressurePolicy backpressurePolicy = WebSocketConfig.BackpressurePolicy.FAIL;
+	
+	private volatile WritabilityListener writabilityListener;
+	
+	private volatile WebSocketHandler handler;
+	
+	private volatile Executor handlerExecutor;
+	
+	private volatile long handshakeTimeout = 10000;
+	
+	private volatile long pingInterval = 30000;
+	
+	private volatile long idleTimeout = 60000;
+	
+	private volatile int acceptorThreads = 1;
+	
+	private volatile int handshakeThreads = 1;
+	
+	private volatile boolean reusePort = false;
+	
+	private volatile int acceptBacklog = 1024;
+	
+	private volatile SSLContext sslContext;
+	
+	private volatile SSLParameters sslParameters;
+	
+	private volatile WebSocketConfig.ExecutionMode executionMode = WebSocketConfig.ExecutionMode.EVENT_LOOP;
+	
+	private volatile EventLoopBalancer eventLoopBalancer = EventLoopBalancer.roundRobin();
+	
+	public void setDeliveryMode(WebSocketConfig.DeliveryMode deliveryMode) {
+		
+		if (deliveryMode == null) throw new IllegalArgumentException("Delivery mode may not be null.");
+		
+		this.deliveryMode = deliveryMode;
+		
+	}
+	
+	public WebSocketConfig.DeliveryMode getDeliveryMode() {
+		
+		return deliveryMode;
+		
+	}
+	
+	/**
+	 * Sets the largest message, in bytes of payload summed across all of its fragments, that will be aggregated. A
+	 * client that sends a larger message is disconnected as soon as the frame that would exceed the limit begins.
+	 * Has no effect on {@link WebSocketConfig.DeliveryMode#STREAMING} delivery, which never holds a whole message.
+	 *
+	 * @param maxMessageSize The maximum message size in bytes.
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		
+		if (maxMessageSize <= 0) throw new IllegalArgumentException("Illegal maximum message size: " + maxMessageSize);
+		
+		this.maxMessageSize = maxMessageSize;
+		
+	}
+	
+	public int getMaxMessageSize() {
+		
+		return maxMessageSize;
+		
+	}
+	
+	/**
+	 * Sets whether or not permessage-deflate compression is offered to clients that ask for it. Only affects clients
+	 * that connect after the change.
+	 *
+	 * @param bool Whether or not to negotiate compression.
+	 */
+	public void setCompression(boolean bool) {
+		
+		compression = bool;
+		
+	}
+	
+	public boolean getCompression() {
+		
+		return compression;
+		
+	}
+	
+	/**
+	 * Sets the size below which outgoing messages are sent uncompressed, as compressing small messages costs more
+	 * than it saves.
+	 *
+	 * @param compressionThreshold The smallest payload, in bytes, that will be compressed.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		
+		if (compressionThreshold < 0) throw new IllegalArgumentException("Illegal compression threshold: " + compressionThreshold);
+		
+		this.compressionThreshold = compressionThreshold;
+		
+	}
+	
+	public int getCompressionThreshold() {
+		
+		return compressionThreshold;
+		
+	}
+	
+	/**
+	 * Sets the zlib compression level used for outgoing messages.
+	 *
+	 * @param compressionLevel A level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		
+		if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) throw new IllegalArgumentException("Illegal compression level: " + compressionLevel);
+		
+		this.compressionLevel = compressionLevel;
+		
+	}
+	
+	public int getCompressionLevel() {
+		
+		return compressionLevel;
+		
+	}
+	
+	/**
+	 * Sets whether or not every outgoing message is compressed independently of the last, even for clients that did
+	 * not ask for it. This gives up some compression, but means that a connection does not hold on to a compression
+	 * context between messages.
+	 *
+	 * @param bool Whether or not to always negotiate 'server_no_context_takeover'.
+	 */
+	public void setServerNoContextTakeover(boolean bool) {
+		
+		serverNoContextTakeover = bool;
+		
+	}
+	
+	public boolean getServerNoContextTakeover() {
+		
+		return serverNoContextTakeover;
+		
+	}
+	
+	/**
+	 * Sets the largest LZ77 window that clients which support 'client_max_window_bits' are asked to compress with.
+	 *
+	 * @param clientMaxWindowBits A number of window bits, from 8 to 15.
+	 */
+	public void setClientMaxWindowBits(int clientMaxWindowBits) {
+		
+		if (clientMaxWindowBits < 8 || clientMaxWindowBits > 15) throw new IllegalArgumentException("Illegal number of window bits: " + clientMaxWindowBits);
+		
+		this.clientMaxWindowBits = clientMaxWindowBits;
+		
+	}
+	
+	public int getClientMaxWindowBits() {
+		
+		return clientMaxWindowBits;
+		
+	}
+	
+	/**
+	 * Sets the bounds on the number of outbound bytes that may be queued for a single client. Once more than
+	 * <code>highWaterMark</code> bytes are queued the connection stops being writable, and further data messages are
+	 * handled according to the {@link WebSocketConfig.BackpressurePolicy}. The connection becomes writable again once
+	 * no more than <code>lowWaterMark</code> bytes remain queued.
+	 *
+	 * @param lowWaterMark The number of queued bytes at or below which a connection becomes writable again.
+	 * @param highWaterMark The number of queued bytes above which a connection stops being writable.
+	 */
+	public void setWriteBufferWaterMarks(int lowWaterMark, int highWaterMark) {
+		
+		if (lowWaterMark < 0 || highWaterMark < lowWaterMark) throw new IllegalArgumentException("Illegal water marks: " + lowWaterMark + ", " + highWaterMark);
+		
+		this.lowWaterMark = lowWaterMark;
+		this.highWaterMark = highWaterMark;
+		
+	}
+	
+	public int getLowWaterMark() {
+		
+		return lowWaterMark;
+		
+	}
+	
+	public int getHighWaterMark() {
+		
+		return highWaterMark;
+		
+	}
+	
+	public void setBackpressurePolicy(WebSocketConfig.BackpressurePolicy backpressurePolicy) {
+		
+		if (backpressurePolicy == null) throw new IllegalArgumentException("Backpressure policy may not be null.");
+		
+		this.backpressurePolicy = backpressurePolicy;
+		
+	}
+	
+	public WebSocketConfig.BackpressurePolicy getBackpressurePolicy() {
+		
+		return backpressurePolicy;
+		
+	}
+	
+	/**
+	 * Sets the listener that is told whenever a connection stops or starts being writable.
+	 *
+	 * @param writabilityListener The listener, or null to stop listening.
+	 */
+	public void setWritabilityListener(WritabilityListener writabilityListener) {
+		
+		this.writabilityListener = writabilityListener;
+		
+	}
+	
+	public WritabilityListener getWritabilityListener() {
+		
+		return writabilityListener;
+		
+	}
+	
+	/**
+	 * Sets the handler of every connection's events. Read as each connection completes its opening handshake, and used
+	 * by that connection until it closes.
+	 *
+	 * @param handler The handler, or null to leave received messages unhandled.
+	 */
+	public void setHandler(WebSocketHandler handler) {
+		
+		this.handler = handler;
+		
+	}
+	
+	public WebSocketHandler getHandler() {
+		
+		return handler;
+		
+	}
+	
+	/**
+	 * Sets the executor on which the {@link WebSocketHandler} is called. Frames are still read and decoded on the
+	 * thread that reads each connection, but the handler is then called on the executor's threads, so that a slow
+	 * handler holds up neither the connection's reads nor those of any other connection on the same event loop. Calls
+	 * for each connection are queued on a {@link SerialExecutor} of its own, and so are made one at a time, in the order
+	 * in which their frames arrived, however many threads the executor has. Read as each connection completes its
+	 * opening handshake.
+	 * <p>
+	 * Text and data are copied for calls made on the executor, rather than lent, and stay valid until the call returns.
+	 * A connection stops reading while {@link WebSocket#MAX_DISPATCH_BACKLOG} of its calls are waiting to be made.
+	 *
+	 * @param handlerExecutor The executor, or null to call the handler on the thread that reads each connection.
+	 */
+	public void setHandlerExecutor(Executor handlerExecutor) {
+		
+		this.handlerExecutor = handlerExecutor;
+		
+	}
+	
+	public Executor getHandlerExecutor() {
+		
+		return handlerExecutor;
+		
+	}
+	
+	/**
+	 * Sets how long a client that has connected to a {@link WebSocketServer} may take to complete its half of the
+	 * opening handshake before it is disconnected. Only affects clients that connect after the change.
+	 *
+	 * @param handshakeTimeout The timeout in milliseconds, or 0 to wait indefinitely.
+	 */
+	public void setHandshakeTimeout(long handshakeTimeout) {
+		
+		if (handshakeTimeout < 0) throw new IllegalArgumentException("Illegal handshake timeout: " + handshakeTimeout);
+		
+		this.handshakeTimeout = handshakeTimeout;
+		
+	}
+	
+	public long getHandshakeTimeout() {
+		
+		return handshakeTimeout;
+		
+	}
+	
+	/**
+	 * Sets how long a connection may go without receiving anything from its client before it sends the client a PING,
+	 * to which the client is bound to answer with a PONG. Pings are repeated at this interval for as long as the client
+	 * stays silent.
+	 *
+	 * @param pingInterval The interval in milliseconds, or 0 to never send pings.
+	 */
+	public void setPingInterval(long pingInterval) {
+		
+		if (pingInterval < 0) throw new IllegalArgumentException("Illegal ping interval: " + pingInterval);
+		
+		this.pingInterval = pingInterval;
+		
+	}
+	
+	public long getPingInterval() {
+		
+		return pingInterval;
+		
+	}
+	
+	/**
+	 * Sets how long a connection may go without receiving anything from its client before it is closed. Should be
+	 * longer than the ping interval, so that a client that is merely quiet has the chance to answer a ping, while a
+	 * connection whose client has silently gone away is still noticed.
+	 *
+	 * @param idleTimeout The timeout in milliseconds, or 0 to never close idle connections.
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		
+		if (idleTimeout < 0) throw new IllegalArgumentException("Illegal idle timeout: " + idleTimeout);
+		
+		this.idleTimeout = idleTimeout;
+		
+	}
+	
+	public long getIdleTimeout() {
+		
+		return idleTimeout;
+		
+	}
+	
+	/**
+	 * Sets the number of threads that accept incoming connections. Only read when a {@link WebSocketServer} starts.
+	 *
+	 * @param acceptorThreads The number of acceptor threads.
+	 * @see #setReusePort(boolean)
+	 */
+	public void setAcceptorThreads(int acceptorThreads) {
+		
+		if (acceptorThreads <= 0) throw new IllegalArgumentException("Illegal number of acceptor threads: " + acceptorThreads);
+		
+		this.acceptorThreads = acceptorThreads;
+		
+	}
+	
+	public int getAcceptorThreads() {
+		
+		return acceptorThreads;
+		
+	}
+	
+	/**
+	 * Sets the number of threads that read the opening handshakes of newly accepted clients, before the clients are
+	 * handed to the I/O threads. Only read when a {@link WebSocketServer} starts.
+	 *
+	 * @param handshakeThreads The number of handshake threads.
+	 */
+	public void setHandshakeThreads(int handshakeThreads) {
+		
+		if (handshakeThreads <= 0) throw new IllegalArgumentException("Illegal number of handshake threads: " + handshakeThreads);
+		
+		this.handshakeThreads = handshakeThreads;
+		
+	}
+	
+	public int getHandshakeThreads() {
+		
+		return handshakeThreads;
+		
+	}
+	
+	/**
+	 * Sets whether or not each acceptor thread listens on a socket of its own, bound to the same port with
+	 * SO_REUSEPORT, so that the kernel spreads incoming connections across the acceptors rather than every acceptor
+	 * contending for a single socket. Falls back to a single shared socket where SO_REUSEPORT is not supported. Only read
+	 * when a {@link WebSocketServer} starts.
+	 *
+	 * @param bool Whether or not to use SO_REUSEPORT.
+	 */
+	public void setReusePort(boolean bool) {
+		
+		reusePort = bool;
+		
+	}
+	
+	public boolean getReusePort() {
+		
+		return reusePort;
+		
+	}
+	
+	/**
+	 * Sets the number of connections that the operating system may hold for each listening socket before they are
+	 * accepted, which bounds how large a burst of connections can be absorbed. The operating system may cap this
+	 * further. Only read when a {@link WebSocketServer} starts.
+	 *
+	 * @param acceptBacklog The backlog, or 0 for the operating system's default.
+	 */
+	public void setAcceptBacklog(int acceptBacklog) {
+		
+		if (acceptBacklog < 0) throw new IllegalArgumentException("Illegal accept backlog: " + acceptBacklog);
+		
+		this.acceptBacklog = acceptBacklog;
+		
+	}
+	
+	public int getAcceptBacklog() {
+		
+		return acceptBacklog;
+		
+	}
+	
+	/**
+	 * Sets the context from which the TLS session of each client accepted by a {@link WebSocketServer} is created, so
+	 * that the server serves <code>wss://</code> rather than <code>ws://</code>. Read as each client is accepted.
+	 *
+	 * @param sslContext An initialised context holding the server's key material, or null to serve plain connections.
+	 */
+	public void setSslContext(SSLContext sslContext) {
+		
+		this.sslContext = sslContext;
+		
+	}
+	
+	public SSLContext getSslContext() {
+		
+		return sslContext;
+		
+	}
+	
+	/**
+	 * Sets the parameters, such as the enabled protocols and cipher suites, applied to each TLS session created from the
+	 * {@link #setSslContext(SSLContext) SSL context}. Read as each client is accepted.
+	 *
+	 * @param sslParameters The parameters, or null to use the context's defaults.
+	 */
+	public void setSslParameters(SSLParameters sslParameters) {
+		
+		this.sslParameters = sslParameters;
+		
+	}
+	
+	public SSLParameters getSslParameters() {
+		
+		return sslParameters;
+		
+	}
+	
+	/**
+	 * Sets how connections are serviced. Read by a {@link WebSocketServer} when it starts, and by a {@link WebSocket}
+	 * that performs its own {@link WebSocket#handshake()} when it starts listening.
+	 *
+	 * @param executionMode The execution mode.
+	 */
+	public void setExecutionMode(WebSocketConfig.ExecutionMode executionMode) {
+		
+		if (executionMode == null) throw new IllegalArgumentException("Execution mode may not be null.");
+		
+		this.executionMode = executionMode;
+		
+	}
+	
+	public WebSocketConfig.ExecutionMode getExecutionMode() {
+		
+		return executionMode;
+		
+	}
+	
+	/**
+	 * Sets how a {@link WebSocketServer} spreads newly accepted clients across its event loops. Round-robin by default.
+	 * Only read when a WebSocketServer starts.
+	 *
+	 * @param eventLoopBalancer The balancer, such as {@link EventLoopBalancer#roundRobin()} or
+	 *                          {@link EventLoopBalancer#leastConnections()}.
+	 */
+	public void setEventLoopBalancer(EventLoopBalancer eventLoopBalancer) {
+		
+		if (eventLoopBalancer == null) throw new IllegalArgumentException("Event loop balancer may not be null.");
+		
+		this.eventLoopBalancer = eventLoopBalancer;
+		
+	}
+	
+	public EventLoopBalancer getEventLoopBalancer() {
+		
+		return eventLoopBalancer;
+		
+	}
+	
+	/**
+	 * The ways in which received data messages can be handed to the application.
+	 */
+	public enum DeliveryMode {
+		
+		/**
+		 * Messages are gathered across all of their fragments, up to the maximum message size, and delivered whole.
+		 */
+		AGGREGATED,
+		
+		/**
+		 * Payload is delivered piece by piece as it is read from the connection, without waiting for the frame or
+		 * message it belongs to to be complete.
+		 */
+		STREAMING
+		
+	}
+	
+	/**
+	 * The ways in which a data message sent to a connection that is not writable can be handled. Control frames are
+	 * always queued, whatever the policy.
+	 */
+	public enum BackpressurePolicy {
+		
+		/**
+		 * The sending thread waits until the connection is writable again, or is closed. Threads of a
+		 * {@link WebSocketServer}'s event loops never wait, and are treated as {@link #FAIL} instead.
+		 */
+		BLOCK,
+		
+		/**
+		 * The message is not sent, and the send returns false.
+		 */
+		FAIL,
+		
+		/**
+		 * The message is silently discarded, and the send returns true as though it were sent. Suits streams in which a
+		 * newer message supersedes an older one. Senders that need to know can check {@link WebSocket#isWritable()}
+		 * beforehand, or hear of changes through a {@link WritabilityListener}.
+		 */
+		DROP
+		
+	}
+	
+	/**
+	 * The ways in which the threads of a {@link WebSocketServer} can be put to servicing its connections.
+	 */
+	public enum ExecutionMode {
+		
+		/**
+		 * Connections are multiplexed over a small, fixed number of event loop threads, each of which reads and writes
+		 * without blocking.
+		 */
+		EVENT_LOOP,
+		
+		/**
+		 * Each connection is given a thread of its own, which blocks on reads from the connection and then runs its
+		 * opening handshake, the decoding of its frames and the delivery of its messages in turn. The threads are
+		 * virtual threads where the runtime supports them, which makes this mode suited to very large numbers of
+		 * connections, and platform threads otherwise.
+		 * <p>
+		 * Connections are written to with blocking writes, by whichever sending thread finds no other thread writing, so
+		 * a send may not return until the client has taken the frame. Frames sent while another thread is writing are
+		 * queued as usual, and are subject to the {@link BackpressurePolicy}.
+		 */
+		THREAD_PER_CONNECTION
+		
+	}
+	
+}
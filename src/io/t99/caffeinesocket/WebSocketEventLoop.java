@@ -0,0 +1,464 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.BufferPool;
+import io.t99.caffeinesocket.util.TimingWheel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single I/O thread of a {@link WebSocketServer}, which services the traffic of many {@link WebSocket}s through one
+ * {@link Selector}, once a {@link WebSocketHandshakeLoop} has completed their opening handshakes.
+ * <p>
+ * Each WebSocket is pinned to one loop from the moment it is accepted. The loop has its own selector, its own
+ * {@link BufferPool} and its own {@link TimingWheel}, and its thread drives the wheel between selects. While a
+ * WebSocket is handshaking, the handshake thread leases buffers from the loop's pool, which any thread may do, but
+ * schedules its timeouts on the default wheel, as the loop's wheel runs its tasks on the loop's thread. The hand-off
+ * happens in {@link #adopt(WebSocket)}: the queue it goes through orders everything the handshake thread did before
+ * everything the loop does after, and the loop moves the WebSocket's timeouts onto its own wheel as it registers it.
+ * From then on, its reads, writes, keepalive checks and the buffers they lease stay on that one thread. They are never
+ * shared with any other loop.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class WebSocketEventLoop implements Runnable {
+	
+	/**
+	 * The size of the buffer into which every channel serviced by this loop is read.
+	 */
+	static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * The server that owns this loop.
+	 */
+	private final WebSocketServer parent;
+	
+	/**
+	 * The selector on which every channel serviced by this loop is registered.
+	 */
+	private final Selector selector;
+	
+	/**
+	 * Thread that continuously runs the loop.
+	 */
+	private final Thread thread;
+	
+	/**
+	 * The pool from which every WebSocket pinned to this loop leases its buffers.
+	 */
+	private final BufferPool pool = new BufferPool();
+	
+	/**
+	 * The wheel on which every WebSocket pinned to this loop schedules its timeouts, driven by this loop's thread.
+	 */
+	private final TimingWheel timer = new TimingWheel(100, TimeUnit.MILLISECONDS, 512, false);
+	
+	/**
+	 * Buffer shared by every channel of this loop, as only one channel is ever read at a time.
+	 */
+	private final ByteBuffer receiveBuffer = pool.lease(RECEIVE_BUFFER_SIZE);
+	
+	/**
+	 * WebSockets handed to this loop by the server's handshake stage that are yet to be registered with the
+	 * {@link #selector}. Registration has to happen on this loop's thread, as it would otherwise block on the running
+	 * select.
+	 */
+	private final Queue<WebSocket> pendingConnections = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * The WebSockets currently serviced by this loop.
+	 */
+	private final Set<WebSocket> connections = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Every WebSocket pinned to this loop that has yet to be closed, including those still handshaking, as counted by an
+	 * {@link EventLoopBalancer}.
+	 */
+	private final Set<WebSocket> pinned = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * WebSockets with frames newly queued, whose queues are drained once the current select returns. Every frame queued
+	 * by any thread between two selects is thereby written with as few gathering writes as possible.
+	 */
+	private final Queue<WebSocket> flushRequests = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * WebSockets that stopped being read for want of demand from the subscriber to their messages, and may now be read
+	 * again. Their channels' interest in reads can only be restored by this loop's thread.
+	 */
+	private final Queue<WebSocket> readRequests = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Set once the {@link #selector} has been woken for a flush or read request, so that a burst of requests between
+	 * two selects wakes it only once.
+	 */
+	private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+	
+	volatile boolean isRunning;
+	
+	WebSocketEventLoop(WebSocketServer parent, int index) throws IOException {
+		
+		this.parent = parent;
+		selector = Selector.open();
+		thread = new Thread(this, "wsel-" + index + " for wss:'" + parent.name + "'");
+		
+	}
+	
+	void start() {
+		
+		isRunning = true;
+		thread.start();
+		
+	}
+	
+	void stop() {
+		
+		isRunning = false;
+		selector.wakeup();
+		
+		try {
+			
+			thread.join();
+			
+		} catch (InterruptedException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Interrupted the " + thread.getName() + " thread while attempting to join it.");
+			
+		}
+		
+	}
+	
+	/**
+	 * Hands a WebSocket whose opening handshake is complete to this loop, which services it from then on.
+	 *
+	 * @param webSocket The WebSocket, which must have been created for this loop.
+	 */
+	void adopt(WebSocket webSocket) {
+		
+		pendingConnections.add(webSocket);
+		selector.wakeup();
+		
+	}
+	
+	/**
+	 * Counts a newly accepted WebSocket as belonging to this loop, before its opening handshake has been read.
+	 *
+	 * @param webSocket The WebSocket, which must have been created for this loop.
+	 */
+	void pin(WebSocket webSocket) {
+		
+		pinned.add(webSocket);
+		
+	}
+	
+	/**
+	 * Removes a WebSocket from this loop, typically as it is being closed.
+	 *
+	 * @param webSocket The WebSocket to remove.
+	 */
+	void deregister(WebSocket webSocket) {
+		
+		connections.remove(webSocket);
+		pinned.remove(webSocket);
+		
+		SelectionKey key = webSocket.channel.keyFor(selector);
+		if (key != null) key.cancel();
+		
+	}
+	
+	/**
+	 * Asks this loop to drain a WebSocket's outbound queue, which it does once its current select returns. Called once
+	 * for each batch of frames queued, rather than once for each frame.
+	 *
+	 * @param webSocket The WebSocket with frames queued.
+	 */
+	void requestFlush(WebSocket webSocket) {
+		
+		flushRequests.add(webSocket);
+		
+		if (!inLoop() && wakeupPending.compareAndSet(false, true)) selector.wakeup();
+		
+	}
+	
+	/**
+	 * Asks this loop to go back to reading a WebSocket that it stopped reading for want of demand, which it does once
+	 * its current select returns.
+	 *
+	 * @param webSocket The WebSocket whose subscriber has requested more messages.
+	 */
+	void requestRead(WebSocket webSocket) {
+		
+		readRequests.add(webSocket);
+		
+		if (!inLoop() && wakeupPending.compareAndSet(false, true)) selector.wakeup();
+		
+	}
+	
+	/**
+	 * Returns whether or not the calling thread is this loop's own thread.
+	 *
+	 * @return true if called from within this loop.
+	 */
+	boolean inLoop() {
+		
+		return Thread.currentThread() == thread;
+		
+	}
+	
+	Set<WebSocket> getConnections() {
+		
+		return connections;
+		
+	}
+	
+	/**
+	 * Returns the number of WebSockets pinned to this loop, whether they are running or still handshaking.
+	 *
+	 * @return The number of WebSockets pinned to this loop.
+	 */
+	int getPinnedCount() {
+		
+		return pinned.size();
+		
+	}
+	
+	BufferPool getBufferPool() {
+		
+		return pool;
+		
+	}
+	
+	TimingWheel getTimer() {
+		
+		return timer;
+		
+	}
+	
+	WebSocketServer getServer() {
+		
+		return parent;
+		
+	}
+	
+	@Override
+	public void run() {
+		
+		long untilNextTick = timer.advance();
+		
+		while (isRunning) {
+			
+			try {
+				
+				// Selects never outlast the current tick by more than a millisecond, so that timeouts run on time even when
+				// there is no traffic.
+				selector.select(TimeUnit.NANOSECONDS.toMillis(untilNextTick + 999_999));
+				
+			} catch (IOException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Selector of " + thread.getName() + " failed: " + e.getMessage());
+				break;
+				
+			}
+			
+			wakeupPending.set(false);
+			
+			registerPendingConnections();
+			
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			
+			while (keys.hasNext()) {
+				
+				SelectionKey key = keys.next();
+				keys.remove();
+				
+				if (key.isValid() && key.isReadable()) read(key);
+				
+				if (key.isValid() && key.isWritable()) write(key);
+				
+			}
+			
+			untilNextTick = timer.advance();
+			
+			readRequested();
+			flushRequested();
+			
+		}
+		
+		for (WebSocket webSocket: connections) webSocket.close();
+		
+		WebSocket webSocket;
+		
+		while ((webSocket = pendingConnections.poll()) != null) webSocket.close();
+		
+		pool.release(receiveBuffer);
+		
+		try {
+			
+			selector.close();
+			
+		} catch (IOException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Selector of " + thread.getName() + " could not be closed.");
+			
+		}
+		
+	}
+	
+	private void registerPendingConnections() {
+		
+		WebSocket webSocket;
+		
+		while ((webSocket = pendingConnections.poll()) != null) {
+			
+			try {
+				
+				// Frames read along with the handshake may already have used up the demand for messages.
+				SelectionKey key = webSocket.channel.register(selector, webSocket.continueReading() ? SelectionKey.OP_READ : 0, webSocket);
+				connections.add(webSocket);
+				webSocket.adopted();
+				
+				// Frames sent before the WebSocket was registered could not have their flushes requested.
+				write(key);
+				
+			} catch (IOException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to register WebSocket '" + webSocket.name + "' with " + thread.getName() + ".");
+				webSocket.close();
+				
+			}
+			
+		}
+		
+	}
+	
+	private void readRequested() {
+		
+		WebSocket webSocket;
+		
+		while ((webSocket = readRequests.poll()) != null) {
+			
+			SelectionKey key = webSocket.channel.keyFor(selector);
+			
+			if (key != null && key.isValid() && webSocket.continueReading()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			
+		}
+		
+	}
+	
+	private void flushRequested() {
+		
+		WebSocket webSocket;
+		
+		while ((webSocket = flushRequests.poll()) != null) {
+			
+			SelectionKey key = webSocket.channel.keyFor(selector);
+			
+			// A channel still waiting to become writable is drained once it is.
+			if (key == null || !key.isValid() || (key.interestOps() & SelectionKey.OP_WRITE) != 0) continue;
+			
+			write(key);
+			
+		}
+		
+	}
+	
+	private void write(SelectionKey key) {
+		
+		WebSocket webSocket = (WebSocket) key.attachment();
+		
+		try {
+			
+			webSocket.flush(key);
+			
+		} catch (IOException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to write to WebSocket '" + webSocket.name + "': " + e.getMessage());
+			webSocket.close();
+			
+		} catch (RuntimeException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to write to WebSocket '" + webSocket.name + "': " + e);
+			webSocket.close();
+			
+		}
+		
+	}
+	
+	private void read(SelectionKey key) {
+		
+		WebSocket webSocket = (WebSocket) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		
+		receiveBuffer.clear();
+		
+		try {
+			
+			if (channel.read(receiveBuffer) < 0) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Client of WebSocket '" + webSocket.name + "' closed the connection.");
+				webSocket.close();
+				return;
+				
+			}
+			
+			receiveBuffer.flip();
+			
+			if (!webSocket.receive(receiveBuffer)) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Client of WebSocket '" + webSocket.name + "' closed its TLS session.");
+				webSocket.close();
+				
+			} else if (key.isValid() && !webSocket.continueReading()) {
+				
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				
+			}
+			
+		} catch (ClosedChannelException e) {
+			
+			webSocket.close();
+			
+		} catch (IOException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to read from WebSocket '" + webSocket.name + "': " + e.getMessage());
+			webSocket.close();
+			
+		} catch (RuntimeException e) {
+			
+			// Only this connection is at fault, and the loop must go on serving every other connection.
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to read from WebSocket '" + webSocket.name + "': " + e);
+			webSocket.close();
+			
+		}
+		
+	}
+	
+}
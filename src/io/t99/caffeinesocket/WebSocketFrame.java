@@ -17,11 +17,15 @@ package io.t99.caffeinesocket;
  */
 
 import io.t99.caffeinesocket.exceptions.InvalidOpcodeException;
+import io.t99.caffeinesocket.util.BufferPool;
 import io.t99.caffeinesocket.util.ByteList;
-import io.t99.caffeinesocket.util.NumberBaseConverter;
+import io.t99.caffeinesocket.util.MaskingUtils;
 import io.t99.caffeinesocket.util.StringUtils;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Processor for incoming {@link WebSocket} frames, and builder for outgoing <code>WebSocket</code> frames.
@@ -31,14 +35,6 @@ import java.io.UnsupportedEncodingException;
  */
 public class WebSocketFrame {
 
-	/* TODO
-	 *  - Make this class.
-	 *  - Provide a constructor for creating a frame.
-	 *  - Provide a method for getting the bytes of a frame to feed directly into the method parameters of the WebSocket 'write()' method.
-	 *  - Figure out how to more effectively loop through the construction of a received frame.
-	 *  - Account for non-FIN frames, pings, and other control frames.
-	 */
-
 	/*
 	 *
 	 *	                         Frame format:
@@ -85,13 +81,10 @@ public class WebSocketFrame {
 	boolean headerComplete = false;
 
 	/**
-	 * A ByteList containing the raw bytes received of a given frame.
-	 *
-	 * Initially empty, but appended to by the parent {@link WebSocketListener} by way of calling {@link #process(byte)}.
-	 *
-	 * @see io.t99.caffeinesocket.util.ByteList
+	 * Scratch space for the bytes of a header that arrived split across more than one call to
+	 * {@link #process(ByteBuffer)}. Headers that arrive whole are parsed straight out of the received buffer instead.
 	 */
-	private ByteList rawMessage;
+	private final ByteBuffer header = ByteBuffer.allocate(PLS_LARGE + 4);
 
 	/**
 	 * Assigned to numeric variables before they have been set.
@@ -134,26 +127,31 @@ public class WebSocketFrame {
 	 */
 	private static final int PLS_LARGE	= 10;
 
+	/**
+	 * The largest payload that a single frame may carry, as payloads are held in a single buffer.
+	 */
+	static final int MAX_PAYLOAD_LENGTH = Integer.MAX_VALUE - 8;
+
 	/**
 	 * The finality marker for the frame. If this is true, this is the last frame in a series. Singlet frames are marked
 	 * with `fin = true` as well.
 	 */
-	private Boolean fin;
+	private boolean fin;
 
 	/**
-	 * I'm not 100% sure what these are for yet... something to do with extensions maybe.
+	 * Reserved for use by extensions negotiated during the opening handshake.
 	 */
-	private Boolean rsv1;
+	private boolean rsv1;
 
 	/**
-	 * I'm not 100% sure what these are for yet... something to do with extensions maybe.
+	 * Reserved for use by extensions negotiated during the opening handshake.
 	 */
-	private Boolean rsv2;
+	private boolean rsv2;
 
 	/**
-	 * I'm not 100% sure what these are for yet... something to do with extensions maybe.
+	 * Reserved for use by extensions negotiated during the opening handshake.
 	 */
-	private Boolean rsv3;
+	private boolean rsv3;
 	
 	/**
 	 * The frame type, indicated by it's received opcode.
@@ -166,7 +164,7 @@ public class WebSocketFrame {
 	 * The mask marker for the frame. If this is true, the frame is masked, as is usually (and as should be) the case
 	 * with client-to-server communication.
 	 */
-	private Boolean masked;
+	private boolean masked;
 
 	/**
 	 * Whether or not this message SHOULD be masked. If this does not match the information provided by the frame, error
@@ -186,52 +184,120 @@ public class WebSocketFrame {
 	private long payloadLength = NOT_SET;
 
 	/**
-	 * The masking key to decode the payload.
+	 * The number of payload bytes received so far.
+	 */
+	private long payloadReceived = 0;
+
+	/**
+	 * The masking key to decode the payload, with the first octet of the key in the most significant byte.
 	 */
-	private ByteList maskingKey;
+	private int maskingKey;
 
 	/**
-	 * The size of the WebSocket 'headers'.
+	 * The size of the WebSocket 'headers', including the masking key. Known once the second byte of the frame has been
+	 * received.
 	 */
 	private int headerSize = NOT_SET;
 
 	/**
 	 * The actual raw data of the payload, with the metadata stripped.
+	 * <p>
+	 * When the whole payload arrives in a single buffer this is a view into that buffer, and is only valid until the
+	 * buffer is next read into. Otherwise the payload is gathered into a buffer of its own.
 	 *
 	 * payload = rawMessage - (fin + RSV# + opcode + masked + payloadLength + maskingKey)
 	 */
-	private ByteList payload;
+	private ByteBuffer payload;
 	
 	/**
-	 *
+	 * Whether or not {@link #payload} was leased from the parent WebSocket's {@link BufferPool}, and so has to be
+	 * released once this frame is {@link #reset()}.
+	 */
+	private boolean pooledPayload = false;
+
+	/**
+	 * The largest payload that a data frame may declare. Checked as soon as the header has been parsed, so that an
+	 * oversized frame is refused before any of its payload is buffered.
+	 */
+	private long maxPayloadLength = MAX_PAYLOAD_LENGTH;
+
+	/**
+	 * Whether or not the payloads of data frames are handed over a chunk at a time through {@link #getChunk()}, rather
+	 * than gathered into {@link #payload}. Control frames are always gathered.
+	 */
+	private boolean streaming = false;
+
+	/**
+	 * The payload bytes of a streamed frame that were consumed by the latest call to {@link #process(ByteBuffer)},
+	 * unmasked in place.
+	 */
+	private ByteBuffer chunk;
+
+	/**
+	 * The Flight Recorder event timing the decoding of this frame, if a recording wanted one when its first byte was
+	 * processed.
 	 */
-	private StringBuilder textPayload = new StringBuilder();
+	private FrameDecodeEvent decodeEvent;
 
 	public WebSocketFrame(WebSocket parent, boolean maskRequirement) {
 
 		this.parent = parent;
 		this.maskRequirement = maskRequirement;
-		rawMessage = new ByteList(16, 10);
 
 	}
 	
 	public WebSocketFrame(WebSocket parent, boolean maskRequirement, WebSocketFrame.Type controlFrameType, String string) { // Use the String
 		
-		this.parent = parent;
-		this.maskRequirement = maskRequirement;
-		frameType = controlFrameType;
-		
-		rawMessage = new ByteList(16, 10);
+		this(parent, maskRequirement, controlFrameType, ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8)));
 
 	}
 
 	public WebSocketFrame(WebSocket parent, boolean maskRequirement, WebSocketFrame.Type controlFrameType, ByteList bytelist) { // Use the ByteList
 
+		this(parent, maskRequirement, controlFrameType, bytelist.asByteBuffer());
+
+	}
+
+	/**
+	 * Constructor for composing new frames bound for other WebSockets.
+	 * <p>
+	 * The payload is not copied unless the frame is to be masked, so the bytes between its position and limit must not
+	 * be modified until the frame has been sent.
+	 *
+	 * @param parent The WebSocket that will send this frame.
+	 * @param maskRequirement Whether or not this frame is to be masked, as is required of client-to-server frames.
+	 * @param frameType The type of the frame.
+	 * @param payload The payload of the frame, between its position and limit.
+	 */
+	public WebSocketFrame(WebSocket parent, boolean maskRequirement, WebSocketFrame.Type frameType, ByteBuffer payload) {
+
+		if (frameType.isControlFrame() && payload.remaining() > 125) throw new IllegalArgumentException("Control frames may not carry more than 125 bytes of payload.");
+
 		this.parent = parent;
 		this.maskRequirement = maskRequirement;
-		frameType = controlFrameType;
-		
-		rawMessage = new ByteList(16, 10);
+		this.frameType = frameType;
+
+		fin = true;
+		masked = maskRequirement;
+		payloadLength = payload.remaining();
+
+		if (masked) {
+
+			maskingKey = ThreadLocalRandom.current().nextInt();
+
+			this.payload = ByteBuffer.allocate(payload.remaining());
+			this.payload.put(payload.duplicate());
+			this.payload.flip();
+
+			MaskingUtils.mask(this.payload, maskingKey, 0);
+
+		} else {
+
+			this.payload = payload.duplicate();
+
+		}
+
+		isComplete = true;
 
 	}
 	
@@ -245,190 +311,496 @@ public class WebSocketFrame {
 		
 		this(parent, maskRequirement, controlFrame, "");
 		
-		rawMessage = new ByteList(16, 10);
-		
 	}
 	
 	public WebSocketFrame(WebSocket parent, boolean maskRequirement, String string) throws UnsupportedEncodingException {
 
+		this(parent, maskRequirement, WebSocketFrame.Type.TEXT, ByteBuffer.wrap(asciiBytes(string)));
+
+	}
+
+	private static byte[] asciiBytes(String string) throws UnsupportedEncodingException {
+
 		if (!StringUtils.isPureASCII(string)) throw new UnsupportedEncodingException("String passed to WebSocketFrame(boolean, String) was not pure ASCII.");
 
-		fin = false;
-		rsv1 = false;
-		rsv2 = false;
-		rsv3 = false;
-		frameType = WebSocketFrame.Type.TEXT;
-		this.maskRequirement = maskRequirement;
-		
-		rawMessage = new ByteList(16, 10);
+		return string.getBytes(StandardCharsets.US_ASCII);
 
-		if (string.length() < PLS_SMALL) {} // TODO - Figure out size cutoffs
+	}
+
+	/**
+	 * Writes the header of a frame into the provided buffer, which must have at least 14 bytes remaining.
+	 *
+	 * @param header The buffer to write the header into.
+	 * @param fin Whether or not this is the final frame of a message.
+	 * @param rsv1 Whether or not the frame begins a compressed message.
+	 * @param frameType The type of the frame.
+	 * @param masked Whether or not the payload of the frame is masked.
+	 * @param maskingKey The masking key, ignored if the frame is not masked.
+	 * @param payloadLength The length of the frame's payload.
+	 */
+	static void encodeHeader(ByteBuffer header, boolean fin, boolean rsv1, WebSocketFrame.Type frameType, boolean masked, int maskingKey, long payloadLength) {
+
+		int maskBit = masked ? 0x80 : 0;
+
+		header.put((byte) ((fin ? 0x80 : 0) | (rsv1 ? 0x40 : 0) | frameType.getOpcode()));
+
+		if (payloadLength <= 125) {
+
+			header.put((byte) (maskBit | payloadLength));
+
+		} else if (payloadLength <= 0xFFFF) {
+
+			header.put((byte) (maskBit | 126));
+			header.putShort((short) payloadLength);
+
+		} else {
+
+			header.put((byte) (maskBit | 127));
+			header.putLong(payloadLength);
+
+		}
+
+		if (masked) header.putInt(maskingKey);
 
 	}
 
-	public boolean process(byte b) throws IllegalStateException {
-		
-		rawMessage.add(b);
+	/**
+	 * Returns the buffers that make up an outgoing frame, ready to be passed to a single gathering write. The payload
+	 * buffer is a view of the frame's payload, so this may be called again to send the same frame elsewhere.
+	 *
+	 * @return The frame's header, followed by its payload.
+	 */
+	public ByteBuffer[] getBuffers() {
 
-		if (!headerComplete) {
+		header.clear();
+		encodeHeader(header, fin, rsv1, frameType, masked, maskingKey, payload.remaining());
+		header.flip();
 
-			if (rawMessage.size() >= 1) {
-				
-				if (fin == null) fin = rawMessage.getBit(0, 0);
-				
-				if (rsv1 == null) rsv1 = rawMessage.getBit(0,1);
-				
-				if (rsv2 == null) rsv2 = rawMessage.getBit(0,2);
-				
-				if (rsv3 == null) rsv3 = rawMessage.getBit(0,3);
-				
-				if (frameType == null) {
-					
-					try {
-						
-						// Yikes, I know. It determines the frame type by converting the correct bits to decimal and checking that against known types.
-						frameType = WebSocketFrame.Type.getFrameTypeForOpcode(NumberBaseConverter.binaryToDecimal(rawMessage.getBits(4, 8)));
-						
-					} catch (InvalidOpcodeException e) {
-						
-						if (CaffeineSocket.getDebug()) e.printStackTrace();
-						
-					}
-					
-				}
-				
-			}
+		return new ByteBuffer[] {header, payload.duplicate()};
 
-			if (masked == null && rawMessage.size() >= 2) {
+	}
 
-				masked = rawMessage.getBit(8);
+	/**
+	 * Consumes as many bytes of this frame as the provided buffer holds, leaving any bytes that belong to the next
+	 * frame in the buffer.
+	 * <p>
+	 * Frames may be split across any number of calls. A header that arrives whole is parsed directly out of the
+	 * buffer, and a payload that arrives whole is unmasked in place and exposed without being copied.
+	 *
+	 * @param buffer The received bytes, between the buffer's position and its limit.
+	 * @return true if this frame is now complete.
+	 * @throws IllegalStateException If the frame violates the protocol.
+	 */
+	public boolean process(ByteBuffer buffer) throws IllegalStateException {
 
-				if (!(masked == maskRequirement)) {
+		if (isComplete) return true;
 
-					throw new IllegalStateException("A message that required a mask was received unmasked");
+		chunk = null;
 
-				}
+		if (decodeEvent != null) decodeEvent.reads++;
+		else if (FrameDecodeEvent.isRecording()) beginDecodeEvent();
 
-			}
-			
-			if (payloadLengthIndicator == NOT_SET && rawMessage.size() >= PLS_SMALL) {
-				
-				payloadLengthIndicator = NumberBaseConverter.binaryToDecimal(rawMessage.getBits(9, (PLS_SMALL * 8)));
+		if (!headerComplete && !processHeader(buffer)) return false;
 
-			}
+		if (payloadReceived < payloadLength) processPayload(buffer);
 
-			if (payloadLength == NOT_SET && payloadLengthIndicator <= 125 && payloadLengthIndicator != NOT_SET) {
+		if (payloadReceived == payloadLength) {
 
-				payloadLength = payloadLengthIndicator;
-				headerSize = PLS_SMALL; // Without the masking key.
+			isComplete = true;
 
-			}
+			if (decodeEvent != null) commitDecodeEvent();
 
-			if (payloadLength == NOT_SET && payloadLengthIndicator == 126 && rawMessage.size() >= PLS_MEDIUM) {
+		}
 
-				payloadLength = NumberBaseConverter.binaryToDecimal(rawMessage.getBits(16, PLS_MEDIUM * 8));
-				headerSize = PLS_MEDIUM; // Without the masking key.
+		return isComplete;
 
-			}
+	}
+
+	private void beginDecodeEvent() {
+
+		decodeEvent = new FrameDecodeEvent();
+		decodeEvent.reads = 1;
+		decodeEvent.begin();
+
+	}
+
+	private void commitDecodeEvent() {
+
+		FrameDecodeEvent event = decodeEvent;
+		decodeEvent = null;
+		event.end();
+
+		if (!event.shouldCommit()) return;
+
+		event.webSocket = parent != null ? parent.name : null;
+		event.frameType = frameType.name();
+		event.fin = fin;
+		event.payloadLength = payloadLength;
+		event.commit();
+
+	}
+
+	/**
+	 * Reads as much of this frame's header as is available in the buffer.
+	 *
+	 * @param buffer The received bytes.
+	 * @return true if the header is now complete.
+	 */
+	private boolean processHeader(ByteBuffer buffer) {
+
+		int position = buffer.position();
+
+		// The common case, where the whole header is in the buffer, needs no copying at all.
+		if (header.position() == 0 && buffer.remaining() >= PLS_SMALL) {
+
+			int size = getHeaderSize(buffer.get(position + 1));
+
+			if (buffer.remaining() >= size) {
 
-			if (payloadLength == NOT_SET && payloadLengthIndicator == 127 && rawMessage.size() >= PLS_LARGE) {
+				headerSize = size;
+				parseHeader(buffer, position);
+				buffer.position(position + size);
 
-				payloadLength = NumberBaseConverter.binaryToDecimal(rawMessage.getBits(16, PLS_LARGE * 8));
-				headerSize = PLS_LARGE; // Without the masking key.
+				return true;
 
 			}
 
-			if (masked != null && masked && maskingKey == null && headerSize != NOT_SET && rawMessage.size() >= headerSize + 4) {
+		}
+
+		while (buffer.hasRemaining()) {
+
+			header.put(buffer.get());
+
+			if (header.position() == PLS_SMALL) headerSize = getHeaderSize(header.get(1));
+
+			if (header.position() == headerSize) {
 
-				maskingKey = new ByteList(rawMessage, headerSize, headerSize + 4, 1);
-				headerSize += 4; // Now it includes the masking key.
+				parseHeader(header, 0);
+
+				return true;
 
 			}
 
-			if (areHeadersComplete()) headerComplete = true;
+		}
+
+		return false;
+
+	}
+
+	/**
+	 * Determines the total size of a header, including its masking key, from the header's second byte.
+	 *
+	 * @param secondByte The mask bit and the payload length indicator.
+	 * @return The size of the header in bytes.
+	 */
+	private static int getHeaderSize(byte secondByte) {
+
+		int indicator = secondByte & 0x7F;
+		int size = indicator <= 125 ? PLS_SMALL : (indicator == 126 ? PLS_MEDIUM : PLS_LARGE);
+
+		return (secondByte & 0x80) != 0 ? size + 4 : size;
+
+	}
+
+	/**
+	 * Determines the total size of the header of a frame, including its masking key, from the frame's payload length.
+	 *
+	 * @param payloadLength The length of the frame's payload.
+	 * @param masked Whether or not the frame is masked.
+	 * @return The size of the header in bytes.
+	 */
+	static int getHeaderSize(long payloadLength, boolean masked) {
+
+		int size = payloadLength <= 125 ? PLS_SMALL : (payloadLength <= 0xFFFF ? PLS_MEDIUM : PLS_LARGE);
+
+		return masked ? size + 4 : size;
+
+	}
+
+	/**
+	 * Parses a complete header.
+	 *
+	 * @param source The buffer holding the header, in network byte order.
+	 * @param offset The index of the first byte of the header in the buffer.
+	 */
+	private void parseHeader(ByteBuffer source, int offset) {
+
+		int first = source.get(offset);
+		int second = source.get(offset + 1);
+
+		fin		= (first & 0x80) != 0;
+		rsv1	= (first & 0x40) != 0;
+		rsv2	= (first & 0x20) != 0;
+		rsv3	= (first & 0x10) != 0;
+
+		try {
+
+			frameType = WebSocketFrame.Type.getFrameTypeForOpcode(first & 0x0F);
+
+		} catch (InvalidOpcodeException e) {
+
+			throw new IllegalStateException(e.getMessage(), e);
 
 		}
-		
-		/*
-		 * I know it seems like I could have used an else statement, but I couldn't have.
-		 *
-		 * Just trust me on this.
-		 *
-		 * It has to do with zero-length payloads.
-		 */
-		
-		if (headerComplete) {
 
-			if (payloadLength == 0) {
-				
-				payload = null;
-				textPayload = null;
-				
-				isComplete = true;
-				
-			} else if ((rawMessage.size() - headerSize) == payloadLength) {
-				
-				payload = new ByteList(rawMessage, headerSize, rawMessage.size(), 1);
+		masked = (second & 0x80) != 0;
+
+		if (masked != maskRequirement) {
+
+			throw new IllegalStateException(maskRequirement ? "A message that required a mask was received unmasked" : "A message that required no mask was received masked");
+
+		}
+
+		payloadLengthIndicator = second & 0x7F;
+
+		int cursor = offset + PLS_SMALL;
+
+		if (payloadLengthIndicator <= 125) {
+
+			payloadLength = payloadLengthIndicator;
+
+		} else if (payloadLengthIndicator == 126) {
 
-				ByteList encodedPayload = payload;				// This will hold the masked version of the payload.
-				payload = new ByteList((int) payloadLength);	// The payload variable can now hold the unmasked version.
+			payloadLength = source.getShort(cursor) & 0xFFFF;
+			cursor += PLS_MEDIUM - PLS_SMALL;
 
-				for (int octet = 0; octet < encodedPayload.size(); octet++) {
+		} else {
 
-					payload.add((byte) ((int) encodedPayload.get(octet) ^ (int) maskingKey.get(octet % 4)));
+			payloadLength = source.getLong(cursor);
+			cursor += PLS_LARGE - PLS_SMALL;
+
+			if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_LENGTH) throw new IllegalStateException("A frame with a payload length of " + Long.toUnsignedString(payloadLength) + " bytes was received");
+
+		}
+
+		if (masked) maskingKey = source.getInt(cursor);
+
+		if (frameType.isControlFrame() && (!fin || payloadLength > 125)) {
+
+			throw new IllegalStateException("A fragmented or oversized control frame was received");
+
+		}
+
+		if (!frameType.isControlFrame() && payloadLength > maxPayloadLength) {
+
+			throw new IllegalStateException("A frame that would exceed the maximum message size was received");
+
+		}
+
+		headerComplete = true;
+
+	}
+
+	/**
+	 * Reads as much of this frame's payload as is available in the buffer.
+	 *
+	 * @param buffer The received bytes.
+	 */
+	private void processPayload(ByteBuffer buffer) {
 
-				}
+		int outstanding = (int) (payloadLength - payloadReceived);
+		int available = Math.min(outstanding, buffer.remaining());
+
+		if (streaming && !frameType.isControlFrame()) {
+
+			// Streamed payloads are never gathered, so each chunk is unmasked where it lies and handed over as is.
+			int position = buffer.position();
+
+			chunk = buffer.slice();
+			chunk.limit(available);
+			buffer.position(position + available);
+
+			if (masked) MaskingUtils.mask(chunk, maskingKey, payloadReceived);
+
+		} else if (payload == null && available == payloadLength) {
+
+			// The whole payload is here, so it is unmasked where it lies rather than being copied out.
+			int position = buffer.position();
+
+			payload = buffer.slice();
+			payload.limit(available);
+			buffer.position(position + available);
+
+			if (masked) MaskingUtils.mask(payload, maskingKey, 0);
+
+		} else {
+
+			if (payload == null) {
 				
-				for (byte character: payload) {
-					
-					textPayload.append((char) NumberBaseConverter.signedByteToDecimal(character));
-					
-				}
+				payload = getBufferPool().lease((int) payloadLength);
+				pooledPayload = true;
 				
-				isComplete = true;
-
 			}
-			
-			if (frameType.isControlFrame()) {
-
-				switch (frameType) {
 
-					case CONNECTION_CLOSE:
-						System.out.println("Received CLOSE frame, queuing closing of parent WebSocket...");
-						parent.close();
-						break;
+			int start = payload.position();
 
-					case PING:
-						break;
+			ByteBuffer chunk = buffer.slice();
+			chunk.limit(available);
+			payload.put(chunk);
+			buffer.position(buffer.position() + available);
 
-					case PONG:
-						break;
+			if (masked) {
 
-				}
+				ByteBuffer received = payload.duplicate();
+				received.flip();
+				received.position(start);
+				MaskingUtils.mask(received, maskingKey, payloadReceived);
 
 			}
 
+			if (payloadReceived + available == payloadLength) payload.flip();
+
+		}
+
+		payloadReceived += available;
+
+	}
+
+	/**
+	 * Readies this frame to receive the next frame from the same connection, so that a single instance can be reused
+	 * for the lifetime of a connection.
+	 */
+	void reset() {
+
+		isComplete = false;
+		headerComplete = false;
+		header.clear();
+		frameType = null;
+		payloadLengthIndicator = NOT_SET;
+		payloadLength = NOT_SET;
+		payloadReceived = 0;
+		maskingKey = 0;
+		headerSize = NOT_SET;
+		if (pooledPayload) {
+			
+			getBufferPool().release(payload);
+			pooledPayload = false;
+			
 		}
 		
-		// System.out.println(getDebugInfo()); TODO
-		if (isComplete && textPayload != null) System.out.println(textPayload);
+		payload = null;
+		chunk = null;
+		decodeEvent = null;
+
+	}
+	
+	private BufferPool getBufferPool() {
 		
-		return isComplete;
+		return parent != null ? parent.getBufferPool() : BufferPool.getDefault();
+		
+	}
+
+	/**
+	 * Returns the unmasked payload of a complete frame, between the returned buffer's position and limit.
+	 *
+	 * @return The payload, or null if the frame is incomplete or carries no payload.
+	 */
+	public ByteBuffer getPayload() {
+
+		return isComplete ? payload : null;
 
 	}
 
- 	private boolean areHeadersComplete() {
-		
-		if (fin == null) return false;
-		if (rsv1 == null) return false;
-		if (rsv2 == null) return false;
-		if (rsv3 == null) return false;
-		if (frameType == null) return false;
-		if (masked == null) return false;
-		if (payloadLength == NOT_SET) return false;
-		if (masked && maskingKey == null) return false;
-		//if (masked && maskingKey.size() != 32) return false; // TODO - Why was this commented out?
-		return true;
+	/**
+	 * Returns the payload bytes of a streamed data frame that were consumed by the latest call to
+	 * {@link #process(ByteBuffer)}. The chunk is a view into the buffer that was processed, and so is only valid until
+	 * that buffer is next read into.
+	 *
+	 * @return The latest chunk of the payload, or null if the latest call consumed no payload.
+	 * @see #setStreaming(boolean)
+	 */
+	public ByteBuffer getChunk() {
+
+		return chunk;
+
+	}
+
+	/**
+	 * Sets whether or not the payloads of data frames are handed over a chunk at a time through {@link #getChunk()}
+	 * rather than gathered, so that a frame never has to be held in memory in its entirety. Takes effect from the next
+	 * frame that begins.
+	 *
+	 * @param bool Whether or not to stream the payloads of data frames.
+	 */
+	void setStreaming(boolean bool) {
+
+		if (!headerComplete) streaming = bool;
+
+	}
+
+	/**
+	 * Sets the largest payload that the next data frame may declare.
+	 *
+	 * @param maxPayloadLength The maximum payload length in bytes.
+	 */
+	void setMaxPayloadLength(long maxPayloadLength) {
+
+		this.maxPayloadLength = Math.min(maxPayloadLength, MAX_PAYLOAD_LENGTH);
+
+	}
+
+	public boolean isHeaderComplete() {
+
+		return headerComplete;
+
+	}
+
+	public long getPayloadLength() {
+
+		return payloadLength;
+
+	}
+
+	public WebSocketFrame.Type getType() {
+
+		return frameType;
+
+	}
+
+	public boolean isFinal() {
+
+		return fin;
+
+	}
+
+	public boolean isRsv1() {
+
+		return rsv1;
+
+	}
+
+	public boolean isRsv2() {
+
+		return rsv2;
+
+	}
+
+	public boolean isRsv3() {
+
+		return rsv3;
+
+	}
+
+	boolean isMasked() {
+
+		return masked;
+
+	}
+
+	int getMaskingKey() {
+
+		return maskingKey;
+
+	}
+
+	/**
+	 * Returns a view of the payload of an outgoing frame, as {@link #getBuffers()} does, without encoding its header.
+	 *
+	 * @return The frame's payload.
+	 */
+	ByteBuffer viewPayload() {
+
+		return payload.duplicate();
 
 	}
 	
@@ -438,38 +810,28 @@ public class WebSocketFrame {
 		
 		debugInfo.append("IS COMPLETE:\t\t" + isComplete + "\n");
 		
-		if (fin != null) debugInfo.append("FIN:\t\t\t\t" + fin + "\n");
-		else debugInfo.append("FIN:\t\t\t\tNULL\n");
-		
-		if (rsv1 != null) debugInfo.append("RSV1:\t\t\t\t" + rsv1 + "\n");
-		else debugInfo.append("RSV1:\t\t\t\tNULL\n");
-		
-		if (rsv2 != null) debugInfo.append("RSV2:\t\t\t\t" + rsv2 + "\n");
-		else debugInfo.append("RSV2:\t\t\t\tNULL\n");
-		
-		if (rsv3 != null) debugInfo.append("RSV3:\t\t\t\t" + rsv3 + "\n");
-		else debugInfo.append("RSV3:\t\t\t\tNULL\n");
-		
-		if (masked != null) debugInfo.append("Message Masked:\t\t" + masked + "\n");
-		else debugInfo.append("Message Masked:\t\tNULL\n");
-		
-		if (frameType != null) debugInfo.append("OpCode:\t\t\t\t" + frameType.toString() + "\n");
-		else debugInfo.append("OpCode:\t\t\t\tNULL\n");
-		
-		if (maskingKey != null) debugInfo.append("Masking Key:\t\t" + maskingKey.getArray() + "\n");
-		else debugInfo.append("Masking Key:\t\tNULL\n");
+		if (headerComplete) {
+			
+			debugInfo.append("FIN:\t\t\t\t" + fin + "\n");
+			debugInfo.append("RSV1:\t\t\t\t" + rsv1 + "\n");
+			debugInfo.append("RSV2:\t\t\t\t" + rsv2 + "\n");
+			debugInfo.append("RSV3:\t\t\t\t" + rsv3 + "\n");
+			debugInfo.append("Message Masked:\t\t" + masked + "\n");
+			debugInfo.append("OpCode:\t\t\t\t" + frameType.toString() + "\n");
+			
+			if (masked) debugInfo.append("Masking Key:\t\t0x" + Integer.toHexString(maskingKey).toUpperCase() + "\n");
+			else debugInfo.append("Masking Key:\t\tNULL\n");
+			
+		} else {
+			
+			debugInfo.append("Header:\t\t\t\tINCOMPLETE\n");
+			
+		}
 		
 		if (payloadLength != NOT_SET) debugInfo.append("Payload Size:\t\t" + payloadLength + "\n");
 		else debugInfo.append("Payload Size:\t\tNOT_SET\n");
 		
-		if (rawMessage != null) debugInfo.append("Raw Message:\t\t" + rawMessage.getArray() + "\n");
-		else debugInfo.append("Raw Message:\t\tNULL\n");
-		
-		if (payload != null) debugInfo.append("Raw Payload:\t\t" + payload.getArray() + "\n");
-		else debugInfo.append("Raw Payload:\t\tNULL\n");
-		
-		if (textPayload != null) debugInfo.append("Textual Payload:\t" + textPayload + "\n");
-		else debugInfo.append("Textual Payload:\tNULL\n");
+		debugInfo.append("Payload Received:\t" + payloadReceived + "\n");
 		
 		return debugInfo.toString();
 		
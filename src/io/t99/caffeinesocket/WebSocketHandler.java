@@ -0,0 +1,88 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * Handles the events of {@link WebSocket} connections: their opening, the messages and PINGs received from their
+ * clients, and their closing. Set through {@link WebSocketConfig#setHandler(WebSocketHandler)}.
+ * <p>
+ * Received text and data are lent to the handler rather than copied for it. They are views into the buffers that the
+ * bytes were read or decoded into, and are only valid for the duration of the call. A handler that needs to keep data
+ * beyond the call can copy it with {@link WebSocket#retain(ByteBuffer)}, or take a String of the text.
+ * <p>
+ * Every method but {@link #onClose(WebSocket, int, String)} is called on the thread that reads the connection, one
+ * call at a time. Handlers should return quickly, as the connection cannot be read in the meantime, and neither can
+ * any other connection sharing the same event loop. A handler that throws has its connection closed.
+ * <p>
+ * Handlers that do heavier work can instead be called on an executor, set through
+ * {@link WebSocketConfig#setHandlerExecutor(java.util.concurrent.Executor)}. Every method, <code>onClose</code>
+ * included, is then called on the executor's threads, still one call at a time and in order for each connection,
+ * and text and data are copied for the call rather than lent.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public interface WebSocketHandler {
+	
+	/**
+	 * Called once a connection's opening handshake has completed, before any of its messages are handled.
+	 *
+	 * @param webSocket The connection.
+	 */
+	default void onOpen(WebSocket webSocket) {}
+	
+	/**
+	 * Called with a text message, or with each piece of it as it is decoded if messages are streamed.
+	 *
+	 * @param webSocket The connection the message was received on.
+	 * @param text The text, only valid for the duration of the call.
+	 * @param last Whether or not this is the end of the message, which is always the case for aggregated messages.
+	 */
+	default void onText(WebSocket webSocket, CharSequence text, boolean last) {}
+	
+	/**
+	 * Called with a binary message, or with each piece of it as it is received if messages are streamed.
+	 *
+	 * @param webSocket The connection the message was received on.
+	 * @param data A read-only view of the data, between the buffer's position and limit, only valid for the duration of
+	 *             the call.
+	 * @param last Whether or not this is the end of the message, which is always the case for aggregated messages.
+	 */
+	default void onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {}
+	
+	/**
+	 * Called with every PING received, just before it is answered with a PONG.
+	 *
+	 * @param webSocket The connection the PING was received on.
+	 * @param payload A read-only view of the PING's application data, only valid for the duration of the call.
+	 */
+	default void onPing(WebSocket webSocket, ByteBuffer payload) {}
+	
+	/**
+	 * Called once a connection that was opened has closed, on whichever thread closed it, or on the handler executor
+	 * after every call queued before it.
+	 *
+	 * @param webSocket The connection.
+	 * @param code The status code of the CLOSE frame that the client sent, {@link WebSocket#CLOSE_NO_STATUS} if the
+	 *             frame had none, or {@link WebSocket#CLOSE_ABNORMAL} if the connection was closed without one.
+	 * @param reason The reason given in the client's CLOSE frame, or an empty String if none was given.
+	 */
+	default void onClose(WebSocket webSocket, int code, String reason) {}
+	
+}
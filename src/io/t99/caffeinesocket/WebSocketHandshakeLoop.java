@@ -0,0 +1,325 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread of a {@link WebSocketServer}'s handshake stage, which reads the opening handshakes of newly accepted
+ * clients through one {@link Selector}, and hands each client to one of the server's {@link WebSocketEventLoop}s once
+ * its handshake is complete.
+ * <p>
+ * Keeping handshakes apart from both accepting and established connections means that a flood of reconnecting
+ * clients, or clients that send their handshakes slowly on purpose, neither hold up accepts nor add latency to the
+ * traffic of clients that are already connected. Clients that never complete their handshakes are closed by their
+ * handshake timeout.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class WebSocketHandshakeLoop implements Runnable {
+	
+	/**
+	 * The server that owns this loop.
+	 */
+	private final WebSocketServer parent;
+	
+	/**
+	 * The selector on which every client still handshaking with this loop is registered.
+	 */
+	private final Selector selector;
+	
+	/**
+	 * Thread that continuously runs the loop.
+	 */
+	private final Thread thread;
+	
+	/**
+	 * Buffer shared by every client of this loop, as only one client is ever read at a time. An opening handshake can
+	 * be no larger than this.
+	 */
+	private final ByteBuffer receiveBuffer = BufferPool.getDefault().lease(HandshakeRequest.MAX_SIZE);
+	
+	/**
+	 * Channels handed to this loop by the server's acceptors that are yet to be registered with the {@link #selector}.
+	 */
+	private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+	
+	volatile boolean isRunning;
+	
+	WebSocketHandshakeLoop(WebSocketServer parent, int index) throws IOException {
+		
+		this.parent = parent;
+		selector = Selector.open();
+		thread = new Thread(this, "wshs-" + index + " for wss:'" + parent.name + "'");
+		
+	}
+	
+	void start() {
+		
+		isRunning = true;
+		thread.start();
+		
+	}
+	
+	void stop() {
+		
+		isRunning = false;
+		selector.wakeup();
+		
+		try {
+			
+			thread.join();
+			
+		} catch (InterruptedException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Interrupted the " + thread.getName() + " thread while attempting to join it.");
+			
+		}
+		
+	}
+	
+	/**
+	 * Hands an accepted channel to this loop, which will read the client's opening handshake from it.
+	 *
+	 * @param channel The accepted channel.
+	 */
+	void register(SocketChannel channel) {
+		
+		pendingChannels.add(channel);
+		selector.wakeup();
+		
+	}
+	
+	@Override
+	public void run() {
+		
+		while (isRunning) {
+			
+			try {
+				
+				selector.select();
+				
+			} catch (IOException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Selector of " + thread.getName() + " failed: " + e.getMessage());
+				break;
+				
+			}
+			
+			registerPendingChannels();
+			
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			
+			while (keys.hasNext()) {
+				
+				SelectionKey key = keys.next();
+				keys.remove();
+				
+				if (key.isValid() && key.isReadable()) read(key);
+				
+				if (key.isValid() && key.isWritable()) write(key);
+				
+			}
+			
+		}
+		
+		for (SelectionKey key: selector.keys()) ((WebSocket) key.attachment()).close();
+		
+		SocketChannel channel;
+		
+		while ((channel = pendingChannels.poll()) != null) closeChannel(channel);
+		
+		BufferPool.getDefault().release(receiveBuffer);
+		
+		try {
+			
+			selector.close();
+			
+		} catch (IOException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Selector of " + thread.getName() + " could not be closed.");
+			
+		}
+		
+	}
+	
+	/**
+	 * Registers each newly accepted channel, having picked the event loop that will service it once its handshake is
+	 * complete.
+	 */
+	private void registerPendingChannels() {
+		
+		SocketChannel channel;
+		
+		while ((channel = pendingChannels.poll()) != null) {
+			
+			WebSocket webSocket;
+			
+			try {
+				
+				webSocket = new WebSocket(channel, parent, parent.nextLoop());
+				
+			} catch (RuntimeException e) {
+				
+				// Thrown by the event loop balancer, before the WebSocket could take charge of the channel.
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to set up a client accepted by " + thread.getName() + ": " + e);
+				closeChannel(channel);
+				continue;
+				
+			}
+			
+			try {
+				
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, webSocket);
+				
+			} catch (IOException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to register an accepted channel with " + thread.getName() + ".");
+				webSocket.close();
+				
+			}
+			
+		}
+		
+	}
+	
+	private void read(SelectionKey key) {
+		
+		WebSocket webSocket = (WebSocket) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		
+		receiveBuffer.clear();
+		
+		try {
+			
+			if (channel.read(receiveBuffer) < 0) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Client of WebSocket '" + webSocket.name + "' closed the connection during its handshake.");
+				webSocket.close();
+				return;
+				
+			}
+			
+			receiveBuffer.flip();
+			
+			// Frames that the client sent straight after its handshake are processed along with it, so that they come
+			// before anything that its event loop reads.
+			if (!webSocket.receive(receiveBuffer)) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Client of WebSocket '" + webSocket.name + "' closed its TLS session during its handshake.");
+				webSocket.close();
+				return;
+				
+			}
+			
+			if (webSocket.getState() != WebSocket.State.HANDSHAKING) handOver(key, webSocket);
+			else if (!webSocket.flushHandshake()) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			
+		} catch (IOException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to complete the handshake of WebSocket '" + webSocket.name + "': " + e.getMessage());
+			webSocket.close();
+			
+		} catch (RuntimeException e) {
+			
+			// Only this client is at fault, and the loop must go on serving every other client's handshake.
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to complete the handshake of WebSocket '" + webSocket.name + "': " + e);
+			webSocket.close();
+			
+		}
+		
+	}
+	
+	/**
+	 * Writes what is left of a client's opening handshake, or of its TLS handshake, now that its channel is writable,
+	 * and hands the client over to its event loop once nothing is left of a handshake that has ended.
+	 */
+	private void write(SelectionKey key) {
+		
+		WebSocket webSocket = (WebSocket) key.attachment();
+		
+		try {
+			
+			if (!webSocket.flushHandshake()) return;
+			
+			if (webSocket.getState() == WebSocket.State.HANDSHAKING) key.interestOps(SelectionKey.OP_READ);
+			else handOver(key, webSocket);
+			
+		} catch (IOException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to complete the handshake of WebSocket '" + webSocket.name + "': " + e.getMessage());
+			webSocket.close();
+			
+		} catch (RuntimeException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to complete the handshake of WebSocket '" + webSocket.name + "': " + e);
+			webSocket.close();
+			
+		}
+		
+	}
+	
+	/**
+	 * Hands a client whose opening handshake has ended over to its event loop. A client whose handshake response has yet
+	 * to be written in full is kept until it has been, without reading from it meanwhile, so that its event loop never
+	 * takes over a client that is still owed part of the handshake.
+	 *
+	 * @param key The key of the client's channel with this loop's selector.
+	 * @param webSocket The client, which has left the handshaking state.
+	 * @throws IOException If the rest of the handshake could not be written.
+	 */
+	private void handOver(SelectionKey key, WebSocket webSocket) throws IOException {
+		
+		if (webSocket.getState() == WebSocket.State.RUNNING && !webSocket.flushHandshake()) {
+			
+			key.interestOps(SelectionKey.OP_WRITE);
+			return;
+			
+		}
+		
+		key.cancel();
+		
+		if (webSocket.getState() == WebSocket.State.RUNNING) webSocket.getLoop().adopt(webSocket);
+		
+	}
+	
+	private void closeChannel(SocketChannel channel) {
+		
+		try {
+			
+			channel.close();
+			
+		} catch (IOException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Failed to close an accepted channel.");
+			
+		}
+		
+	}
+	
+}
@@ -16,10 +16,19 @@ package io.t99.caffeinesocket;
  *	limitations under the License.
  */
 
-import io.t99.caffeinesocket.util.NumberBaseConverter;
+import io.t99.caffeinesocket.util.ByteList;
+import io.t99.caffeinesocket.util.Utf8Decoder;
+import io.t99.caffeinesocket.util.VirtualThreads;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.MalformedInputException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Listener that processes incoming bytes from a WebSocket client.
@@ -30,7 +39,10 @@ import java.io.InputStream;
 public class WebSocketListener implements Runnable {
 
 	/**
-	 * Thread that continuously runs the listener.
+	 * Thread that continuously runs the listener. Only created once the listener is started, as WebSockets serviced by a
+	 * {@link WebSocketEventLoop} have their bytes pushed to {@link #process(ByteBuffer)} instead. A virtual thread if the
+	 * parent's {@link WebSocketConfig.ExecutionMode} is {@link WebSocketConfig.ExecutionMode#THREAD_PER_CONNECTION} and
+	 * the runtime supports them.
 	 */
 	Thread listener;
 
@@ -40,11 +52,80 @@ public class WebSocketListener implements Runnable {
 	WebSocket parent;
 
 	/**
-	 * The InputStream of the parent WebSocket.
+	 * The channel from which this listener's {@link Thread} reads the parent WebSocket's incoming bytes.
 	 */
-	InputStream input;
+	ReadableByteChannel input;
 	
 	volatile boolean isListening;
+	
+	/**
+	 * The frame currently being received by {@link #process(ByteBuffer)}.
+	 */
+	private WebSocketFrame frame;
+	
+	/**
+	 * Decoder for the text of incoming TEXT frames, reused for every message.
+	 */
+	private final Utf8Decoder textDecoder = new Utf8Decoder();
+	
+	/**
+	 * The type of the message currently being received, as given by its first frame, or null between messages.
+	 */
+	private WebSocketFrame.Type messageType;
+	
+	/**
+	 * The number of payload bytes received so far of the message currently being received.
+	 */
+	private long messageSize = 0;
+	
+	/**
+	 * The payload of a fragmented binary message, gathered across its fragments while messages are aggregated.
+	 */
+	private ByteList messageBuffer;
+	
+	/**
+	 * The number of bytes that the {@link #messageBuffer} may keep hold of between messages.
+	 */
+	private static final int MAX_RETAINED_MESSAGE_BUFFER = 64 * 1024;
+	
+	/**
+	 * Whether or not the message currently being received was compressed with permessage-deflate.
+	 */
+	private boolean messageCompressed = false;
+	
+	/**
+	 * The size of the buffers that compressed messages are inflated into, a buffer at a time.
+	 */
+	private static final int INFLATE_BUFFER_SIZE = 16 * 1024;
+	
+	/**
+	 * Whether or not the current message is delivered as it arrives. Fixed for the duration of each message, so that a
+	 * change of {@link WebSocketConfig.DeliveryMode} never splits a message between the two modes.
+	 */
+	private boolean streaming = false;
+	
+	/**
+	 * Whether or not the frame currently being received has been checked against the frames received before it.
+	 */
+	private boolean frameBegun = false;
+	
+	/**
+	 * Buffer into which {@link #run()} reads from the {@link #input}. Leased from the parent WebSocket's pool only while
+	 * this listener runs its own {@link Thread}.
+	 */
+	private ByteBuffer receiveBuffer;
+	
+	/**
+	 * The size of the {@link #receiveBuffer} of a listener that runs in
+	 * {@link WebSocketConfig.ExecutionMode#THREAD_PER_CONNECTION} mode, where every connection holds a buffer of its own
+	 * for as long as it is open. Set to 8KiB.
+	 */
+	private static final int THREAD_PER_CONNECTION_BUFFER_SIZE = 8 * 1024;
+	
+	/**
+	 * Lent to handlers in place of the application data of a PING that had none.
+	 */
+	private static final ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0).asReadOnlyBuffer();
 
 	/**
 	 * Standard constructor for a WebSocketListener.
@@ -54,7 +135,7 @@ public class WebSocketListener implements Runnable {
 	protected WebSocketListener(WebSocket parent) {
 
 		this.parent = parent;
-		listener = new Thread(this, "wsl for ws:'" + parent.name + "'");
+		frame = new WebSocketFrame(parent, true); // TODO - Unhardcode this value - not always going to be a server.
 
 	}
 
@@ -66,16 +147,32 @@ public class WebSocketListener implements Runnable {
 	 */
 	public void provideInputStream(InputStream inputStream) {
 
-		input = inputStream;
+		provideChannel(Channels.newChannel(inputStream));
+
+	}
+
+	/**
+	 * Provides a channel for the WebSocketListener to listen on, and starts the {@link Thread}.
+	 *
+	 * @param channel Blocking channel from which this listener will read.
+	 */
+	public void provideChannel(ReadableByteChannel channel) {
+
+		input = channel;
 		this.start();
 
 	}
 	
 	public boolean start() {
 		
-		if (!isListening && !listener.isAlive()) {
+		if (!isListening && (listener == null || !listener.isAlive())) {
+			
+			boolean threadPerConnection = parent.getConfig().getExecutionMode() == WebSocketConfig.ExecutionMode.THREAD_PER_CONNECTION;
+			String name = "wsl for ws:'" + parent.name + "'";
 			
 			isListening = true;
+			if (receiveBuffer == null) receiveBuffer = parent.getBufferPool().lease(threadPerConnection ? THREAD_PER_CONNECTION_BUFFER_SIZE : WebSocketEventLoop.RECEIVE_BUFFER_SIZE);
+			listener = threadPerConnection ? VirtualThreads.newThread(this, name) : new Thread(this, name);
 			listener.start();
 			
 			return true;
@@ -90,10 +187,14 @@ public class WebSocketListener implements Runnable {
 	
 	public boolean stop() {
 		
-		if (isListening && listener.isAlive()) {
+		if (isListening && listener != null && listener.isAlive()) {
 			
 			isListening = false;
 			
+			if (Thread.currentThread() == listener) return true;
+			
+			wake();
+			
 			try {
 				
 				listener.join();
@@ -116,47 +217,550 @@ public class WebSocketListener implements Runnable {
 	}
 
 	/**
-	 * Continously checks the InputStream for available bytes.
+	 * Processes a chunk of bytes read from the parent WebSocket's client, completing as many frames as the chunk
+	 * contains. Bytes of a frame that is not yet complete are retained until the next call, unless the frame is being
+	 * streamed, in which case they are delivered straight away.
+	 *
+	 * @param buffer The bytes to process, between the buffer's position and its limit.
+	 */
+	void process(ByteBuffer buffer) {
+		
+		parent.markReceived();
+		
+		try {
+			
+			// Anything the client sends after its CLOSE frame, once the WebSocket has begun closing, is ignored.
+			while (buffer.hasRemaining() && parent.getState() == WebSocket.State.RUNNING) {
+				
+				if (!frame.isHeaderComplete()) prepareFrame();
+				
+				boolean complete = frame.process(buffer);
+				
+				if (!frame.isHeaderComplete()) continue;
+				
+				if (!frameBegun) beginFrame(frame);
+				
+				if (frame.getType().isControlFrame()) {
+					
+					if (complete) onControlFrame(frame);
+					
+				} else if (streaming) {
+					
+					if (complete || frame.getChunk() != null) onChunk(frame, complete);
+					
+				} else if (complete) {
+						
+					onFragment(frame);
+					
+				}
+				
+				if (complete) {
+					
+					frame.reset();
+					frameBegun = false;
+					
+				}
+				
+			}
+			
+		} catch (IllegalStateException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println(e.getMessage() + ": closing parent WebSocket...");
+			parent.close();
+			
+		} catch (RuntimeException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("The handler of WebSocket '" + parent.name + "' failed: " + e + ", closing it...");
+			parent.close();
+			
+		}
+		
+	}
+	
+	/**
+	 * Configures the {@link #frame} for the frame about to be received. Between messages the parent's
+	 * {@link WebSocketConfig} decides whether the next message is streamed, while part way through an aggregated
+	 * message the next fragment may only be as large as what remains of the maximum message size.
+	 */
+	private void prepareFrame() {
+		
+		WebSocketConfig config = parent.getConfig();
+		
+		if (messageType == null) streaming = config.getDeliveryMode() == WebSocketConfig.DeliveryMode.STREAMING;
+		
+		frame.setStreaming(streaming);
+		frame.setMaxPayloadLength(streaming ? Long.MAX_VALUE : config.getMaxMessageSize() - messageSize);
+		
+	}
+	
+	/**
+	 * Checks that a frame whose header has just been received fits into the sequence of frames received so far,
+	 * beginning a new message if the frame is the first of one.
+	 *
+	 * @param frame The frame, whose header is complete.
+	 */
+	private void beginFrame(WebSocketFrame frame) {
+		
+		WebSocketFrame.Type type = frame.getType();
+		long payloadLength = frame.getPayloadLength();
+		
+		parent.frameReceived(type, WebSocketFrame.getHeaderSize(payloadLength, true) + payloadLength);
+		
+		// RSV1 marks the first frame of a compressed message, and no extension that uses the other bits is supported.
+		if (frame.isRsv2() || frame.isRsv3() || (frame.isRsv1() && (type.isControlFrame() || type == WebSocketFrame.Type.CONTINUATION || parent.getDeflate() == null))) {
+			
+			throw new IllegalStateException("A frame with unexpected reserved bits set was received");
+			
+		}
+		
+		if (type == WebSocketFrame.Type.CONTINUATION) {
+			
+			if (messageType == null) throw new IllegalStateException("A continuation frame was received outside of a fragmented message");
+			
+		} else if (!type.isControlFrame()) {
+			
+			if (messageType != null) throw new IllegalStateException("A new message was begun before the previous fragmented message was finished");
+			
+			messageType = type;
+			messageSize = 0;
+			messageCompressed = frame.isRsv1();
+			textDecoder.reset();
+			
+		}
+		
+		frameBegun = true;
+		
+	}
+	
+	/**
+	 * Gathers a complete fragment into the current message, delivering the message once its final fragment arrives.
+	 *
+	 * @param frame The complete data frame.
+	 */
+	private void onFragment(WebSocketFrame frame) {
+		
+		if (messageCompressed) inflate(frame.getPayload(), frame.isFinal());
+		else consume(frame.getPayload(), frame.isFinal());
+		
+	}
+	
+	/**
+	 * Delivers the latest chunk of a streamed frame as soon as it has been received.
+	 *
+	 * @param frame The data frame being streamed.
+	 * @param complete Whether or not the chunk completes the frame.
+	 */
+	private void onChunk(WebSocketFrame frame, boolean complete) {
+		
+		boolean last = complete && frame.isFinal();
+		
+		if (messageCompressed) inflate(frame.getChunk(), last);
+		else consume(frame.getChunk(), last);
+		
+	}
+	
+	/**
+	 * Inflates a piece of a compressed message, passing the inflated bytes on to {@link #consume(ByteBuffer, boolean)}
+	 * a buffer at a time, so that a message is never held in memory in both its compressed and inflated forms.
+	 *
+	 * @param compressed The compressed bytes, or null if there are none.
+	 * @param last Whether or not these are the last bytes of the message.
+	 */
+	private void inflate(ByteBuffer compressed, boolean last) {
+		
+		PerMessageDeflate deflate = parent.getDeflate();
+		Inflater inflater = deflate.beginInflate();
+		
+		// The connection has closed, and the rest of the message is moot.
+		if (inflater == null) return;
+		
+		ByteBuffer output = parent.getBufferPool().lease(INFLATE_BUFFER_SIZE);
+		boolean inflated = false;
+		
+		try {
+			
+			if (compressed != null) inflate(inflater, compressed.duplicate(), output);
+			
+			if (last) {
+				
+				inflate(inflater, ByteBuffer.wrap(PerMessageDeflate.TAIL), output);
+				inflated = true;
+				
+			}
+			
+		} catch (DataFormatException e) {
+			
+			throw new IllegalStateException("A compressed message that could not be inflated was received");
+			
+		} finally {
+			
+			deflate.endInflate(inflated);
+			parent.getBufferPool().release(output);
+			
+		}
+		
+		if (last) consume(null, true);
+		
+	}
+	
+	private void inflate(Inflater inflater, ByteBuffer input, ByteBuffer output) throws DataFormatException {
+		
+		int inflated;
+		
+		inflater.setInput(input);
+		
+		do {
+			
+			output.clear();
+			inflated = inflater.inflate(output);
+			output.flip();
+			
+			if (inflated > 0) consume(output, false);
+			
+		} while (inflated > 0);
+		
+	}
+	
+	/**
+	 * Passes the next piece of the current message's data on to the application, aggregating it first unless messages
+	 * are being streamed. Messages made up of a single piece are delivered without being copied.
+	 *
+	 * @param data The next bytes of the message, between the buffer's position and limit, or null if there are none.
+	 * @param last Whether or not these are the last bytes of the message.
+	 */
+	private void consume(ByteBuffer data, boolean last) {
+		
+		int length = data != null ? data.remaining() : 0;
+		
+		messageSize += length;
+		
+		// Frames are checked against the limit as they begin, but compressed messages can only be checked as they inflate.
+		if (!streaming && messageSize > parent.getConfig().getMaxMessageSize()) {
+			
+			throw new IllegalStateException("A message exceeding the maximum message size was received");
+			
+		}
+		
+		if (messageType == WebSocketFrame.Type.TEXT) {
+			
+			decodeText(data, last);
+			
+			if (streaming) {
+				
+				// A piece that ends part way through a character may not have completed any chars at all.
+				if (textDecoder.length() > 0 || last) deliverText(textDecoder.getText(), last);
+				textDecoder.clearText();
+				
+			} else if (last) {
+				
+				deliverText(textDecoder.getText(), true);
+				
+			}
+			
+		} else if (streaming || (last && (messageBuffer == null || messageBuffer.size() == 0))) {
+			
+			deliverBinary(data != null ? data : ByteBuffer.allocate(0), last);
+			
+		} else {
+			
+			if (messageBuffer == null) messageBuffer = new ByteList(Math.min(Math.max(length * 2, 256), MAX_RETAINED_MESSAGE_BUFFER));
+			if (data != null) messageBuffer.add(data.duplicate());
+			
+			if (last) deliverBinary(messageBuffer.asByteBuffer(), true);
+			
+		}
+		
+		if (last) endMessage();
+		
+	}
+	
+	private void decodeText(ByteBuffer bytes, boolean last) {
+		
+		try {
+			
+			if (bytes != null) textDecoder.decode(bytes.duplicate());
+			if (last) textDecoder.finish();
+			
+		} catch (MalformedInputException e) {
+			
+			throw new IllegalStateException("A text message containing invalid UTF-8 was received");
+			
+		}
+		
+	}
+	
+	private void endMessage() {
+		
+		messageType = null;
+		messageSize = 0;
+		messageCompressed = false;
+		
+		if (messageBuffer != null) {
+			
+			if (messageBuffer.size() > MAX_RETAINED_MESSAGE_BUFFER) messageBuffer = null;
+			else messageBuffer.clear();
+			
+		}
+		
+	}
+	
+	/**
+	 * Hands received text to the parent's {@link WebSocketHandler}, and to the subscriber to its messages. When
+	 * messages are streamed this is called once for every piece of the message that arrives, and otherwise once with the
+	 * whole message.
+	 *
+	 * @param text The text received, only valid for the duration of the call.
+	 * @param last Whether or not this is the end of the message.
+	 */
+	private void deliverText(CharSequence text, boolean last) {
+		
+		parent.delivered();
+		
+		WebSocketHandler handler = parent.getHandler();
+		MessagePublisher publisher = parent.getPublisher();
+		
+		if (handler != null) parent.handleText(handler, text, last);
+		
+		if (publisher.isSubscribed()) publisher.publish(WebSocketMessage.text(text, last));
+		
+		if (handler == null && CaffeineSocket.getDebug()) System.out.println("Received " + text.length() + " chars of text" + (last ? ", completing the message." : "."));
+		
+	}
+	
+	/**
+	 * Hands received binary data to the parent's {@link WebSocketHandler}, as a read-only view rather than a copy unless
+	 * the handler is called on another thread, and to the subscriber to its messages. When messages are streamed this is
+	 * called once for every piece of the message that arrives, and otherwise once with the whole message.
+	 *
+	 * @param bytes The bytes received, between the buffer's position and limit, only valid for the duration of the call.
+	 * @param last Whether or not this is the end of the message.
+	 */
+	private void deliverBinary(ByteBuffer bytes, boolean last) {
+		
+		parent.delivered();
+		
+		WebSocketHandler handler = parent.getHandler();
+		MessagePublisher publisher = parent.getPublisher();
+		
+		if (handler != null) parent.handleBinary(handler, bytes, last);
+		
+		if (publisher.isSubscribed()) publisher.publish(WebSocketMessage.binary(bytes, last));
+		
+		if (handler == null && CaffeineSocket.getDebug()) System.out.println("Received " + bytes.remaining() + " bytes of binary data" + (last ? ", completing the message." : "."));
+		
+	}
+	
+	/**
+	 * Acts on a control frame once it has been completely received. Control frames may arrive between the fragments of
+	 * a message, and never disturb the message being received.
+	 *
+	 * @param frame The complete control frame.
+	 */
+	private void onControlFrame(WebSocketFrame frame) {
+		
+		switch (frame.getType()) {
+			
+			case CONNECTION_CLOSE:
+				if (CaffeineSocket.getDebug()) System.out.println("Received CLOSE frame, echoing it before closing parent WebSocket...");
+				onClose(frame.getPayload());
+				break;
+			
+			case PING:
+				// Answered with a PONG carrying the same application data, as the client is owed.
+				ByteBuffer payload = frame.getPayload();
+				WebSocketHandler handler = parent.getHandler();
+				
+				if (handler != null) parent.handlePing(handler, payload == null ? EMPTY_PAYLOAD : payload);
+				
+				ByteBuffer pong = parent.getBufferPool().lease(payload == null ? 0 : payload.remaining());
+				
+				if (payload != null) pong.put(payload.duplicate());
+				
+				pong.flip();
+				parent.send(WebSocketFrame.Type.PONG, pong, true);
+				break;
+			
+			case PONG:
+				// Receiving it at all is what keeps the connection alive.
+				break;
+			
+			default:
+				break;
+			
+		}
+		
+	}
+
+	/**
+	 * Reads the status code and reason from the payload of a CLOSE frame, and has the parent answer it. A truncated or
+	 * invalid status code fails the connection with {@link WebSocket#CLOSE_PROTOCOL_ERROR}, and a reason that is not
+	 * valid UTF-8 fails it with {@link WebSocket#CLOSE_INVALID_PAYLOAD}, as
+	 * <a href="https://tools.ietf.org/html/rfc6455#section-5.5.1">[RFC6455] Section 5.5.1</a> requires.
+	 *
+	 * @param payload The payload of the CLOSE frame, or null if it had none.
+	 */
+	private void onClose(ByteBuffer payload) {
+		
+		if (payload == null || !payload.hasRemaining()) {
+			
+			parent.closeReceived(WebSocket.CLOSE_NO_STATUS, "");
+			return;
+			
+		}
+		
+		ByteBuffer reason = payload.duplicate();
+		int code = reason.remaining() == 1 ? 0 : reason.getShort() & 0xFFFF;
+		
+		if (!isValidCloseCode(code)) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("A CLOSE frame with an invalid status code was received: failing parent WebSocket...");
+			parent.fail(WebSocket.CLOSE_PROTOCOL_ERROR);
+			return;
+			
+		}
+		
+		// Not the text decoder, which may be part way through a fragmented message that this frame interrupted.
+		Utf8Decoder decoder = new Utf8Decoder();
+		
+		try {
+			
+			decoder.decode(reason);
+			decoder.finish();
+			
+		} catch (MalformedInputException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("A CLOSE frame with a reason that is not valid UTF-8 was received: failing parent WebSocket...");
+			parent.fail(WebSocket.CLOSE_INVALID_PAYLOAD);
+			return;
+			
+		}
+		
+		parent.closeReceived(code, decoder.toString());
+		
+	}
+	
+	/**
+	 * Returns whether a client may send the given status code in a CLOSE frame. Of the codes below 3000, only those
+	 * defined by <a href="https://tools.ietf.org/html/rfc6455#section-7.4.1">[RFC6455] Section 7.4.1</a> and
+	 * registered since may be sent, less those reserved for reporting a connection that closed without one. Codes from
+	 * 3000 to 4999 are left to libraries, frameworks and applications.
+	 *
+	 * @param code The status code.
+	 * @return true if the code may be sent.
+	 */
+	static boolean isValidCloseCode(int code) {
+		
+		if (code >= 3000) return code <= 4999;
+		
+		switch (code) {
+			
+			case 1000: case 1001: case 1002: case 1003:
+			case 1007: case 1008: case 1009: case 1010: case 1011:
+			case 1012: case 1013: case 1014:
+				return true;
+			
+			default:
+				return false;
+			
+		}
+		
+	}
+	
+	/**
+	 * Wakes this listener's thread if it is waiting for the subscriber to the parent WebSocket's messages to request
+	 * more.
+	 */
+	void wake() {
+		
+		Thread listener = this.listener;
+		
+		if (listener != null) LockSupport.unpark(listener);
+		
+	}
+	
+	/**
+	 * Blocks on the channel until bytes arrive, then hands every byte that a single read produced to the parent
+	 * WebSocket at once, which decrypts them and completes its opening handshake with them as needed before they reach
+	 * {@link #process(ByteBuffer)}. Between reads, waits for as long as the subscriber to the parent's messages has no
+	 * demand.
 	 */
 	@Override
 	public void run() {
 		
-		boolean frameComplete;
+		int read;
 
 		while (isListening) {
 			
-			WebSocketFrame frame = new WebSocketFrame(parent, true); // TODO - Unhardcode this value - not always going to be a server.
-			frameComplete = false;
-			
-			while (!frameComplete) {
+			receiveBuffer.clear();
 
-				try {
-
-					if (input != null && input.available() > 0) {
-						
-						frameComplete = frame.process((byte) input.read());
+			try {
 
-					}
+				read = input.read(receiveBuffer);
 
-				} catch (IOException e) {
-					
-					if (CaffeineSocket.getDebug()) System.out.println("Attempted to read from closed parent WebSocket SocketInputStream.");
-					this.stop();
-					// break;
+			} catch (IOException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Attempted to read from closed parent WebSocket SocketInputStream.");
+				isListening = false;
+				
+				// A read that failed for any reason other than a close leaves the connection unusable.
+				if (parent.getState() == WebSocket.State.HANDSHAKING || parent.getState() == WebSocket.State.RUNNING) parent.close();
+				break;
 
-				} catch (IllegalStateException e) {
+			} catch (RuntimeException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to read from WebSocket '" + parent.name + "': " + e);
+				isListening = false;
+				parent.close();
+				break;
+				
+			}
+			
+			if (read < 0) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Client of WebSocket '" + parent.name + "' closed the connection.");
+				isListening = false;
+				parent.close();
+				break;
+				
+			}
+			
+			receiveBuffer.flip();
+			
+			try {
+				
+				if (!parent.receive(receiveBuffer)) {
 					
-					if (CaffeineSocket.getDebug()) System.out.println(e.getMessage() + ": closing parent WebSocket...");
+					if (CaffeineSocket.getDebug()) System.out.println("Client of WebSocket '" + parent.name + "' closed its TLS session.");
+					isListening = false;
 					parent.close();
-					stop();
-					// break;
+					break;
 					
 				}
-
+				
+			} catch (IOException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to handle bytes received by WebSocket '" + parent.name + "': " + e.getMessage());
+				isListening = false;
+				parent.close();
+				break;
+				
+			} catch (RuntimeException e) {
+				
+				// Thrown by the handshake parser or the handler's onOpen, neither of which may take the thread down unclosed.
+				if (CaffeineSocket.getDebug()) System.out.println("Failed to handle bytes received by WebSocket '" + parent.name + "': " + e);
+				isListening = false;
+				parent.close();
+				break;
+				
 			}
+			
+			while (isListening && !parent.continueReading()) LockSupport.park(this);
 
 		}
+		
+		parent.getBufferPool().release(receiveBuffer);
+		receiveBuffer = null;
 
 	}
 
-}
\ No newline at end of file
+}
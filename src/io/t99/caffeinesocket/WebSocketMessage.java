@@ -0,0 +1,129 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * A message received from a WebSocket's client, as published by {@link WebSocket#getMessages()}.
+ * <p>
+ * Aggregated messages are published whole. Streamed messages are published as a series of pieces, the last of which
+ * {@link #isLast() is marked as such}. A message owns its text or data outright, and so may be kept for as long as its
+ * subscriber likes, on whichever thread it likes.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class WebSocketMessage {
+	
+	private final String text;
+	
+	private final ByteBuffer data;
+	
+	private final boolean last;
+	
+	private WebSocketMessage(String text, ByteBuffer data, boolean last) {
+		
+		this.text = text;
+		this.data = data;
+		this.last = last;
+		
+	}
+	
+	/**
+	 * Creates a text message, or piece of one.
+	 *
+	 * @param text The text, which is copied.
+	 * @param last Whether or not this is the end of the message.
+	 * @return The message.
+	 */
+	static WebSocketMessage text(CharSequence text, boolean last) {
+		
+		return new WebSocketMessage(text.toString(), null, last);
+		
+	}
+	
+	/**
+	 * Creates a binary message, or piece of one.
+	 *
+	 * @param bytes The data, between the buffer's position and limit, which is copied.
+	 * @param last Whether or not this is the end of the message.
+	 * @return The message.
+	 */
+	static WebSocketMessage binary(ByteBuffer bytes, boolean last) {
+		
+		ByteBuffer data = ByteBuffer.allocate(bytes.remaining());
+		
+		data.put(bytes.duplicate()).flip();
+		
+		return new WebSocketMessage(null, data.asReadOnlyBuffer(), last);
+		
+	}
+	
+	public boolean isText() {
+		
+		return text != null;
+		
+	}
+	
+	public boolean isBinary() {
+		
+		return data != null;
+		
+	}
+	
+	/**
+	 * Returns the text of a text message.
+	 *
+	 * @return The text, or null if this is a binary message.
+	 */
+	public String getText() {
+		
+		return text;
+		
+	}
+	
+	/**
+	 * Returns the data of a binary message, as a read-only buffer of its own for each call.
+	 *
+	 * @return The data, or null if this is a text message.
+	 */
+	public ByteBuffer getData() {
+		
+		return data != null ? data.duplicate() : null;
+		
+	}
+	
+	/**
+	 * Returns whether or not this is the end of its message, which is always the case unless the message was streamed.
+	 *
+	 * @return true if this is the whole of a message, or its last piece.
+	 */
+	public boolean isLast() {
+		
+		return last;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return isText() ? text : "[" + data.remaining() + " bytes of binary data]";
+		
+	}
+	
+}
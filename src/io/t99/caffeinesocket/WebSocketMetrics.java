@@ -0,0 +1,318 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the traffic and connections of every {@link WebSocket} that reports to it, and times their opening handshakes
+ * and deliveries, for exposure over JMX.
+ * <p>
+ * Every {@link WebSocketServer} keeps a registry of its own, registered with the platform MBean server under the
+ * server's name while the server is running. WebSockets that perform their own {@link WebSocket#handshake()} share the
+ * {@link #getDefault() default} registry, which is registered as 'default' once the first of them starts handshaking.
+ * <p>
+ * Counters are {@link LongAdder}s, so that the many threads of a server never contend over a single cache line to
+ * record to them, at the cost of reads that are only as consistent as the sum of a LongAdder.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class WebSocketMetrics implements WebSocketMetricsMXBean {
+	
+	/**
+	 * The domain of the {@link ObjectName} under which every registry is registered.
+	 */
+	public static final String DOMAIN = "io.t99.caffeinesocket";
+	
+	private static final WebSocketFrame.Type[] FRAME_TYPES = WebSocketFrame.Type.values();
+	
+	private static final WebSocket.State[] STATES = WebSocket.State.values();
+	
+	private static final WebSocketMetrics DEFAULT = new WebSocketMetrics();
+	
+	private final LongAdder[] framesReceived = counters(FRAME_TYPES.length);
+	
+	private final LongAdder[] framesSent = counters(FRAME_TYPES.length);
+	
+	private final LongAdder[] bytesReceived = counters(FRAME_TYPES.length);
+	
+	private final LongAdder[] bytesSent = counters(FRAME_TYPES.length);
+	
+	/**
+	 * The number of connections in each state, indexed by the state's ordinal. Connections that have yet to begin
+	 * handshaking are not counted.
+	 */
+	private final LongAdder[] connections = counters(STATES.length);
+	
+	private final LongAdder handshakeFailures = new LongAdder();
+	
+	private final LatencyHistogram handshakeTime = new LatencyHistogram();
+	
+	private final LatencyHistogram deliveryTime = new LatencyHistogram();
+	
+	/**
+	 * The name under which this registry is currently registered, or null if it is not.
+	 */
+	private ObjectName objectName;
+	
+	/**
+	 * Returns the registry shared by every WebSocket that performs its own {@link WebSocket#handshake()}.
+	 *
+	 * @return The default registry.
+	 */
+	public static WebSocketMetrics getDefault() {
+		
+		return DEFAULT;
+		
+	}
+	
+	/**
+	 * Registers the {@link #getDefault() default} registry, if it has not been registered already.
+	 */
+	static void registerDefault() {
+		
+		synchronized (DEFAULT) {
+			
+			if (!DEFAULT.isRegistered()) DEFAULT.register("default");
+			
+		}
+		
+	}
+	
+	/**
+	 * Registers this registry with the platform MBean server, under the name
+	 * <code>io.t99.caffeinesocket:type=WebSocketMetrics,name="..."</code>.
+	 *
+	 * @param name The name to register this registry under.
+	 * @return true if this registry was registered, or false if it already was, or the name is already taken.
+	 */
+	public synchronized boolean register(String name) {
+		
+		if (objectName != null) return false;
+		
+		try {
+			
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=WebSocketMetrics,name=" + ObjectName.quote(name));
+			
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+			
+		} catch (JMException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Could not register the metrics of '" + name + "': " + e.getMessage());
+			return false;
+			
+		}
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Removes this registry from the platform MBean server. The counts it holds are kept.
+	 *
+	 * @return true if this registry was registered, and no longer is.
+	 */
+	public synchronized boolean unregister() {
+		
+		if (objectName == null) return false;
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		
+		try {
+			
+			server.unregisterMBean(objectName);
+			
+		} catch (JMException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Could not unregister " + objectName + ": " + e.getMessage());
+			return false;
+			
+		} finally {
+			
+			objectName = null;
+			
+		}
+		
+		return true;
+		
+	}
+	
+	public synchronized boolean isRegistered() {
+		
+		return objectName != null;
+		
+	}
+	
+	/**
+	 * Counts a frame whose header has been received.
+	 *
+	 * @param type The type of the frame.
+	 * @param bytes The size of the frame's header and payload.
+	 */
+	void frameReceived(WebSocketFrame.Type type, long bytes) {
+		
+		framesReceived[type.ordinal()].increment();
+		bytesReceived[type.ordinal()].add(bytes);
+		
+	}
+	
+	/**
+	 * Counts a frame that has been written in full.
+	 *
+	 * @param type The type of the frame.
+	 * @param bytes The size of the frame's header and payload, as written.
+	 */
+	void frameSent(WebSocketFrame.Type type, long bytes) {
+		
+		framesSent[type.ordinal()].increment();
+		bytesSent[type.ordinal()].add(bytes);
+		
+	}
+	
+	/**
+	 * Moves a connection from one state to another, counting a failed handshake if it left the handshaking state for
+	 * any state but running.
+	 *
+	 * @param previous The state the connection was in.
+	 * @param next The state the connection is now in.
+	 */
+	void stateChanged(WebSocket.State previous, WebSocket.State next) {
+		
+		if (previous == next) return;
+		
+		if (previous != WebSocket.State.PRESTART) connections[previous.ordinal()].decrement();
+		if (next != WebSocket.State.PRESTART) connections[next.ordinal()].increment();
+		
+		if (previous == WebSocket.State.HANDSHAKING && next != WebSocket.State.RUNNING) handshakeFailures.increment();
+		
+	}
+	
+	void recordHandshake(long nanos) {
+		
+		handshakeTime.record(nanos);
+		
+	}
+	
+	void recordDelivery(long nanos) {
+		
+		deliveryTime.record(nanos);
+		
+	}
+	
+	@Override
+	public Map<String, Long> getFramesReceived() {
+		
+		return byFrameType(framesReceived);
+		
+	}
+	
+	@Override
+	public Map<String, Long> getFramesSent() {
+		
+		return byFrameType(framesSent);
+		
+	}
+	
+	@Override
+	public Map<String, Long> getBytesReceived() {
+		
+		return byFrameType(bytesReceived);
+		
+	}
+	
+	@Override
+	public Map<String, Long> getBytesSent() {
+		
+		return byFrameType(bytesSent);
+		
+	}
+	
+	@Override
+	public Map<String, Long> getConnections() {
+		
+		Map<String, Long> counts = new LinkedHashMap<>();
+		
+		for (WebSocket.State state: STATES) if (state != WebSocket.State.PRESTART) counts.put(state.name(), connections[state.ordinal()].sum());
+		
+		return counts;
+		
+	}
+	
+	@Override
+	public long getActiveConnections() {
+		
+		long active = 0;
+		
+		for (WebSocket.State state: STATES) if (state.getOperatingStatus()) active += connections[state.ordinal()].sum();
+		
+		return active;
+		
+	}
+	
+	@Override
+	public long getHandshakeFailures() {
+		
+		return handshakeFailures.sum();
+		
+	}
+	
+	@Override
+	public LatencyHistogram.Snapshot getHandshakeTime() {
+		
+		return handshakeTime.snapshot(TimeUnit.MICROSECONDS);
+		
+	}
+	
+	@Override
+	public LatencyHistogram.Snapshot getDeliveryTime() {
+		
+		return deliveryTime.snapshot(TimeUnit.MICROSECONDS);
+		
+	}
+	
+	private static Map<String, Long> byFrameType(LongAdder[] counters) {
+		
+		Map<String, Long> counts = new LinkedHashMap<>();
+		
+		for (WebSocketFrame.Type type: FRAME_TYPES) counts.put(type.name(), counters[type.ordinal()].sum());
+		
+		return counts;
+		
+	}
+	
+	private static LongAdder[] counters(int length) {
+		
+		LongAdder[] counters = new LongAdder[length];
+		
+		for (int i = 0; i < length; i++) counters[i] = new LongAdder();
+		
+		return counters;
+		
+	}
+	
+}
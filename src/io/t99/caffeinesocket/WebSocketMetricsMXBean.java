@@ -0,0 +1,90 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * The management interface through which a {@link WebSocketMetrics} registry is exposed over JMX. Frame and byte
+ * counts are keyed by the name of the frame type, and connection counts by the name of the {@link WebSocket.State}.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public interface WebSocketMetricsMXBean {
+	
+	Map<String, Long> getFramesReceived();
+	
+	Map<String, Long> getFramesSent();
+	
+	/**
+	 * Returns the number of bytes received in frames of each type, counting each frame's header and payload as they
+	 * were on the wire.
+	 *
+	 * @return The number of bytes received, by frame type.
+	 */
+	Map<String, Long> getBytesReceived();
+	
+	/**
+	 * Returns the number of bytes sent in frames of each type, counting each frame's header and payload as they were
+	 * written, after compression.
+	 *
+	 * @return The number of bytes sent, by frame type.
+	 */
+	Map<String, Long> getBytesSent();
+	
+	/**
+	 * Returns the number of connections in each state. Connections leave the handshaking, running and closing states as
+	 * they progress, but stay closed or errored for good, so those two states count every connection that has ended.
+	 *
+	 * @return The number of connections, by state.
+	 */
+	Map<String, Long> getConnections();
+	
+	/**
+	 * Returns the number of connections that are handshaking, running or closing.
+	 *
+	 * @return The number of open connections.
+	 */
+	long getActiveConnections();
+	
+	/**
+	 * Returns the number of connections that left the handshaking state without completing the opening handshake.
+	 *
+	 * @return The number of failed handshakes.
+	 */
+	long getHandshakeFailures();
+	
+	/**
+	 * Summarises, in microseconds, the time taken by each completed opening handshake, from the moment the client was
+	 * accepted until the server's response had been written.
+	 *
+	 * @return A summary of handshake times.
+	 */
+	LatencyHistogram.Snapshot getHandshakeTime();
+	
+	/**
+	 * Summarises, in microseconds, the time from bytes being read from a client until the message, or piece of a
+	 * message, that they completed was handed to the application.
+	 *
+	 * @return A summary of receive-to-callback times.
+	 */
+	LatencyHistogram.Snapshot getDeliveryTime();
+	
+}
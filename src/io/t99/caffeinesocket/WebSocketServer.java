@@ -0,0 +1,452 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.VirtualThreads;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A non-blocking WebSocket server that accepts, upgrades, and services any number of clients from a single listening
+ * port, using a fixed number of I/O threads.
+ * <p>
+ * Where a {@link WebSocket} that performs its own {@link WebSocket#handshake()} serves exactly one client, a
+ * WebSocketServer creates a new <code>WebSocket</code> for every client it accepts, and hands it to one of its
+ * {@link WebSocketEventLoop}s for the remainder of its lifetime.
+ * <p>
+ * The event loops share nothing with one another. Each has its own selector, buffer pool and timer, and the
+ * {@link EventLoopBalancer} set by the server's {@link WebSocketConfig} decides which loop each client is pinned to.
+ * <p>
+ * Clients pass through three stages, each with threads of its own: {@link WebSocketAcceptor}s accept them,
+ * {@link WebSocketHandshakeLoop}s read their opening handshakes, and event loops then service their traffic. The
+ * number of acceptor and handshake threads is set by the server's {@link WebSocketConfig}.
+ * <p>
+ * Alternatively, in {@link WebSocketConfig.ExecutionMode#THREAD_PER_CONNECTION} mode, each accepted client is handed
+ * straight to a thread of its own, virtual where the runtime allows, which performs its handshake and services its
+ * traffic with blocking reads. No handshake or event loops are created in this mode.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class WebSocketServer {
+	
+	/**
+	 * The number of I/O threads used when none is specified: one for each available processor.
+	 */
+	public static final int DEFAULT_IO_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Port on which a given WebSocketServer will listen.
+	 */
+	private final int port;
+	
+	/**
+	 * The number of {@link WebSocketEventLoop}s that service this server's clients.
+	 */
+	private final int ioThreads;
+	
+	/**
+	 * {@link String} used for identification of different WebSocketServers, as well as for naming their threads.
+	 */
+	public final String name;
+	
+	private volatile WebSocket.State state = WebSocket.State.PRESTART;
+	
+	/**
+	 * The settings shared by every client of this server.
+	 */
+	private final WebSocketConfig config = new WebSocketConfig();
+	
+	/**
+	 * The registry that every client of this server records to, registered over JMX under this server's name while the
+	 * server is running.
+	 */
+	private final WebSocketMetrics metrics = new WebSocketMetrics();
+	
+	/**
+	 * The listening sockets of this server: either one shared by every acceptor, or one for each acceptor if
+	 * SO_REUSEPORT is in use.
+	 */
+	private ServerSocketChannel[] serverChannels;
+	
+	private WebSocketAcceptor[] acceptors;
+	
+	private WebSocketHandshakeLoop[] handshakeLoops;
+	
+	private WebSocketEventLoop[] loops;
+	
+	/**
+	 * The balancer that this server was started with, which picks the event loop of each client.
+	 */
+	private EventLoopBalancer balancer;
+	
+	/**
+	 * Gives the balancer the number of clients pinned to each event loop.
+	 */
+	private final IntUnaryOperator pinnedCounts = index -> loops[index].getPinnedCount();
+	
+	/**
+	 * The execution mode that this server was started in.
+	 */
+	private WebSocketConfig.ExecutionMode executionMode;
+	
+	/**
+	 * Every client currently connected to this server, when each client has a thread of its own rather than belonging
+	 * to an event loop.
+	 */
+	private final Set<WebSocket> threadedConnections = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Counts accepted connections, to pick the handshake loop of each in turn. Shared by every acceptor.
+	 */
+	private final AtomicInteger nextHandshakeLoop = new AtomicInteger();
+	
+	public WebSocketServer(int port) {
+		
+		this("wss:" + port, port, DEFAULT_IO_THREADS);
+		
+	}
+	
+	public WebSocketServer(int port, int ioThreads) {
+		
+		this("wss:" + port, port, ioThreads);
+		
+	}
+	
+	public WebSocketServer(String name, int port, int ioThreads) {
+		
+		if (ioThreads <= 0) throw new IllegalArgumentException("Illegal number of I/O threads: " + ioThreads);
+		
+		this.name = name;
+		this.port = port;
+		this.ioThreads = ioThreads;
+		
+	}
+	
+	/**
+	 * Binds this server to its port and starts accepting clients. This method returns once the server is listening.
+	 *
+	 * @return true if the server started successfully.
+	 */
+	public boolean start() {
+		
+		if (state != WebSocket.State.PRESTART) return false;
+		
+		state = WebSocket.State.HANDSHAKING;
+		
+		// Loading the first Flight Recorder event class sets up event instrumentation, which takes long enough that it is
+		// better done now than during the first client's handshake.
+		FrameDecodeEvent.isRecording();
+		
+		executionMode = config.getExecutionMode();
+		balancer = config.getEventLoopBalancer();
+		
+		boolean eventLoops = executionMode == WebSocketConfig.ExecutionMode.EVENT_LOOP;
+		int acceptorThreads = config.getAcceptorThreads();
+		int handshakeThreads = eventLoops ? config.getHandshakeThreads() : 0;
+		int ioThreads = eventLoops ? this.ioThreads : 0;
+		
+		try {
+			
+			serverChannels = openServerChannels(acceptorThreads);
+			
+		} catch (IOException e) {
+			
+			state = WebSocket.State.ERRORED;
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Could not get the requested port.");
+			return false;
+			
+		}
+		
+		loops = new WebSocketEventLoop[ioThreads];
+		handshakeLoops = new WebSocketHandshakeLoop[handshakeThreads];
+		acceptors = new WebSocketAcceptor[acceptorThreads];
+		
+		try {
+			
+			for (int i = 0; i < ioThreads; i++) loops[i] = new WebSocketEventLoop(this, i);
+			for (int i = 0; i < handshakeThreads; i++) handshakeLoops[i] = new WebSocketHandshakeLoop(this, i);
+			for (int i = 0; i < acceptorThreads; i++) acceptors[i] = new WebSocketAcceptor(this, serverChannels[i % serverChannels.length], i);
+			
+		} catch (IOException e) {
+			
+			state = WebSocket.State.ERRORED;
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Could not open a selector for a server thread.");
+			closeServerChannels();
+			return false;
+			
+		}
+		
+		// Each stage is started before the stage that feeds it.
+		for (WebSocketEventLoop loop: loops) loop.start();
+		for (WebSocketHandshakeLoop handshakeLoop: handshakeLoops) handshakeLoop.start();
+		
+		state = WebSocket.State.RUNNING;
+		
+		metrics.register(name);
+		
+		for (WebSocketAcceptor acceptor: acceptors) acceptor.start();
+		
+		if (CaffeineSocket.getDebug()) {
+			
+			if (eventLoops) System.out.println("Server has started on port " + getPort() + " with " + acceptorThreads + " acceptor, " + handshakeThreads + " handshake and " + ioThreads + " I/O threads" + (serverChannels.length > 1 ? ", using SO_REUSEPORT." : "."));
+			else System.out.println("Server has started on port " + getPort() + " with " + acceptorThreads + " acceptor threads, and a " + (VirtualThreads.isSupported() ? "virtual" : "platform") + " thread for each client.");
+			
+		}
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Opens and binds this server's listening sockets.
+	 *
+	 * @param acceptorThreads The number of acceptors that will accept from the sockets.
+	 * @return One socket for each acceptor if SO_REUSEPORT is wanted and supported, or else a single socket.
+	 * @throws IOException If a socket could not be bound.
+	 */
+	private ServerSocketChannel[] openServerChannels(int acceptorThreads) throws IOException {
+		
+		ServerSocketChannel first = ServerSocketChannel.open();
+		boolean reusePort = config.getReusePort() && acceptorThreads > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		
+		if (config.getReusePort() && acceptorThreads > 1 && !reusePort && CaffeineSocket.getDebug()) System.out.println("SO_REUSEPORT is not supported, so every acceptor will share a single socket.");
+		
+		ServerSocketChannel[] channels = new ServerSocketChannel[reusePort ? acceptorThreads : 1];
+		channels[0] = first;
+		
+		try {
+			
+			for (int i = 0; i < channels.length; i++) {
+				
+				if (channels[i] == null) channels[i] = ServerSocketChannel.open();
+				
+				if (reusePort) channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				
+				// Every socket after the first binds to the port that the first was given, in case the port was 0.
+				channels[i].bind(new InetSocketAddress(i == 0 ? port : channels[0].socket().getLocalPort()), config.getAcceptBacklog());
+				channels[i].configureBlocking(false);
+				
+			}
+			
+		} catch (IOException e) {
+			
+			for (ServerSocketChannel channel: channels) if (channel != null) channel.close();
+			
+			throw e;
+			
+		}
+		
+		return channels;
+		
+	}
+	
+	private boolean closeServerChannels() {
+		
+		boolean closed = true;
+		
+		for (ServerSocketChannel channel: serverChannels) {
+			
+			try {
+				
+				channel.close();
+				
+			} catch (IOException e) {
+				
+				closed = false;
+				
+			}
+			
+		}
+		
+		return closed;
+		
+	}
+	
+	/**
+	 * Stops accepting clients, and closes every WebSocket currently connected to this server.
+	 *
+	 * @return true if the server was running and has now stopped.
+	 */
+	public boolean stop() {
+		
+		if (state != WebSocket.State.RUNNING) return false;
+		
+		state = WebSocket.State.CLOSING;
+		
+		// Each stage is stopped before the stage that it feeds.
+		for (WebSocketAcceptor acceptor: acceptors) acceptor.stop();
+		for (WebSocketHandshakeLoop handshakeLoop: handshakeLoops) handshakeLoop.stop();
+		for (WebSocketEventLoop loop: loops) loop.stop();
+		for (WebSocket webSocket: new ArrayList<>(threadedConnections)) webSocket.close();
+		
+		metrics.unregister();
+		
+		if (!closeServerChannels()) {
+			
+			state = WebSocket.State.ERRORED;
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Server socket could not be closed.");
+			return false;
+			
+		}
+		
+		state = WebSocket.State.CLOSED;
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Hands a newly accepted client to whatever will read its opening handshake: the next handshake loop in turn, or,
+	 * in {@link WebSocketConfig.ExecutionMode#THREAD_PER_CONNECTION} mode, a thread of the client's own.
+	 *
+	 * @param channel The accepted channel.
+	 */
+	void accepted(SocketChannel channel) {
+		
+		if (executionMode == WebSocketConfig.ExecutionMode.EVENT_LOOP) {
+			
+			nextHandshakeLoop().register(channel);
+			return;
+			
+		}
+		
+		WebSocket webSocket = new WebSocket(channel, this, null);
+		
+		// The TLS session may have failed to begin, in which case the WebSocket has already been closed.
+		if (webSocket.getState() != WebSocket.State.HANDSHAKING) return;
+		
+		threadedConnections.add(webSocket);
+		webSocket.getListener().provideChannel(channel);
+		
+	}
+	
+	/**
+	 * Forgets a client that had a thread of its own, once it has been closed.
+	 *
+	 * @param webSocket The closed client.
+	 */
+	void deregister(WebSocket webSocket) {
+		
+		threadedConnections.remove(webSocket);
+		
+	}
+	
+	/**
+	 * Picks the handshake loop that will read the opening handshake of a newly accepted client.
+	 *
+	 * @return The next handshake loop in turn.
+	 */
+	WebSocketHandshakeLoop nextHandshakeLoop() {
+		
+		return handshakeLoops[Math.floorMod(nextHandshakeLoop.getAndIncrement(), handshakeLoops.length)];
+		
+	}
+	
+	/**
+	 * Picks the event loop that a newly accepted client is pinned to, and that will service it once its opening
+	 * handshake is complete.
+	 *
+	 * @return The event loop chosen by this server's {@link EventLoopBalancer}.
+	 */
+	WebSocketEventLoop nextLoop() {
+		
+		// An index out of range is a bug in the balancer, but is better wrapped than left to fail the handshake thread.
+		return loops[Math.floorMod(balancer.select(loops.length, pinnedCounts), loops.length)];
+		
+	}
+	
+	/**
+	 * Returns every WebSocket currently connected to this server.
+	 *
+	 * @return A snapshot of this server's connections.
+	 */
+	public Set<WebSocket> getConnections() {
+		
+		Set<WebSocket> connections = new HashSet<>();
+		
+		if (loops != null) for (WebSocketEventLoop loop: loops) connections.addAll(loop.getConnections());
+		
+		for (WebSocket webSocket: threadedConnections) if (webSocket.getState() == WebSocket.State.RUNNING) connections.add(webSocket);
+		
+		return connections;
+		
+	}
+	
+	/**
+	 * Sends the same text message to every client currently connected to this server, encoding it only once.
+	 *
+	 * @param text The text to send.
+	 * @return The number of clients that the message was written, or queued to be written, to.
+	 * @see WebSocket#broadcast(java.util.Collection, String)
+	 */
+	public int broadcast(String text) {
+		
+		return WebSocket.broadcast(getConnections(), text);
+		
+	}
+	
+	/**
+	 * Returns the port this server is listening on, which differs from the requested port if that was 0.
+	 *
+	 * @return This server's port.
+	 */
+	public int getPort() {
+		
+		if (serverChannels != null && serverChannels[0].socket().isBound()) return serverChannels[0].socket().getLocalPort();
+		
+		return port;
+		
+	}
+	
+	public WebSocketConfig getConfig() {
+		
+		return config;
+		
+	}
+	
+	/**
+	 * Returns the registry that records the traffic, connections and latencies of every client of this server.
+	 *
+	 * @return This server's metrics.
+	 */
+	public WebSocketMetrics getMetrics() {
+		
+		return metrics;
+		
+	}
+	
+	public WebSocket.State getState() {
+		
+		return state;
+		
+	}
+	
+}
@@ -0,0 +1,45 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+
+/**
+ * Listens for changes to whether or not a {@link WebSocket} is writable: that is, whether or not the outbound bytes
+ * queued for its client are within the high water mark set by its {@link WebSocketConfig}.
+ * <p>
+ * Called by whichever thread caused the change, which may be a thread sending to the WebSocket or the thread writing
+ * to it, or by another thread telling of a change of its own at the time. Never called for two changes to the same
+ * WebSocket at once, and always in the order in which they were made. No lock is held during the call, so
+ * implementations may send to or close the WebSocket, but they should return quickly, as later changes cannot be told
+ * in the meantime.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ * @see WebSocketConfig#setWriteBufferWaterMarks(int, int)
+ */
+@FunctionalInterface
+public interface WritabilityListener {
+	
+	/**
+	 * Called once each time a WebSocket stops or starts being writable.
+	 *
+	 * @param webSocket The WebSocket whose writability changed.
+	 * @param writable Whether the WebSocket is now writable.
+	 */
+	void writabilityChanged(WebSocket webSocket, boolean writable);
+	
+}
@@ -0,0 +1,408 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct {@link ByteBuffer}s, grouped into power-of-two size classes.
+ * <p>
+ * Buffers are leased with {@link #lease(int)} and handed back with {@link #release(ByteBuffer)}. Each platform thread
+ * keeps a small cache of the smaller size classes, so that a thread that leases and releases buffers in turn never
+ * touches shared state. Buffers that do not fit in a thread's cache go to an arena shared by every thread, which is
+ * bounded per size class. Virtual threads keep no cache, and always go to the arena, as they may be many and
+ * short-lived. Requests larger than {@link #MAX_SIZE_CLASS} are served with unpooled heap buffers.
+ * <p>
+ * When leak detection is enabled, every lease records where it was made, and any buffer that is garbage collected
+ * without having been released is reported along with that location.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class BufferPool {
+	
+	private static final int MIN_SHIFT = 8;
+	
+	private static final int MAX_SHIFT = 22;
+	
+	/**
+	 * The capacity of the smallest pooled buffer. Set to 256B.
+	 */
+	public static final int MIN_SIZE_CLASS = 1 << MIN_SHIFT;
+	
+	/**
+	 * The capacity of the largest pooled buffer. Set to 4MiB.
+	 */
+	public static final int MAX_SIZE_CLASS = 1 << MAX_SHIFT;
+	
+	private static final int SIZE_CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+	
+	/**
+	 * The largest size class that is kept in thread-local caches. Set to 64KiB.
+	 */
+	private static final int MAX_CACHED_SIZE_CLASS = 64 * 1024;
+	
+	private static final BufferPool DEFAULT = new BufferPool();
+	
+	private static volatile boolean leakDetection = false;
+	
+	/**
+	 * The number of buffers of each size class that a single thread may cache.
+	 */
+	private final int threadCacheSize;
+	
+	/**
+	 * The number of bytes of each size class that the shared arena may hold.
+	 */
+	private final int arenaBytesPerClass;
+	
+	private final Queue<ByteBuffer>[] arena;
+	
+	private final AtomicInteger[] arenaCounts;
+	
+	private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+	
+	/**
+	 * The number of buffers that had to be newly allocated because no pooled buffer was available.
+	 */
+	private final AtomicLong allocations = new AtomicLong();
+	
+	/**
+	 * Records of every buffer currently leased, keyed by the buffer's identity hash code. Only used while leak
+	 * detection is enabled, and guarded by itself.
+	 */
+	private final Map<Integer, List<LeaseRecord>> leases = new HashMap<>();
+	
+	private final ReferenceQueue<ByteBuffer> collectedLeases = new ReferenceQueue<>();
+	
+	private final AtomicLong leaks = new AtomicLong();
+	
+	public BufferPool() {
+		
+		this(8, 16 * 1024 * 1024);
+		
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public BufferPool(int threadCacheSize, int arenaBytesPerClass) {
+		
+		if (threadCacheSize < 0) throw new IllegalArgumentException("Illegal thread cache size: " + threadCacheSize);
+		if (arenaBytesPerClass < 0) throw new IllegalArgumentException("Illegal arena size: " + arenaBytesPerClass);
+		
+		this.threadCacheSize = threadCacheSize;
+		this.arenaBytesPerClass = arenaBytesPerClass;
+		
+		arena = new Queue[SIZE_CLASSES];
+		arenaCounts = new AtomicInteger[SIZE_CLASSES];
+		
+		for (int sizeClass = 0; sizeClass < SIZE_CLASSES; sizeClass++) {
+			
+			arena[sizeClass] = new ConcurrentLinkedQueue<>();
+			arenaCounts[sizeClass] = new AtomicInteger();
+			
+		}
+		
+		threadCaches = ThreadLocal.withInitial(() -> {
+			
+			ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[SIZE_CLASSES];
+			for (int sizeClass = 0; sizeClass < SIZE_CLASSES; sizeClass++) caches[sizeClass] = new ArrayDeque<>();
+			return caches;
+			
+		});
+		
+	}
+	
+	/**
+	 * Returns the pool shared by every part of CaffeineSocket that has not been given a pool of its own.
+	 *
+	 * @return The default pool.
+	 */
+	public static BufferPool getDefault() {
+		
+		return DEFAULT;
+		
+	}
+	
+	/**
+	 * Leases a buffer with at least the requested capacity. The buffer is positioned at zero, and limited at the
+	 * requested size.
+	 *
+	 * @param size The number of bytes required.
+	 * @return A buffer that should be handed back with {@link #release(ByteBuffer)} once it is no longer used.
+	 */
+	public ByteBuffer lease(int size) {
+		
+		if (size < 0) throw new IllegalArgumentException("Illegal buffer size: " + size);
+		
+		if (leakDetection) reportLeaks();
+		
+		ByteBuffer buffer;
+		
+		if (size > MAX_SIZE_CLASS) {
+			
+			buffer = ByteBuffer.allocate(size);
+			
+		} else {
+			
+			int sizeClass = getSizeClass(size);
+			
+			buffer = isCached(sizeClass) ? threadCaches.get()[sizeClass].pollLast() : null;
+			
+			if (buffer == null) {
+				
+				buffer = arena[sizeClass].poll();
+				
+				if (buffer != null) arenaCounts[sizeClass].decrementAndGet();
+				
+			}
+			
+			if (buffer == null) {
+				
+				buffer = ByteBuffer.allocateDirect(classSize(sizeClass));
+				allocations.incrementAndGet();
+				
+			}
+			
+			buffer.clear();
+			
+		}
+		
+		buffer.limit(size);
+		
+		if (leakDetection) track(buffer);
+		
+		return buffer;
+		
+	}
+	
+	/**
+	 * Hands a leased buffer back to the pool. The buffer must not be used again by the caller, nor may any views of it.
+	 *
+	 * @param buffer The buffer, exactly as it was returned by {@link #lease(int)}.
+	 */
+	public void release(ByteBuffer buffer) {
+		
+		if (buffer == null) return;
+		
+		if (leakDetection && !untrack(buffer)) {
+			
+			System.out.println("BufferPool: a buffer that was not leased from this pool (or was already released) was released.");
+			return;
+			
+		}
+		
+		if (!buffer.isDirect() || Integer.bitCount(buffer.capacity()) != 1) return;
+		
+		int sizeClass = getSizeClass(buffer.capacity());
+		
+		if (sizeClass >= SIZE_CLASSES || classSize(sizeClass) != buffer.capacity()) return;
+		
+		buffer.clear();
+		
+		if (isCached(sizeClass)) {
+			
+			ArrayDeque<ByteBuffer> cache = threadCaches.get()[sizeClass];
+			
+			if (cache.size() < threadCacheSize) {
+				
+				cache.addLast(buffer);
+				return;
+				
+			}
+			
+		}
+		
+		if (arenaCounts[sizeClass].incrementAndGet() <= arenaBytesPerClass / classSize(sizeClass)) {
+			
+			arena[sizeClass].offer(buffer);
+			
+		} else {
+			
+			arenaCounts[sizeClass].decrementAndGet();
+			
+		}
+		
+	}
+	
+	/**
+	 * Returns whether or not buffers of a size class go through the calling thread's cache. Virtual threads have none,
+	 * as there may be one for each of a great many connections, and the buffers in its cache would be lost with it.
+	 */
+	private static boolean isCached(int sizeClass) {
+		
+		return classSize(sizeClass) <= MAX_CACHED_SIZE_CLASS && !VirtualThreads.isCurrentVirtual();
+		
+	}
+	
+	private static int getSizeClass(int size) {
+		
+		if (size <= MIN_SIZE_CLASS) return 0;
+		
+		return (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_SHIFT;
+		
+	}
+	
+	private static int classSize(int sizeClass) {
+		
+		return 1 << (sizeClass + MIN_SHIFT);
+		
+	}
+	
+	/**
+	 * Enables or disables leak detection for every pool. Leak detection records the stack trace of every lease, and
+	 * so is only meant for debugging.
+	 *
+	 * @param bool Whether or not to detect leaks.
+	 */
+	public static void setLeakDetection(boolean bool) {
+		
+		leakDetection = bool;
+		
+	}
+	
+	public static boolean getLeakDetection() {
+		
+		return leakDetection;
+		
+	}
+	
+	private void track(ByteBuffer buffer) {
+		
+		LeaseRecord record = new LeaseRecord(buffer, collectedLeases);
+		
+		synchronized (leases) {
+			
+			leases.computeIfAbsent(record.identity, identity -> new ArrayList<>(1)).add(record);
+			
+		}
+		
+	}
+	
+	private boolean untrack(ByteBuffer buffer) {
+		
+		int identity = System.identityHashCode(buffer);
+		
+		synchronized (leases) {
+			
+			List<LeaseRecord> records = leases.get(identity);
+			
+			if (records == null) return false;
+			
+			for (int i = 0; i < records.size(); i++) {
+				
+				if (records.get(i).get() == buffer) {
+					
+					records.remove(i).clear();
+					if (records.isEmpty()) leases.remove(identity);
+					return true;
+					
+				}
+				
+			}
+			
+			return false;
+			
+		}
+		
+	}
+	
+	/**
+	 * Reports every leased buffer that has been garbage collected without having been released.
+	 */
+	private void reportLeaks() {
+		
+		Reference<? extends ByteBuffer> reference;
+		
+		while ((reference = collectedLeases.poll()) != null) {
+			
+			LeaseRecord record = (LeaseRecord) reference;
+			
+			synchronized (leases) {
+				
+				List<LeaseRecord> records = leases.get(record.identity);
+				
+				// Records of released buffers are cleared before they could be enqueued, so this is a true leak.
+				if (records == null || !records.remove(record)) continue;
+				if (records.isEmpty()) leases.remove(record.identity);
+				
+			}
+			
+			leaks.incrementAndGet();
+			
+			System.out.println("BufferPool: a buffer was garbage collected without being released. It was leased at:");
+			record.site.printStackTrace(System.out);
+			
+		}
+		
+	}
+	
+	/**
+	 * Returns the number of leaked buffers detected so far.
+	 *
+	 * @return The number of buffers that were garbage collected without being released while leak detection was
+	 *         enabled.
+	 */
+	public long getLeakCount() {
+		
+		if (leakDetection) reportLeaks();
+		
+		return leaks.get();
+		
+	}
+	
+	/**
+	 * Returns the number of buffers this pool has had to allocate, which stops growing once the pool has warmed up.
+	 *
+	 * @return The number of direct buffers allocated by this pool.
+	 */
+	public long getAllocationCount() {
+		
+		return allocations.get();
+		
+	}
+	
+	/**
+	 * A weak record of a single lease, which outlives its buffer if the buffer is collected without being released.
+	 */
+	private static class LeaseRecord extends WeakReference<ByteBuffer> {
+		
+		private final int identity;
+		
+		private final Throwable site = new Throwable("Buffer leased here");
+		
+		LeaseRecord(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+			
+			super(buffer, queue);
+			identity = System.identityHashCode(buffer);
+			
+		}
+		
+	}
+	
+}
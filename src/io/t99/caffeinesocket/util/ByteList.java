@@ -16,20 +16,44 @@ package io.t99.caffeinesocket.util;
  *	limitations under the License.
  */
 
-import java.util.ArrayList;
-import java.util.Iterator;
-
-public class ByteList implements Iterable<Byte> {
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
 
+/**
+ * A growable list of primitive bytes.
+ * <p>
+ * ByteLists are not thread-safe, and are meant to be owned by a single thread at a time. The backing array grows
+ * geometrically, so appending n bytes one at a time costs O(n) in total.
+ * <p>
+ * A ByteList returned by {@link #slice(int, int)} is a read-only view that shares the backing array of the list it was
+ * taken from. Like the views of other collections, it is only valid until the list it was taken from is next
+ * modified.
+ */
+public class ByteList {
+	
 	private byte[] array;
 	
+	/**
+	 * The index in {@link #array} of this list's first element. Always zero, except for slices.
+	 */
+	private final int offset;
+	
 	/**
 	 * Acts as the 'cursor' in the array, indicating where the next value should be placed. This therefore means that
 	 * `index` also always points to the first non-real value in the array, as while all indices are initialized to
 	 * zero, we know that any zero values that have an index equal to or greater than this value are non-real.
+	 * <p>
+	 * For slices, this is relative to {@link #offset}, and so is always the size of the list.
 	 */
 	private int index = 0;
-	private int growthStepSize;
+	
+	/**
+	 * The minimum number of bytes by which the array grows when it runs out of space. The array otherwise grows by
+	 * half of its current length.
+	 */
+	private final int growthStepSize;
+	
+	private final boolean readOnly;
 	
 	public ByteList() {
 		
@@ -46,7 +70,11 @@ public class ByteList implements Iterable<Byte> {
 	public ByteList(int size, int growthStepSize) {
 		
 		if (size <= 0) throw new IllegalArgumentException("Illegal ByteList size: " + size);
+		if (growthStepSize <= 0) throw new IllegalArgumentException("Illegal ByteList growth step size: " + growthStepSize);
+		
 		array = new byte[size];
+		offset = 0;
+		readOnly = false;
 		this.growthStepSize = growthStepSize;
 		
 	}
@@ -63,32 +91,51 @@ public class ByteList implements Iterable<Byte> {
 	
 	public ByteList(ByteList byteList, int i1, int i2, int growthStepSize) {
 		
-		this(i2-i1, growthStepSize);
+		this(Math.max(1, i2 - i1), growthStepSize);
 		
-		for (int i = i1; i < i2; i++) {
-			
-			this.add(byteList.get(i));
-			
-		}
+		byteList.checkRange(i1, i2);
+		add(byteList.array, byteList.offset + i1, i2 - i1);
+		
+	}
+	
+	/**
+	 * Constructor for slices.
+	 */
+	private ByteList(byte[] array, int offset, int size) {
+		
+		this.array = array;
+		this.offset = offset;
+		this.index = size;
+		this.growthStepSize = 1;
+		this.readOnly = true;
 		
 	}
 	
 	public byte get(int index) {
 		
-		return array[index];
+		if (index < 0 || index >= this.index) throw new IndexOutOfBoundsException("Attempted to get index " + index + " of a ByteList of size " + this.index + ".");
+		
+		return array[offset + index];
 		
 	}
 	
 	public boolean getBit(int bit) {
 		
-		return NumberBaseConverter.signedByteToBinary(get(bit/8))[bit%8];
+		return getBit(bit >>> 3, bit & 7);
 		
 	}
 	
+	/**
+	 * Returns a single bit of a single byte, where bit 0 is the most significant bit of the byte.
+	 *
+	 * @param b The index of the byte.
+	 * @param bit The index of the bit within the byte.
+	 * @return true if the bit is set.
+	 */
 	public boolean getBit(int b, int bit) {
-
-		return NumberBaseConverter.signedByteToBinary(get(b))[bit];
-
+		
+		return ((get(b) >>> (7 - bit)) & 1) != 0;
+		
 	}
 	
 	public boolean[] getBits(int i1, int i2) {
@@ -105,89 +152,156 @@ public class ByteList implements Iterable<Byte> {
 		
 	}
 	
-	public synchronized void resizeToLength() {
-	
-		// TODO - Write `resizeToLength()` method.
+	/**
+	 * Shrinks the backing array so that it holds exactly as many bytes as this list does.
+	 */
+	public void resizeToLength() {
+		
+		checkWritable();
+		
+		if (array.length != index) resize(Math.max(1, index));
+		
+	}
 	
+	/**
+	 * Ensures that the backing array can hold at least the given number of bytes without growing again.
+	 *
+	 * @param capacity The number of bytes the list should be able to hold.
+	 */
+	public void ensureCapacity(int capacity) {
+		
+		checkWritable();
+		
+		if (capacity > array.length) resizeUp(capacity);
+		
 	}
 	
-	private synchronized void resizeUp() {
+	/**
+	 * Grows the backing array to at least the required capacity, growing by at least half of its current length.
+	 *
+	 * @param required The number of bytes the array has to be able to hold.
+	 */
+	private void resizeUp(int required) {
+		
+		if (required < 0) throw new OutOfMemoryError("ByteList cannot grow beyond " + Integer.MAX_VALUE + " bytes.");
 		
-		// Store a copy of the array in `copy`.
-		byte[] copy = array;
+		int length = array.length + Math.max(growthStepSize, array.length >> 1);
 		
-		// Reset `array` to an array of it's previous size, plus the growth step size.
-		array = new byte[copy.length + growthStepSize];
+		if (length < required || length < 0) length = required;
 		
-		// Copy the previous elements of `array` (currently stored in `copy`) to the new `array` array.
-		System.arraycopy(copy, 0, array, 0, copy.length);
+		resize(length);
 		
 	}
 	
-	private synchronized void resizeDown() {
+	private void resize(int length) {
 		
-		// Store a copy of the array in `copy`.
-		byte[] copy = array;
+		byte[] copy = new byte[length];
 		
-		// Reset `array` to an array of it's previous size, minus the growth step size.
-		array = new byte[copy.length - growthStepSize];
+		// Copy the previous elements of `array` to the new array.
+		System.arraycopy(array, 0, copy, 0, index);
 		
-		// Copy the previous elements of `array` (currently stored in `copy`) to the new `array` array.
-		System.arraycopy(copy, 0, array, 0, copy.length - growthStepSize);
+		array = copy;
 		
 	}
 	
-	public synchronized void add(byte b) {
+	public void add(byte b) {
+		
+		checkWritable();
 		
 		// If the current array is not large enough for the new element, call `resizeUp()`.
-		if ((index + 1) > array.length) resizeUp();
+		if (index == array.length) resizeUp(index + 1);
 		
 		// Store the new element at the active index of the array.
 		array[index] = b;
 		
 		// Move the index to the new appropriate position.
 		index++;
+		
+	}
 	
+	public void add(ByteList b) {
+		
+		add(b.array, b.offset, b.index);
+		
 	}
 	
-	public synchronized void add(ByteList b) {
+	public void add(byte[] bytes) {
 		
-		// If the current array is not large enough for the new elements, call `resizeUp()`.
-		if ((index + b.size()) > array.length) resizeUp();
+		add(bytes, 0, bytes.length);
 		
-		// Store the new elements at the active index of the array.
-		for (int index = 0; index < b.size(); index++) {
-			
-			// Store the nth element of b at the this.nth index of the array.
-			array[this.index] = b.get(index);
-			
-			// Move the index to the new appropriate position.
-			this.index++;
+	}
+	
+	public void add(byte[] bytes, int off, int len) {
 		
-		}
+		checkWritable();
+		
+		if (off < 0 || len < 0 || off + len > bytes.length) throw new IndexOutOfBoundsException("Attempted to add " + len + " bytes from offset " + off + " of an array of length " + bytes.length + ".");
+		
+		if (index + len > array.length) resizeUp(index + len);
+		
+		System.arraycopy(bytes, off, array, index, len);
+		index += len;
 		
 	}
 	
-	public synchronized byte remove(int index) throws IndexOutOfBoundsException {
+	/**
+	 * Appends every byte between a buffer's position and its limit, advancing the buffer's position to its limit.
+	 *
+	 * @param buffer The buffer to read from.
+	 */
+	public void add(ByteBuffer buffer) {
 		
-		if (index >= this.index) throw new IndexOutOfBoundsException("Attempted to remove index " + index + ", which is beyond the greatest index of " + (this.index - 1) + ".");
+		checkWritable();
+		
+		int len = buffer.remaining();
+		
+		if (index + len > array.length) resizeUp(index + len);
+		
+		buffer.get(array, index, len);
+		index += len;
+		
+	}
+	
+	public byte remove(int index) throws IndexOutOfBoundsException {
+		
+		checkWritable();
+		
+		if (index < 0 || index >= this.index) throw new IndexOutOfBoundsException("Attempted to remove index " + index + ", which is beyond the greatest index of " + (this.index - 1) + ".");
 		
 		byte returned = array[index];
-		byte[] copy = new byte[this.index - (index + 1)];
-		System.arraycopy(array, index + 1, copy, 0, copy.length);
+		System.arraycopy(array, index + 1, array, index, this.index - (index + 1));
 		this.index--;
-		System.arraycopy(copy, 0, array, index, copy.length);
 		
-		if (this.index <= (array.length - growthStepSize)) resizeDown();
+		// Shrink only once the list is well below its capacity, so that alternating adds and removes do not thrash.
+		if (array.length > 16 && this.index <= (array.length >> 2)) resize(array.length >> 1);
 		
 		return returned;
 		
 	}
 	
-	public synchronized void insert(int index, byte b) {
-	
-	
+	public void insert(int index, byte b) {
+		
+		checkWritable();
+		
+		if (index < 0 || index > this.index) throw new IndexOutOfBoundsException("Attempted to insert at index " + index + " of a ByteList of size " + this.index + ".");
+		
+		if (this.index == array.length) resizeUp(this.index + 1);
+		
+		System.arraycopy(array, index, array, index + 1, this.index - index);
+		array[index] = b;
+		this.index++;
+		
+	}
 	
+	/**
+	 * Removes every byte from this list, keeping its backing array so that it can be refilled without growing.
+	 */
+	public void clear() {
+		
+		checkWritable();
+		
+		index = 0;
+		
 	}
 	
 	public int size() {
@@ -196,15 +310,86 @@ public class ByteList implements Iterable<Byte> {
 		
 	}
 	
+	/**
+	 * Returns a read-only view of part of this list, without copying it.
+	 *
+	 * @param i1 The index of the first byte of the view.
+	 * @param i2 The index after the last byte of the view.
+	 * @return A read-only ByteList backed by this list's array.
+	 */
+	public ByteList slice(int i1, int i2) {
+		
+		checkRange(i1, i2);
+		
+		return new ByteList(array, offset + i1, i2 - i1);
+		
+	}
+	
+	/**
+	 * Returns a read-only {@link ByteBuffer} view of this list, positioned at its first byte and limited at its size,
+	 * without copying it.
+	 *
+	 * @return A read-only ByteBuffer backed by this list's array.
+	 */
+	public ByteBuffer asByteBuffer() {
+		
+		return ByteBuffer.wrap(array, offset, index).slice().asReadOnlyBuffer();
+		
+	}
+	
+	/**
+	 * Returns a copy of the bytes in this list.
+	 *
+	 * @return A new array holding exactly this list's bytes.
+	 */
+	public byte[] toArray() {
+		
+		byte[] copy = new byte[index];
+		System.arraycopy(array, offset, copy, 0, index);
+		
+		return copy;
+		
+	}
+	
+	/**
+	 * Returns a cursor over the bytes of this list, which yields primitive bytes rather than boxing them.
+	 *
+	 * @return A cursor positioned before the first byte of this list.
+	 */
+	public ByteList.Cursor cursor() {
+		
+		return new ByteList.Cursor();
+		
+	}
+	
+	public boolean isReadOnly() {
+		
+		return readOnly;
+		
+	}
+	
+	private void checkWritable() {
+		
+		if (readOnly) throw new UnsupportedOperationException("Attempted to modify a read-only ByteList.");
+		
+	}
+	
+	private void checkRange(int i1, int i2) {
+		
+		if (i1 < 0 || i2 > index || i1 > i2) throw new IndexOutOfBoundsException("Illegal range [" + i1 + ", " + i2 + ") of a ByteList of size " + index + ".");
+		
+	}
+	
 	public String getDebugInfo() {
 		
 		String info = "";
 		
-		info += "array:\t\t\t\t"		+ hrArray(array)			+ System.lineSeparator();
+		info += "array:\t\t\t\t"		+ getArray()				+ System.lineSeparator();
 		info += "reported size:\t\t"	+ size()					+ System.lineSeparator();
 		info += "array.length:\t\t"		+ array.length				+ System.lineSeparator();
 		info += "unused indicies:\t"	+ (array.length - size())	+ System.lineSeparator();
-		info += "growth step:\t\t"		+ growthStepSize;
+		info += "growth step:\t\t"		+ growthStepSize			+ System.lineSeparator();
+		info += "read-only:\t\t\t"		+ readOnly;
 		
 		return info;
 		
@@ -212,55 +397,66 @@ public class ByteList implements Iterable<Byte> {
 	
 	public String getArray() {
 		
-		return hrArray(this.array);
+		StringBuilder s = new StringBuilder("[");
+		
+		for (int i = 0; i < index; i++) {
+			
+			if (i > 0) s.append(", ");
+			s.append(hrByte(array[offset + i]));
+			
+		}
+		
+		return s.append("]").toString();
 		
 	}
 	
 	public static String hrArray(byte[] bytes) {
 		
-		String s = "[";
+		StringBuilder s = new StringBuilder("[");
 		
-		for (int i = 0; i < bytes.length - 1; i++) {
+		for (int i = 0; i < bytes.length; i++) {
 			
-			s += hrByte(bytes[i]) + ", ";
+			if (i > 0) s.append(", ");
+			s.append(hrByte(bytes[i]));
 			
 		}
 		
-		s += hrByte(bytes[bytes.length - 1]) + "]";
-		
-		return s;
+		return s.append("]").toString();
 		
 	}
 	
 	public static int hrByte(byte b) {
 		
-		if (b < 0) {
-			
-			return -(-128 - (b + 128));
-			
-		} else {
-			
-			return b;
-			
-		}
+		return b & 0xFF;
 		
 	}
 	
-	@Override
-	public Iterator<Byte> iterator() { // This is nasty and probably grossly inefficient. If only Java supported primitively typed generics.
+	/**
+	 * A forward-only cursor over the bytes of a ByteList.
+	 */
+	public class Cursor {
 		
-		ArrayList<Byte> arrayList = new ArrayList<>();
+		private int position = 0;
 		
-		byte[] copy = new byte[index];
-		System.arraycopy(array, 0, copy, 0, index);
+		public boolean hasNext() {
+			
+			return position < index;
+			
+		}
 		
-		for (byte b: copy) {
+		public byte next() {
 			
-			arrayList.add(b);
+			if (position >= index) throw new NoSuchElementException();
+			
+			return array[offset + position++];
 			
 		}
 		
-		return arrayList.iterator();
+		public int position() {
+			
+			return position;
+			
+		}
 		
 	}
 	
@@ -0,0 +1,155 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A pool of raw (headerless) {@link Deflater}s and {@link Inflater}s.
+ * <p>
+ * Each instance holds native zlib state that is slow to set up and is only freed once it is ended, so rather than
+ * being created for every message they are leased with {@link #leaseDeflater(int)} and {@link #leaseInflater()}, and
+ * reset and handed back once they are no longer needed. Instances beyond the pool's capacity are ended on release.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class DeflatePool {
+	
+	private static final DeflatePool DEFAULT = new DeflatePool(64);
+	
+	/**
+	 * The number of instances of each kind that this pool may hold.
+	 */
+	private final int capacity;
+	
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicInteger deflaterCount = new AtomicInteger();
+	
+	private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicInteger inflaterCount = new AtomicInteger();
+	
+	public DeflatePool(int capacity) {
+		
+		if (capacity < 0) throw new IllegalArgumentException("Illegal pool capacity: " + capacity);
+		
+		this.capacity = capacity;
+		
+	}
+	
+	/**
+	 * Returns the pool shared by every part of CaffeineSocket that has not been given a pool of its own.
+	 *
+	 * @return The default pool.
+	 */
+	public static DeflatePool getDefault() {
+		
+		return DEFAULT;
+		
+	}
+	
+	/**
+	 * Leases a raw deflater, set to the requested compression level.
+	 *
+	 * @param level The compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}.
+	 * @return A deflater that should be handed back with {@link #releaseDeflater(Deflater)}.
+	 */
+	public Deflater leaseDeflater(int level) {
+		
+		Deflater deflater = deflaters.poll();
+		
+		if (deflater == null) return new Deflater(level, true);
+		
+		deflaterCount.decrementAndGet();
+		deflater.setLevel(level);
+		
+		return deflater;
+		
+	}
+	
+	/**
+	 * Resets a deflater and hands it back to the pool, or ends it if the pool is full.
+	 *
+	 * @param deflater A deflater leased from this pool.
+	 */
+	public void releaseDeflater(Deflater deflater) {
+		
+		if (deflater == null) return;
+		
+		deflater.reset();
+		
+		if (deflaterCount.incrementAndGet() <= capacity) {
+			
+			deflaters.offer(deflater);
+			
+		} else {
+			
+			deflaterCount.decrementAndGet();
+			deflater.end();
+			
+		}
+		
+	}
+	
+	/**
+	 * Leases a raw inflater.
+	 *
+	 * @return An inflater that should be handed back with {@link #releaseInflater(Inflater)}.
+	 */
+	public Inflater leaseInflater() {
+		
+		Inflater inflater = inflaters.poll();
+		
+		if (inflater == null) return new Inflater(true);
+		
+		inflaterCount.decrementAndGet();
+		
+		return inflater;
+		
+	}
+	
+	/**
+	 * Resets an inflater and hands it back to the pool, or ends it if the pool is full.
+	 *
+	 * @param inflater An inflater leased from this pool.
+	 */
+	public void releaseInflater(Inflater inflater) {
+		
+		if (inflater == null) return;
+		
+		inflater.reset();
+		
+		if (inflaterCount.incrementAndGet() <= capacity) {
+			
+			inflaters.offer(inflater);
+			
+		} else {
+			
+			inflaterCount.decrementAndGet();
+			inflater.end();
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,261 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import javax.management.ConstructorParameters;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds that any number of threads may record to at once, without locking or
+ * allocating.
+ * <p>
+ * Durations are counted in log-linear buckets, in the manner of an HDR histogram: values below
+ * {@link #SUB_BUCKET_COUNT} each have a bucket of their own, and every power of two above that is split into
+ * {@link #SUB_BUCKET_COUNT} / 2 buckets of equal width. Every recorded duration is therefore reported to within
+ * 1 / 64 of its value, whatever its magnitude, with a fixed {@value #BUCKET_COUNT} buckets.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class LatencyHistogram {
+	
+	private static final int SUB_BUCKET_BITS = 7;
+	
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+	
+	/**
+	 * Enough buckets for any positive long: the linear buckets, then half as many again for each power of two from
+	 * 2^{@value #SUB_BUCKET_BITS} to 2^62.
+	 */
+	static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	
+	private final LongAdder count = new LongAdder();
+	
+	private final LongAdder sum = new LongAdder();
+	
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Records a single duration. Negative durations, which only a misbehaving clock could produce, are counted as zero.
+	 *
+	 * @param nanos The duration, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		
+		if (nanos < 0) nanos = 0;
+		
+		buckets.incrementAndGet(indexOf(nanos));
+		count.increment();
+		sum.add(nanos);
+		
+		long current;
+		
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos));
+		
+	}
+	
+	/**
+	 * Returns the number of durations recorded so far.
+	 *
+	 * @return The number of recorded durations.
+	 */
+	public long getCount() {
+		
+		return count.sum();
+		
+	}
+	
+	/**
+	 * Summarises the durations recorded so far. Durations recorded while the snapshot is taken may or may not be
+	 * included.
+	 *
+	 * @param unit The unit in which the snapshot's durations are given.
+	 * @return The summary.
+	 */
+	public Snapshot snapshot(TimeUnit unit) {
+		
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		
+		for (int i = 0; i < BUCKET_COUNT; i++) total += counts[i] = buckets.get(i);
+		
+		if (total == 0) return new Snapshot(0, 0, 0, 0, 0, 0, 0);
+		
+		long max = this.max.get();
+		long[] percentiles = percentiles(counts, total, max, 0.5, 0.9, 0.99, 0.999);
+		double mean = (double) sum.sum() / Math.max(1, count.sum()) / unit.toNanos(1);
+		
+		return new Snapshot(total, mean, unit.convert(percentiles[0], TimeUnit.NANOSECONDS), unit.convert(percentiles[1], TimeUnit.NANOSECONDS), unit.convert(percentiles[2], TimeUnit.NANOSECONDS), unit.convert(percentiles[3], TimeUnit.NANOSECONDS), unit.convert(max, TimeUnit.NANOSECONDS));
+		
+	}
+	
+	/**
+	 * Finds the durations at or below which the given fractions of the recorded durations fall.
+	 *
+	 * @param counts The count of each bucket.
+	 * @param total The sum of the counts.
+	 * @param max The longest duration recorded, which no percentile may exceed.
+	 * @param fractions The fractions, in ascending order.
+	 * @return The greatest duration that each fraction's bucket can hold, in nanoseconds.
+	 */
+	private static long[] percentiles(long[] counts, long total, long max, double... fractions) {
+		
+		long[] values = new long[fractions.length];
+		long seen = 0;
+		int bucket = 0;
+		
+		for (int i = 0; i < fractions.length; i++) {
+			
+			long rank = Math.max(1, (long) Math.ceil(fractions[i] * total));
+			
+			while (seen + counts[bucket] < rank) seen += counts[bucket++];
+			
+			values[i] = Math.min(highestValueIn(bucket), max);
+			
+		}
+		
+		return values;
+		
+	}
+	
+	/**
+	 * Returns the index of the bucket that counts the given value.
+	 *
+	 * @param value A non-negative value.
+	 * @return The bucket's index.
+	 */
+	static int indexOf(long value) {
+		
+		if (value < SUB_BUCKET_COUNT) return (int) value;
+		
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		int subBucket = (int) (value >>> shift);
+		
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+		
+	}
+	
+	/**
+	 * Returns the greatest value that the bucket at the given index counts.
+	 *
+	 * @param index The bucket's index.
+	 * @return The greatest value in the bucket.
+	 */
+	static long highestValueIn(int index) {
+		
+		if (index < SUB_BUCKET_COUNT) return index;
+		
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+		long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+		
+		return ((subBucket + 1) << shift) - 1;
+		
+	}
+	
+	/**
+	 * A summary of the durations in a {@link LatencyHistogram} at the time it was taken, in whichever unit it was asked
+	 * for. Each percentile is the greatest duration that could have been counted in its bucket, and so overstates the
+	 * true percentile by no more than the histogram's precision.
+	 */
+	public static class Snapshot {
+		
+		private final long count;
+		
+		private final double mean;
+		
+		private final long p50;
+		
+		private final long p90;
+		
+		private final long p99;
+		
+		private final long p999;
+		
+		private final long max;
+		
+		@ConstructorParameters({"count", "mean", "p50", "p90", "p99", "p999", "max"})
+		public Snapshot(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+			
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+			
+		}
+		
+		public long getCount() {
+			
+			return count;
+			
+		}
+		
+		public double getMean() {
+			
+			return mean;
+			
+		}
+		
+		public long getP50() {
+			
+			return p50;
+			
+		}
+		
+		public long getP90() {
+			
+			return p90;
+			
+		}
+		
+		public long getP99() {
+			
+			return p99;
+			
+		}
+		
+		public long getP999() {
+			
+			return p999;
+			
+		}
+		
+		public long getMax() {
+			
+			return max;
+			
+		}
+		
+		@Override
+		public String toString() {
+			
+			return "count=" + count + ", mean=" + mean + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99 + ", p999=" + p999 + ", max=" + max;
+			
+		}
+		
+	}
+	
+}
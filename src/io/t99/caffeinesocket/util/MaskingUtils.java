@@ -0,0 +1,115 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Masks and unmasks WebSocket payloads in place, as described in
+ * <a href="https://tools.ietf.org/html/rfc6455#section-5.3">[RFC6455] Section 5.3</a>. As masking is a plain XOR,
+ * the same operation both masks and unmasks.
+ * <p>
+ * Payloads are processed eight bytes at a time against a masking key replicated across a <code>long</code>. When the
+ * <code>jdk.incubator.vector</code> module is present (i.e. the JVM was started with
+ * <code>--add-modules jdk.incubator.vector</code>), heap and direct buffers alike are instead processed a full SIMD
+ * register at a time by {@link VectorMaskingUtils}. Direct buffers matter most, as every buffer leased from a
+ * {@link BufferPool}, and so every payload that is sent or received, is one. Runtimes from Java 19 on only offer the
+ * Vector API on memory segments, which CaffeineSocket does not build against, and so mask direct buffers eight bytes
+ * at a time.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class MaskingUtils {
+	
+	/**
+	 * Whether or not the Vector API is available to this JVM.
+	 */
+	private static final boolean VECTOR_API_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	
+	private static volatile boolean vectorized = VECTOR_API_AVAILABLE;
+	
+	/**
+	 * XORs the bytes between a buffer's position and limit with a masking key, without moving the buffer's position.
+	 *
+	 * @param buffer The bytes to mask or unmask.
+	 * @param maskingKey The masking key, with the first octet of the key in the most significant byte.
+	 * @param offset The offset of the buffer's first byte within the payload, which determines the octet of the
+	 *               masking key that it is XORed with.
+	 */
+	public static void mask(ByteBuffer buffer, int maskingKey, long offset) {
+		
+		int index = buffer.position();
+		int limit = buffer.limit();
+		
+		// Rotate the key so that its most significant byte lines up with the buffer's first byte.
+		int key = Integer.rotateLeft(maskingKey, (int) (offset & 3) << 3);
+		
+		if (vectorized && buffer.hasArray()) {
+			
+			index = VectorMaskingUtils.mask(buffer.array(), buffer.arrayOffset() + index, buffer.arrayOffset() + limit, key) - buffer.arrayOffset();
+			
+		} else if (vectorized && buffer.isDirect() && VectorMaskingUtils.BUFFERS_SUPPORTED) {
+			
+			index = VectorMaskingUtils.mask(buffer, index, limit, key);
+			
+		}
+		
+		if (limit - index >= 8) {
+			
+			long replicatedKey = ((key & 0xFFFFFFFFL) << 32) | (key & 0xFFFFFFFFL);
+			if (buffer.order() == ByteOrder.LITTLE_ENDIAN) replicatedKey = Long.reverseBytes(replicatedKey);
+			
+			for (; index + 8 <= limit; index += 8) {
+				
+				buffer.putLong(index, buffer.getLong(index) ^ replicatedKey);
+				
+			}
+			
+		}
+		
+		// Every step above covers a multiple of four bytes, so the tail still lines up with the start of the key.
+		for (int octet = 0; index < limit; index++, octet++) {
+			
+			buffer.put(index, (byte) (buffer.get(index) ^ (key >>> (24 - (octet << 3)))));
+			
+		}
+		
+	}
+	
+	/**
+	 * Enables or disables the Vector API masking path.
+	 *
+	 * @param bool Whether or not to use the Vector API when it is available.
+	 * @return true if the Vector API path is now in use.
+	 */
+	public static boolean setVectorized(boolean bool) {
+		
+		vectorized = bool && VECTOR_API_AVAILABLE;
+		
+		return vectorized;
+		
+	}
+	
+	public static boolean getVectorized() {
+		
+		return vectorized;
+		
+	}
+	
+}
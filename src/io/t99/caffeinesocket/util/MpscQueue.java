@@ -0,0 +1,120 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded, lock-free, multi-producer single-consumer queue.
+ * <p>
+ * The queue is intrusive: its elements are themselves the links of the queue, so offering an element allocates
+ * nothing. Any number of threads may {@link #offer(Node)} at once, each with a single atomic swap, but only one thread
+ * at a time may {@link #poll()} or {@link #peek()}. An element may only ever be offered once.
+ * <p>
+ * A producer links its element in after swapping it into the tail, so for an instant the consumer may see the queue
+ * end early, before an element that has already been offered. Producers that need the consumer to see their elements
+ * must therefore signal it only once {@link #offer(Node)} has returned.
+ *
+ * @param <E> The type of the elements.
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class MpscQueue<E extends MpscQueue.Node> {
+	
+	/**
+	 * The most recently offered element, or the consumer's current sentinel if none are queued. Swapped by producers.
+	 */
+	private final AtomicReference<Node> tail;
+	
+	/**
+	 * The sentinel preceding the oldest queued element: either a node of no value of its own, or the element that was
+	 * most recently polled. Only ever touched by the consumer.
+	 */
+	private Node head;
+	
+	public MpscQueue() {
+		
+		head = new Node();
+		tail = new AtomicReference<>(head);
+		
+	}
+	
+	/**
+	 * Adds an element to the tail of the queue. May be called by any thread.
+	 *
+	 * @param element The element, which must never have been offered before.
+	 */
+	public void offer(E element) {
+		
+		Node previous = tail.getAndSet(element);
+		previous.next = element;
+		
+	}
+	
+	/**
+	 * Removes the element at the head of the queue. Must only be called by the consumer.
+	 *
+	 * @return The oldest element, or null if there are none.
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		
+		Node next = head.next;
+		
+		if (next == null) return null;
+		
+		// The polled element becomes the new sentinel, which lets go of the one before it.
+		head.next = null;
+		head = next;
+		
+		return (E) next;
+		
+	}
+	
+	/**
+	 * Returns the element at the head of the queue without removing it. Must only be called by the consumer.
+	 *
+	 * @return The oldest element, or null if there are none.
+	 */
+	@SuppressWarnings("unchecked")
+	public E peek() {
+		
+		return (E) head.next;
+		
+	}
+	
+	/**
+	 * Returns whether or not the queue holds any elements. Must only be called by the consumer.
+	 *
+	 * @return true if there is no element for the consumer to poll.
+	 */
+	public boolean isEmpty() {
+		
+		return head.next == null;
+		
+	}
+	
+	/**
+	 * The link of a single element. Classes of element extend this class.
+	 */
+	public static class Node {
+		
+		private volatile Node next;
+		
+	}
+	
+}
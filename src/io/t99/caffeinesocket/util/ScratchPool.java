@@ -0,0 +1,100 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Scratch objects, such as arrays and encoders, that are only ever needed for the length of a single call.
+ * <p>
+ * Platform threads each keep one of their own in a {@link ThreadLocal}, which is never handed back. Virtual threads
+ * instead lease one from a small shared pool and hand it back once they are done with it, as there may be a virtual
+ * thread for each of a great many connections, and whatever one keeps for itself is lost when it exits. Objects beyond
+ * the pool's capacity are left to the garbage collector on release.
+ *
+ * @param <T> The type of the scratch objects.
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class ScratchPool<T> {
+	
+	private final Supplier<T> factory;
+	
+	/**
+	 * The number of objects that the pool for virtual threads may hold.
+	 */
+	private final int capacity;
+	
+	private final ThreadLocal<T> local;
+	
+	private final Queue<T> shared = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicInteger sharedCount = new AtomicInteger();
+	
+	/**
+	 * @param factory Creates a new scratch object.
+	 * @param capacity The number of objects that the pool for virtual threads may hold.
+	 */
+	public ScratchPool(Supplier<T> factory, int capacity) {
+		
+		if (factory == null) throw new IllegalArgumentException("Factory may not be null.");
+		if (capacity < 0) throw new IllegalArgumentException("Illegal pool capacity: " + capacity);
+		
+		this.factory = factory;
+		this.capacity = capacity;
+		
+		local = ThreadLocal.withInitial(factory);
+		
+	}
+	
+	/**
+	 * Leases a scratch object, which must not be used once it has been handed back with {@link #release(Object)}.
+	 *
+	 * @return The calling thread's own object on a platform thread, or otherwise one that no other thread is using.
+	 */
+	public T lease() {
+		
+		if (!VirtualThreads.isCurrentVirtual()) return local.get();
+		
+		T scratch = shared.poll();
+		
+		if (scratch == null) return factory.get();
+		
+		sharedCount.decrementAndGet();
+		
+		return scratch;
+		
+	}
+	
+	/**
+	 * Hands back a scratch object leased by the calling thread. Does nothing on a platform thread, which keeps its own.
+	 *
+	 * @param scratch An object leased from this pool.
+	 */
+	public void release(T scratch) {
+		
+		if (scratch == null || !VirtualThreads.isCurrentVirtual()) return;
+		
+		if (sharedCount.incrementAndGet() <= capacity) shared.offer(scratch);
+		else sharedCount.decrementAndGet();
+		
+	}
+	
+}
@@ -0,0 +1,185 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time, in the order in which they were submitted, on the threads of another, possibly shared,
+ * {@link Executor}.
+ * <p>
+ * Tasks are queued on an {@link MpscQueue}, and a count of queued tasks decides which submitter hands the queue to the
+ * underlying executor: only the one that finds it empty. No lock is held at any point. Whichever thread the executor
+ * lends runs queued tasks until none are left, and the next submission hands the queue over again. After a batch of
+ * {@link #BATCH_SIZE} tasks the thread is given back and the remainder resubmitted, so that one busy queue cannot keep
+ * a thread of a shared executor from every other.
+ * <p>
+ * A queue that is counted as handed over but that the executor never runs is stranded: every later submission sees a
+ * non-zero count, and leaves the queue to a thread that will never come. Neither kind of refusal is therefore let to
+ * leave the count standing. If the resubmission of the remainder is refused, the thread that has been running the
+ * queue keeps it, and runs on until it is empty or a resubmission is accepted. If the first hand-over is refused, the
+ * queue is emptied and the refusal passed on to the submitter, so that the next submission hands it over afresh.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class SerialExecutor implements Executor {
+	
+	/**
+	 * The number of tasks run on a thread of the underlying executor before it is given back. Set to 64.
+	 */
+	public static final int BATCH_SIZE = 64;
+	
+	private final Executor executor;
+	
+	private final MpscQueue<SerialExecutor.Task> tasks = new MpscQueue<>();
+	
+	/**
+	 * The number of tasks submitted but not yet run. Incremented only once a task has been offered, so that whoever
+	 * sees a task counted will find it queued, if only once every task offered before it has been linked in.
+	 */
+	private final AtomicInteger pending = new AtomicInteger();
+	
+	private final Runnable runner = this::run;
+	
+	/**
+	 * @param executor The executor whose threads the tasks are run on.
+	 */
+	public SerialExecutor(Executor executor) {
+		
+		if (executor == null) throw new IllegalArgumentException("Executor may not be null.");
+		
+		this.executor = executor;
+		
+	}
+	
+	/**
+	 * Queues a task to be run once every task submitted before it has run. Never blocks, and never runs the task on the
+	 * calling thread.
+	 *
+	 * @param task The task.
+	 * @throws RejectedExecutionException If the underlying executor refused to run the queue, in which case this task,
+	 *                                    along with any that other threads submitted while it was being refused, is
+	 *                                    discarded.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		
+		if (task == null) throw new NullPointerException("Task may not be null.");
+		
+		tasks.offer(new SerialExecutor.Task(task));
+		
+		if (pending.getAndIncrement() != 0) return;
+		
+		try {
+			
+			executor.execute(runner);
+			
+		} catch (RejectedExecutionException e) {
+			
+			// The count says that the queue has been handed over, so only this thread may take tasks from it.
+			do next(); while (pending.decrementAndGet() != 0);
+			
+			throw e;
+			
+		}
+		
+	}
+	
+	/**
+	 * Returns the number of tasks submitted that have yet to finish running.
+	 *
+	 * @return The number of pending tasks.
+	 */
+	public int getPending() {
+		
+		return pending.get();
+		
+	}
+	
+	private void run() {
+		
+		while (true) {
+			
+			for (int ran = 0; ran < BATCH_SIZE; ran++) {
+				
+				SerialExecutor.Task task = next();
+				
+				try {
+					
+					task.task.run();
+					
+				} catch (RuntimeException e) {
+					
+					// A failing task is its submitter's concern, and must not strand the tasks queued behind it.
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+					
+				}
+				
+				if (pending.decrementAndGet() == 0) return;
+				
+			}
+			
+			try {
+				
+				executor.execute(runner);
+				return;
+				
+			} catch (RejectedExecutionException e) {
+				
+				// The thread is kept for another batch rather than the remainder being stranded.
+				
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Takes the oldest task from the queue. Must only be called by the thread that the queue has been handed to, and only
+	 * while the count says that a task is pending. The count only promises that a task is coming, not that it has been
+	 * linked in: a task offered earlier by another thread may not yet be visible, in which case its submitter is waited
+	 * out, which only ever takes a few instructions.
+	 *
+	 * @return The oldest task.
+	 */
+	private SerialExecutor.Task next() {
+		
+		SerialExecutor.Task task;
+		
+		while ((task = tasks.poll()) == null) Thread.onSpinWait();
+		
+		return task;
+		
+	}
+	
+	private static class Task extends MpscQueue.Node {
+		
+		private final Runnable task;
+		
+		private Task(Runnable task) {
+			
+			this.task = task;
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,399 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.CaffeineSocket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timing wheel, which runs tasks after a delay on a single thread: either a thread of its own, or a thread that
+ * drives the wheel by calling {@link #advance()} between its other work.
+ * <p>
+ * Time is divided into ticks, and the wheel into a fixed number of buckets, each holding the timeouts that fall due on
+ * the ticks that map to it. Scheduling and cancelling a timeout are both constant-time and allocate nothing beyond the
+ * timeout itself, which makes the wheel suited to holding a timeout for every one of a great many connections, at the
+ * cost of tasks running up to a tick later than asked.
+ * <p>
+ * Newly scheduled timeouts are handed to the wheel's thread through an {@link MpscQueue}, so that scheduling never
+ * blocks. Cancelled timeouts let go of their task straight away, and are unlinked once the wheel next reaches their
+ * bucket.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class TimingWheel implements Runnable {
+	
+	private static final TimingWheel DEFAULT = new TimingWheel(100, TimeUnit.MILLISECONDS, 512);
+	
+	private final long tickNanos;
+	
+	/**
+	 * The buckets of the wheel, each the head of a doubly-linked list of timeouts. Only ever touched by the wheel's
+	 * thread.
+	 */
+	private final TimingWheel.Timeout[] buckets;
+	
+	private final int mask;
+	
+	/**
+	 * Timeouts that have been scheduled, but not yet placed into a bucket.
+	 */
+	private final MpscQueue<TimingWheel.Timeout> scheduled = new MpscQueue<>();
+	
+	/**
+	 * The time from which deadlines are measured.
+	 */
+	private final long startTime = System.nanoTime();
+	
+	/**
+	 * The wheel's own thread, or null if the wheel is driven through {@link #advance()}.
+	 */
+	private final Thread thread;
+	
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	
+	private volatile boolean isRunning;
+	
+	/**
+	 * The number of ticks that have passed since the {@link #startTime}. Only ever touched by the wheel's thread.
+	 */
+	private long tick;
+	
+	/**
+	 * Creates a wheel whose thread is started once the first timeout is scheduled.
+	 *
+	 * @param tickDuration The length of a tick, which is the precision of the wheel.
+	 * @param unit The unit of <code>tickDuration</code>.
+	 * @param bucketCount The number of buckets, rounded up to a power of two. A wheel turns once every
+	 *                    <code>bucketCount</code> ticks, and timeouts further off than that wait out whole turns.
+	 */
+	public TimingWheel(long tickDuration, TimeUnit unit, int bucketCount) {
+		
+		this(tickDuration, unit, bucketCount, true);
+		
+	}
+	
+	/**
+	 * Creates a wheel that either runs on a thread of its own, started once the first timeout is scheduled, or is
+	 * driven by another thread's calls to {@link #advance()}, on which its tasks are then run.
+	 *
+	 * @param tickDuration The length of a tick, which is the precision of the wheel.
+	 * @param unit The unit of <code>tickDuration</code>.
+	 * @param bucketCount The number of buckets, rounded up to a power of two.
+	 * @param ownThread Whether or not the wheel runs on a thread of its own.
+	 */
+	public TimingWheel(long tickDuration, TimeUnit unit, int bucketCount, boolean ownThread) {
+		
+		if (tickDuration <= 0) throw new IllegalArgumentException("Illegal tick duration: " + tickDuration);
+		if (bucketCount <= 0 || bucketCount > 1 << 30) throw new IllegalArgumentException("Illegal bucket count: " + bucketCount);
+		
+		tickNanos = unit.toNanos(tickDuration);
+		int size = 1;
+		
+		while (size < bucketCount) size <<= 1;
+		
+		buckets = new TimingWheel.Timeout[size];
+		mask = buckets.length - 1;
+		
+		if (ownThread) {
+			
+			thread = new Thread(this, "caffeinesocket-timer");
+			thread.setDaemon(true);
+			
+		} else {
+			
+			thread = null;
+			
+		}
+		
+	}
+	
+	/**
+	 * Returns the wheel shared by every part of CaffeineSocket that has not been given a wheel of its own. Ticks every
+	 * 100 milliseconds, and turns once every 51.2 seconds.
+	 *
+	 * @return The default wheel.
+	 */
+	public static TimingWheel getDefault() {
+		
+		return DEFAULT;
+		
+	}
+	
+	/**
+	 * Schedules a task to be run once, on the wheel's thread, after a delay. May be called from any thread. Tasks should return quickly, as every
+	 * other task that falls due waits on them.
+	 *
+	 * @param task The task to run.
+	 * @param delay The time to wait before running the task.
+	 * @param unit The unit of <code>delay</code>.
+	 * @return The timeout, through which the task may be cancelled.
+	 */
+	public TimingWheel.Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		
+		if (task == null) throw new IllegalArgumentException("Task may not be null.");
+		
+		if (thread != null && started.compareAndSet(false, true)) {
+			
+			isRunning = true;
+			thread.start();
+			
+		}
+		
+		TimingWheel.Timeout timeout = new TimingWheel.Timeout(task, System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay)));
+		
+		scheduled.offer(timeout);
+		
+		return timeout;
+		
+	}
+	
+	/**
+	 * Stops the wheel's thread. Timeouts that have not yet expired never will.
+	 */
+	public void stop() {
+		
+		isRunning = false;
+		
+		if (thread != null) thread.interrupt();
+		
+	}
+	
+	/**
+	 * Runs the tasks of every timeout that has fallen due since the last call, for a wheel without a thread of its own.
+	 * Must only ever be called by the one thread that drives the wheel, which should call it at least once a tick.
+	 *
+	 * @return The number of nanoseconds until the next tick ends, and this should next be called.
+	 */
+	public long advance() {
+		
+		if (thread != null) throw new IllegalStateException("This wheel runs on a thread of its own.");
+		
+		long now = System.nanoTime() - startTime;
+		
+		while ((tick + 1) * tickNanos <= now) {
+			
+			transferScheduled();
+			expire((int) (tick & mask));
+			
+			tick++;
+			
+		}
+		
+		return (tick + 1) * tickNanos - now;
+		
+	}
+	
+	@Override
+	public void run() {
+		
+		// Ticks that passed before the wheel was started have nothing in them.
+		tick = (System.nanoTime() - startTime) / tickNanos;
+		
+		while (isRunning) {
+			
+			long deadline = startTime + (tick + 1) * tickNanos;
+			long sleep = deadline - System.nanoTime();
+			
+			if (sleep > 0) {
+				
+				try {
+					
+					TimeUnit.NANOSECONDS.sleep(sleep);
+					
+				} catch (InterruptedException e) {
+					
+					continue;
+					
+				}
+				
+			}
+			
+			transferScheduled();
+			expire((int) (tick & mask));
+			
+			tick++;
+			
+		}
+		
+	}
+	
+	/**
+	 * Places every newly scheduled timeout into the bucket of the tick on which it falls due, or the current tick if it
+	 * is already due.
+	 */
+	private void transferScheduled() {
+		
+		TimingWheel.Timeout timeout;
+		
+		while ((timeout = scheduled.poll()) != null) {
+			
+			if (timeout.isCancelled()) continue;
+			
+			long dueTick = Math.max(timeout.deadline / tickNanos, tick);
+			
+			timeout.remainingRounds = (dueTick - tick) / buckets.length;
+			
+			int index = (int) (dueTick & mask);
+			
+			timeout.nextInBucket = buckets[index];
+			if (buckets[index] != null) buckets[index].previousInBucket = timeout;
+			buckets[index] = timeout;
+			
+		}
+		
+	}
+	
+	/**
+	 * Runs the tasks of every timeout in a bucket that falls due on the current turn of the wheel, and unlinks them along
+	 * with every cancelled timeout.
+	 *
+	 * @param index The index of the bucket.
+	 */
+	private void expire(int index) {
+		
+		TimingWheel.Timeout timeout = buckets[index];
+		
+		while (timeout != null) {
+			
+			TimingWheel.Timeout next = timeout.nextInBucket;
+			
+			if (timeout.isCancelled()) {
+				
+				unlink(index, timeout);
+				
+			} else if (timeout.remainingRounds <= 0) {
+				
+				unlink(index, timeout);
+				timeout.expire();
+				
+			} else {
+				
+				timeout.remainingRounds--;
+				
+			}
+			
+			timeout = next;
+			
+		}
+		
+	}
+	
+	private void unlink(int index, TimingWheel.Timeout timeout) {
+		
+		if (timeout.previousInBucket != null) timeout.previousInBucket.nextInBucket = timeout.nextInBucket;
+		else buckets[index] = timeout.nextInBucket;
+		
+		if (timeout.nextInBucket != null) timeout.nextInBucket.previousInBucket = timeout.previousInBucket;
+		
+		timeout.previousInBucket = null;
+		timeout.nextInBucket = null;
+		
+	}
+	
+	/**
+	 * A task scheduled on a {@link TimingWheel}.
+	 */
+	public static class Timeout extends MpscQueue.Node {
+		
+		private static final int PENDING = 0;
+		
+		private static final int CANCELLED = 1;
+		
+		private static final int EXPIRED = 2;
+		
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		
+		/**
+		 * The task to run, which is let go of once this timeout is cancelled.
+		 */
+		private Runnable task;
+		
+		/**
+		 * The time at which this timeout falls due, relative to the wheel's start time.
+		 */
+		private final long deadline;
+		
+		/**
+		 * The number of further turns of the wheel before this timeout falls due. Only ever touched by the wheel's thread.
+		 */
+		private long remainingRounds;
+		
+		private TimingWheel.Timeout previousInBucket;
+		
+		private TimingWheel.Timeout nextInBucket;
+		
+		private Timeout(Runnable task, long deadline) {
+			
+			this.task = task;
+			this.deadline = deadline;
+			
+		}
+		
+		/**
+		 * Cancels this timeout, so that its task is never run.
+		 *
+		 * @return true if this timeout was cancelled, or false if it had already expired or been cancelled.
+		 */
+		public boolean cancel() {
+			
+			if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+			
+			task = null;
+			
+			return true;
+			
+		}
+		
+		public boolean isCancelled() {
+			
+			return state.get() == CANCELLED;
+			
+		}
+		
+		public boolean isExpired() {
+			
+			return state.get() == EXPIRED;
+			
+		}
+		
+		private void expire() {
+			
+			if (!state.compareAndSet(PENDING, EXPIRED)) return;
+			
+			Runnable task = this.task;
+			
+			this.task = null;
+			
+			try {
+				
+				task.run();
+				
+			} catch (RuntimeException e) {
+				
+				if (CaffeineSocket.getDebug()) System.out.println("A task scheduled on a TimingWheel failed: " + e);
+				
+			}
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,283 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.MalformedInputException;
+import java.util.Arrays;
+
+/**
+ * An incremental decoder for UTF-8 text, which validates its input as strictly as
+ * <a href="https://tools.ietf.org/html/rfc6455#section-8.1">[RFC6455] Section 8.1</a> requires of text messages.
+ * <p>
+ * Text may be fed to the decoder in any number of pieces, split at any byte, so that a message can be decoded as its
+ * fragments and reads arrive. Runs of ASCII are decoded eight bytes at a time. Once every piece has been decoded and
+ * {@link #finish()} has been called, the text can be taken as a {@link String} with {@link #toString()}, or read in
+ * place through the {@link CharSequence} returned by {@link #getText()}.
+ * <p>
+ * A decoder is meant to be reused for the lifetime of a connection, and is not thread-safe.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class Utf8Decoder {
+	
+	/**
+	 * The number of chars that a decoder keeps hold of between messages. Larger buffers are dropped on {@link #reset()}
+	 * so that a single large message does not pin its memory for the remainder of a connection.
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+	
+	private static final long NON_ASCII_MASK = 0x8080808080808080L;
+	
+	private static final char[] EMPTY = new char[0];
+	
+	private char[] chars = EMPTY;
+	
+	/**
+	 * The number of chars decoded so far.
+	 */
+	private int length = 0;
+	
+	/**
+	 * The bits of the code point currently being decoded.
+	 */
+	private int codePoint = 0;
+	
+	/**
+	 * The number of continuation bytes that the current code point still needs.
+	 */
+	private int remaining = 0;
+	
+	/**
+	 * The smallest value that the next continuation byte may take. Narrower than 0x80 only for the byte following a
+	 * lead byte, which is how overlong encodings and surrogates are rejected.
+	 */
+	private int lower = 0x80;
+	
+	/**
+	 * The largest value that the next continuation byte may take. Narrower than 0xBF only for the byte following a lead
+	 * byte, which is how surrogates and code points beyond U+10FFFF are rejected.
+	 */
+	private int upper = 0xBF;
+	
+	/**
+	 * Decodes every byte between a buffer's position and its limit, advancing the buffer's position to its limit.
+	 *
+	 * @param buffer The bytes to decode.
+	 * @throws MalformedInputException If the bytes are not valid UTF-8.
+	 */
+	public void decode(ByteBuffer buffer) throws MalformedInputException {
+		
+		int index = buffer.position();
+		int limit = buffer.limit();
+		
+		// Every byte decodes to at most one char, except for the final byte of a four byte sequence, which decodes to two.
+		ensureCapacity(length + (limit - index) + 1);
+		
+		char[] chars = this.chars;
+		int length = this.length;
+		
+		while (index < limit) {
+			
+			if (remaining == 0) {
+				
+				while (index + 8 <= limit && (buffer.getLong(index) & NON_ASCII_MASK) == 0) {
+					
+					chars[length]		= (char) buffer.get(index);
+					chars[length + 1]	= (char) buffer.get(index + 1);
+					chars[length + 2]	= (char) buffer.get(index + 2);
+					chars[length + 3]	= (char) buffer.get(index + 3);
+					chars[length + 4]	= (char) buffer.get(index + 4);
+					chars[length + 5]	= (char) buffer.get(index + 5);
+					chars[length + 6]	= (char) buffer.get(index + 6);
+					chars[length + 7]	= (char) buffer.get(index + 7);
+					
+					index += 8;
+					length += 8;
+					
+				}
+				
+				if (index == limit) break;
+				
+				int b = buffer.get(index++) & 0xFF;
+				
+				if (b < 0x80) {
+					
+					chars[length++] = (char) b;
+					continue;
+					
+				}
+				
+				if (b < 0xC2) {
+					
+					throw malformed(length);
+					
+				} else if (b < 0xE0) {
+					
+					remaining = 1;
+					codePoint = b & 0x1F;
+					
+				} else if (b < 0xF0) {
+					
+					remaining = 2;
+					codePoint = b & 0x0F;
+					
+					if (b == 0xE0) lower = 0xA0;		// Overlong
+					else if (b == 0xED) upper = 0x9F;	// Surrogates
+					
+				} else if (b < 0xF5) {
+					
+					remaining = 3;
+					codePoint = b & 0x07;
+					
+					if (b == 0xF0) lower = 0x90;		// Overlong
+					else if (b == 0xF4) upper = 0x8F;	// Beyond U+10FFFF
+					
+				} else {
+					
+					throw malformed(length);
+					
+				}
+				
+			} else {
+				
+				int b = buffer.get(index++) & 0xFF;
+				
+				if (b < lower || b > upper) throw malformed(length);
+				
+				codePoint = (codePoint << 6) | (b & 0x3F);
+				lower = 0x80;
+				upper = 0xBF;
+				
+				if (--remaining == 0) {
+					
+					if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+						
+						chars[length++] = (char) codePoint;
+						
+					} else {
+						
+						chars[length++] = Character.highSurrogate(codePoint);
+						chars[length++] = Character.lowSurrogate(codePoint);
+						
+					}
+					
+				}
+				
+			}
+			
+		}
+		
+		this.length = length;
+		buffer.position(limit);
+		
+	}
+	
+	/**
+	 * Verifies that the text decoded so far did not end part way through a character. To be called once the last
+	 * piece of a message has been decoded.
+	 *
+	 * @throws MalformedInputException If the text ended with an incomplete character.
+	 */
+	public void finish() throws MalformedInputException {
+		
+		if (remaining != 0) throw malformed(length);
+		
+	}
+	
+	/**
+	 * Readies this decoder for the next message.
+	 */
+	public void reset() {
+		
+		length = 0;
+		codePoint = 0;
+		remaining = 0;
+		lower = 0x80;
+		upper = 0xBF;
+		
+		if (chars.length > MAX_RETAINED_CAPACITY) chars = EMPTY;
+		
+	}
+	
+	/**
+	 * Discards the text decoded so far, but not a character that has only been partially decoded, so that a message's
+	 * text can be handed over piece by piece as it is decoded.
+	 */
+	public void clearText() {
+		
+		length = 0;
+		
+	}
+	
+	/**
+	 * Returns a read-only view of the text decoded so far, without copying it. The view is only valid until this
+	 * decoder is next used or reset.
+	 *
+	 * @return The decoded text.
+	 */
+	public CharSequence getText() {
+		
+		return CharBuffer.wrap(chars, 0, length).asReadOnlyBuffer();
+		
+	}
+	
+	/**
+	 * Returns the number of chars decoded so far.
+	 *
+	 * @return The length of the decoded text.
+	 */
+	public int length() {
+		
+		return length;
+		
+	}
+	
+	/**
+	 * Returns a copy of the text decoded so far.
+	 *
+	 * @return The decoded text.
+	 */
+	@Override
+	public String toString() {
+		
+		return new String(chars, 0, length);
+		
+	}
+	
+	private void ensureCapacity(int capacity) {
+		
+		if (capacity > chars.length) chars = Arrays.copyOf(chars, Math.max(capacity, Math.min(Integer.MAX_VALUE - 8, chars.length * 2)));
+		
+	}
+	
+	private MalformedInputException malformed(int length) {
+		
+		// Resetting here means that a decoder that was handed invalid text never reports a partial character later on.
+		this.length = length;
+		codePoint = 0;
+		remaining = 0;
+		lower = 0x80;
+		upper = 0xBF;
+		
+		return new MalformedInputException(1);
+		
+	}
+	
+}
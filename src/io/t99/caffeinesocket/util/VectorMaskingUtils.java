@@ -0,0 +1,138 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The Vector API path of {@link MaskingUtils}. This class is only ever loaded once <code>MaskingUtils</code> has
+ * confirmed that the <code>jdk.incubator.vector</code> module is present, and so must be compiled with
+ * <code>--add-modules jdk.incubator.vector</code>.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class VectorMaskingUtils {
+	
+	private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+	
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	
+	/**
+	 * Whether or not vectors can be loaded from and stored to buffers. The methods that do so only exist in the
+	 * incubating API of Java 16 to 18, and were replaced by ones that work on memory segments from Java 19 on.
+	 */
+	static final boolean BUFFERS_SUPPORTED = supportsBuffers();
+	
+	private static boolean supportsBuffers() {
+		
+		try {
+			
+			ByteVector.class.getMethod("fromByteBuffer", VectorSpecies.class, ByteBuffer.class, int.class, ByteOrder.class);
+			ByteVector.class.getMethod("intoByteBuffer", ByteBuffer.class, int.class, ByteOrder.class);
+			
+			return true;
+			
+		} catch (NoSuchMethodException e) {
+			
+			return false;
+			
+		}
+		
+	}
+	
+	/**
+	 * XORs whole vectors' worth of an array with a masking key, stopping before the first partial vector.
+	 *
+	 * @param array The bytes to mask or unmask.
+	 * @param from The index of the first byte to mask, which the most significant byte of the key lines up with.
+	 * @param to The index after the last byte that may be masked.
+	 * @return The index of the first byte that was not masked, which always lines up with the start of the key.
+	 */
+	static int mask(byte[] array, int from, int to, int key) {
+		
+		int length = BYTES.length();
+		
+		if (to - from < length) return from;
+		
+		ByteVector replicatedKey = replicate(key);
+		
+		int index = from;
+		
+		for (; index + length <= to; index += length) {
+			
+			ByteVector.fromArray(BYTES, array, index).lanewise(VectorOperators.XOR, replicatedKey).intoArray(array, index);
+			
+		}
+		
+		return index;
+		
+	}
+	
+	/**
+	 * XORs whole vectors' worth of a buffer with a masking key, stopping before the first partial vector. Used for the
+	 * direct buffers leased from a {@link BufferPool}, which have no array to work on. Must only be called if
+	 * {@link #BUFFERS_SUPPORTED} is set, as the methods it calls are otherwise missing.
+	 *
+	 * @param buffer The bytes to mask or unmask.
+	 * @param from The index of the first byte to mask, which the most significant byte of the key lines up with.
+	 * @param to The index after the last byte that may be masked.
+	 * @return The index of the first byte that was not masked, which always lines up with the start of the key.
+	 */
+	static int mask(ByteBuffer buffer, int from, int to, int key) {
+		
+		int length = BYTES.length();
+		
+		if (to - from < length) return from;
+		
+		ByteVector replicatedKey = replicate(key);
+		
+		// The lanes are single bytes, so the order only has to match between the load and the store.
+		ByteOrder order = ByteOrder.nativeOrder();
+		
+		int index = from;
+		
+		for (; index + length <= to; index += length) {
+			
+			ByteVector.fromByteBuffer(BYTES, buffer, index, order).lanewise(VectorOperators.XOR, replicatedKey).intoByteBuffer(buffer, index, order);
+			
+		}
+		
+		return index;
+		
+	}
+	
+	/**
+	 * Replicates a masking key across a vector, with the most significant byte of the key in the first byte of every
+	 * four.
+	 */
+	private static ByteVector replicate(int key) {
+		
+		// Lanes of an IntVector are laid out in native order when reinterpreted as bytes.
+		int laneKey = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? Integer.reverseBytes(key) : key;
+		
+		return IntVector.broadcast(INTS, laneKey).reinterpretAsBytes();
+		
+	}
+	
+}
@@ -0,0 +1,134 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.CaffeineSocket;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads on runtimes that have them, and platform threads on those that do not.
+ * <p>
+ * Virtual threads are looked up reflectively, through <code>Thread.ofVirtual().factory()</code>, so that CaffeineSocket
+ * still builds and runs on runtimes that predate them, or that only offer them as a preview feature that has not been
+ * enabled.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+public class VirtualThreads {
+	
+	/**
+	 * The factory that creates virtual threads, or null if the runtime does not support them.
+	 */
+	private static final ThreadFactory FACTORY = findFactory();
+	
+	/**
+	 * <code>Thread.isVirtual()</code>, or null if the runtime does not support virtual threads.
+	 */
+	private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+	
+	private static ThreadFactory findFactory() {
+		
+		try {
+			
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			
+			// Looked up on the public interface, as the builder's own class is not accessible.
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+			
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			
+			if (CaffeineSocket.getDebug()) System.out.println("Virtual threads are not available, so platform threads will be used instead: " + e);
+			return null;
+			
+		}
+		
+	}
+	
+	private static MethodHandle findIsVirtual() {
+		
+		if (FACTORY == null) return null;
+		
+		try {
+			
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+			
+		} catch (ReflectiveOperationException e) {
+			
+			return null;
+			
+		}
+		
+	}
+	
+	/**
+	 * Returns whether or not the calling thread is a virtual thread. State that is kept per thread, such as caches and
+	 * scratch space held in {@link ThreadLocal}s, should not be kept for virtual threads: there may be one for each of a
+	 * great many connections, and whatever they hold is lost when they exit.
+	 *
+	 * @return true if the calling thread is a virtual thread.
+	 */
+	public static boolean isCurrentVirtual() {
+		
+		if (IS_VIRTUAL == null) return false;
+		
+		try {
+			
+			return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+			
+		} catch (Throwable e) {
+			
+			return false;
+			
+		}
+		
+	}
+	
+	/**
+	 * Returns whether or not the runtime supports virtual threads.
+	 *
+	 * @return true if {@link #newThread(Runnable, String)} creates virtual threads.
+	 */
+	public static boolean isSupported() {
+		
+		return FACTORY != null;
+		
+	}
+	
+	/**
+	 * Creates a new, unstarted thread: a virtual thread if the runtime supports them, or otherwise a platform thread.
+	 *
+	 * @param task The task that the thread runs.
+	 * @param name The name of the thread.
+	 * @return The thread.
+	 */
+	public static Thread newThread(Runnable task, String name) {
+		
+		if (FACTORY == null) return new Thread(task, name);
+		
+		Thread thread = FACTORY.newThread(task);
+		thread.setName(name);
+		
+		return thread;
+		
+	}
+	
+}
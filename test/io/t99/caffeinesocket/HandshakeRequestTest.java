@@ -0,0 +1,104 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the parsing and validation of a client's half of the opening handshake by {@link HandshakeRequest}.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class HandshakeRequestTest {
+	
+	private static final String REQUEST_LINE = "GET /chat HTTP/1.1\r\n";
+	
+	private static final String HEADERS =
+		"Host: server.example.com\r\n" +
+		"Upgrade: websocket\r\n" +
+		"Connection: Upgrade\r\n" +
+		"Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+		"Sec-WebSocket-Version: 13\r\n";
+	
+	private static ByteBuffer ascii(String string) {
+		
+		return ByteBuffer.wrap(string.getBytes(StandardCharsets.US_ASCII));
+		
+	}
+	
+	@Test
+	void acceptsValidRequest() {
+		
+		HandshakeRequest request = new HandshakeRequest();
+		
+		assertTrue(request.consume(ascii(REQUEST_LINE + HEADERS + "\r\n")));
+		assertTrue(request.isValid());
+		assertNull(request.getError());
+		
+		ByteBuffer accept = ByteBuffer.allocate(HandshakeRequest.ACCEPT_LENGTH);
+		request.putAcceptKey(accept);
+		
+		assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", new String(accept.array(), StandardCharsets.US_ASCII));
+		
+	}
+	
+	@Test
+	void rejectsEmptyHeaderName() {
+		
+		HandshakeRequest request = new HandshakeRequest();
+		
+		assertTrue(request.consume(ascii(REQUEST_LINE + HEADERS + ": x\r\n\r\n")));
+		assertFalse(request.isValid());
+		assertEquals("The opening handshake contained a malformed header line.", request.getError());
+		
+	}
+	
+	@Test
+	void rejectsHeaderLineStartingWithColonAtStartOfBuffer() {
+		
+		HandshakeRequest request = new HandshakeRequest();
+		
+		assertFalse(request.consume(ascii(REQUEST_LINE)));
+		
+		// The header line begins at index 0 of the buffer, so there is no byte before its colon to look at.
+		assertTrue(request.consume(ascii(": x\r\n")));
+		assertFalse(request.isValid());
+		assertEquals("The opening handshake contained a malformed header line.", request.getError());
+		
+	}
+	
+	@Test
+	void rejectsHeaderLineStartingWithColonSplitAcrossReads() {
+		
+		HandshakeRequest request = new HandshakeRequest();
+		
+		assertFalse(request.consume(ascii(REQUEST_LINE + HEADERS + ":")));
+		assertTrue(request.consume(ascii("x\r\n\r\n")));
+		assertFalse(request.isValid());
+		
+	}
+	
+}
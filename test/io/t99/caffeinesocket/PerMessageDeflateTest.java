@@ -0,0 +1,193 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import io.t99.caffeinesocket.util.BufferPool;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests the negotiation of <a href="https://tools.ietf.org/html/rfc7692">[RFC7692]</a> permessage-deflate by
+ * {@link PerMessageDeflate}, and that what it compresses inflates back to the original.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class PerMessageDeflateTest {
+	
+	@Test
+	void declinesWithoutAnOfferOrWithCompressionDisabled() {
+		
+		WebSocketConfig config = new WebSocketConfig();
+		
+		assertNull(PerMessageDeflate.negotiate(null, config));
+		assertNull(PerMessageDeflate.negotiate("x-webkit-deflate-frame", config));
+		
+		config.setCompression(false);
+		
+		assertNull(PerMessageDeflate.negotiate("permessage-deflate", config));
+		
+	}
+	
+	@Test
+	void acceptsAPlainOffer() {
+		
+		assertEquals("permessage-deflate", negotiate("permessage-deflate", new WebSocketConfig()));
+		assertEquals("permessage-deflate", negotiate(" PerMessage-Deflate ", new WebSocketConfig()));
+		
+	}
+	
+	@Test
+	void acceptsTheFirstOfferThatCanBeHonoured() {
+		
+		WebSocketConfig config = new WebSocketConfig();
+		
+		assertEquals("permessage-deflate; client_no_context_takeover", negotiate("x-webkit-deflate-frame, permessage-deflate; server_max_window_bits=10, permessage-deflate; client_no_context_takeover, permessage-deflate", config));
+		
+	}
+	
+	@Test
+	void echoesContextTakeoverParameters() {
+		
+		WebSocketConfig config = new WebSocketConfig();
+		
+		assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover", negotiate("permessage-deflate; client_no_context_takeover; server_no_context_takeover", config));
+		
+		config.setServerNoContextTakeover(true);
+		
+		assertEquals("permessage-deflate; server_no_context_takeover", negotiate("permessage-deflate", config));
+		
+	}
+	
+	@Test
+	void limitsTheClientWindowToTheSmallerOfTheOfferAndTheConfig() {
+		
+		WebSocketConfig config = new WebSocketConfig();
+		
+		// A window of 15 bits is what the client would use anyway, so it goes unmentioned.
+		assertEquals("permessage-deflate", negotiate("permessage-deflate; client_max_window_bits", config));
+		assertEquals("permessage-deflate; client_max_window_bits=12", negotiate("permessage-deflate; client_max_window_bits=12", config));
+		assertEquals("permessage-deflate; client_max_window_bits=9", negotiate("permessage-deflate; client_max_window_bits=\"9\"", config));
+		
+		config.setClientMaxWindowBits(10);
+		
+		assertEquals("permessage-deflate; client_max_window_bits=10", negotiate("permessage-deflate; client_max_window_bits", config));
+		assertEquals("permessage-deflate; client_max_window_bits=8", negotiate("permessage-deflate; client_max_window_bits=8", config));
+		
+		// A client that did not offer the parameter may not be limited at all.
+		assertEquals("permessage-deflate", negotiate("permessage-deflate", config));
+		
+	}
+	
+	@Test
+	void onlyAcceptsTheLargestServerWindow() {
+		
+		WebSocketConfig config = new WebSocketConfig();
+		
+		assertEquals("permessage-deflate", negotiate("permessage-deflate; server_max_window_bits=15", config));
+		assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=14", config));
+		assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits", config));
+		
+	}
+	
+	@Test
+	void declinesInvalidOffers() {
+		
+		WebSocketConfig config = new WebSocketConfig();
+		
+		for (String offer : new String[] {
+			"permessage-deflate; client_max_window_bits=7",
+			"permessage-deflate; client_max_window_bits=16",
+			"permessage-deflate; client_max_window_bits=010",
+			"permessage-deflate; client_max_window_bits=abc",
+			"permessage-deflate; client_max_window_bits=",
+			"permessage-deflate; server_no_context_takeover=true",
+			"permessage-deflate; client_no_context_takeover=1",
+			"permessage-deflate; client_no_context_takeover; client_no_context_takeover",
+			"permessage-deflate; Client_Max_Window_Bits=10; client_max_window_bits=12",
+			"permessage-deflate; unknown_parameter"
+		}) {
+			
+			assertNull(PerMessageDeflate.negotiate(offer, config), offer);
+			
+		}
+		
+	}
+	
+	@Test
+	void compressesWhatInflatesBackToTheOriginal() throws DataFormatException {
+		
+		WebSocketConfig config = new WebSocketConfig();
+		PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate", config);
+		BufferPool pool = new BufferPool();
+		
+		assertNotNull(deflate);
+		
+		byte[] text = "to be, or not to be, that is the question; to be, or not to be, that is the question. ".repeat(8).getBytes(StandardCharsets.UTF_8);
+		Inflater inflater = new Inflater(true);
+		
+		// Each message may refer back to the ones before it, as context takeover was agreed.
+		for (int i = 0; i < 3; i++) {
+			
+			ByteBuffer payload = ByteBuffer.wrap(text);
+			ByteBuffer compressed = deflate.deflate(payload, pool);
+			
+			assertNotNull(compressed);
+			assertEquals(text.length, payload.remaining());
+			
+			byte[] input = new byte[compressed.remaining() + PerMessageDeflate.TAIL.length];
+			compressed.get(input, 0, compressed.remaining());
+			System.arraycopy(PerMessageDeflate.TAIL, 0, input, input.length - PerMessageDeflate.TAIL.length, PerMessageDeflate.TAIL.length);
+			
+			byte[] output = new byte[text.length];
+			inflater.setInput(input);
+			
+			assertEquals(text.length, inflater.inflate(output));
+			assertEquals(new String(text, StandardCharsets.UTF_8), new String(output, StandardCharsets.UTF_8));
+			
+			pool.release(compressed);
+			
+		}
+		
+		// Below the threshold, messages are sent as they are.
+		assertNull(deflate.deflate(ByteBuffer.wrap(new byte[config.getCompressionThreshold() - 1]), pool));
+		
+		deflate.release();
+		inflater.end();
+		
+	}
+	
+	private static String negotiate(String offers, WebSocketConfig config) {
+		
+		PerMessageDeflate deflate = PerMessageDeflate.negotiate(offers, config);
+		
+		assertNotNull(deflate, offers);
+		
+		return deflate.getResponseHeader();
+		
+	}
+	
+}
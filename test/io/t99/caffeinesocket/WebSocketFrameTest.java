@@ -0,0 +1,299 @@
+package io.t99.caffeinesocket;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the decoding of client frames by {@link WebSocketFrame}, however the bytes of a frame are split between reads,
+ * and its rejection of frames that <a href="https://tools.ietf.org/html/rfc6455#section-5">[RFC6455] Section 5</a>
+ * rules out.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class WebSocketFrameTest {
+	
+	private static final int KEY = 0x37FA213D;
+	
+	@Test
+	void decodesEveryPayloadLengthEncoding() {
+		
+		for (int length : new int[] {0, 1, 125, 126, 127, 65535, 65536, 100_000}) {
+			
+			byte[] payload = payload(length);
+			WebSocketFrame frame = new WebSocketFrame(null, true);
+			
+			assertTrue(frame.process(ByteBuffer.wrap(encode(0x82, payload))), "length " + length);
+			assertEquals(WebSocketFrame.Type.BINARY, frame.getType());
+			assertTrue(frame.isFinal());
+			assertEquals(length, frame.getPayloadLength());
+			assertPayload(payload, frame);
+			
+		}
+		
+	}
+	
+	@Test
+	void decodesAFrameSplitAtAnyPoint() {
+		
+		byte[] payload = payload(300);
+		byte[] bytes = encode(0x01, payload);
+		WebSocketFrame frame = new WebSocketFrame(null, true);
+		
+		for (int split = 0; split <= bytes.length; split++) {
+			
+			frame.reset();
+			
+			// A payload that arrives whole is unmasked in place, so each split is given a fresh copy.
+			byte[] copy = bytes.clone();
+			ByteBuffer first = ByteBuffer.wrap(copy, 0, split);
+			
+			assertEquals(split == bytes.length, frame.process(first), "split at " + split);
+			assertFalse(first.hasRemaining());
+			
+			assertTrue(frame.process(ByteBuffer.wrap(copy, split, bytes.length - split)), "split at " + split);
+			assertEquals(WebSocketFrame.Type.TEXT, frame.getType());
+			assertFalse(frame.isFinal());
+			assertPayload(payload, frame);
+			
+		}
+		
+	}
+	
+	@Test
+	void decodesAFrameOneByteAtATime() {
+		
+		byte[] payload = payload(70_000);
+		byte[] bytes = encode(0xC2, payload);
+		WebSocketFrame frame = new WebSocketFrame(null, true);
+		
+		for (int i = 0; i < bytes.length; i++) {
+			
+			assertEquals(i == bytes.length - 1, frame.process(ByteBuffer.wrap(bytes, i, 1)));
+			
+		}
+		
+		assertTrue(frame.isRsv1());
+		assertPayload(payload, frame);
+		
+		frame.reset();
+		
+	}
+	
+	@Test
+	void leavesTheBytesOfTheNextFrameInTheBuffer() {
+		
+		byte[] ping = payload(5);
+		byte[] text = payload(10);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.writeBytes(encode(0x89, ping));
+		bytes.writeBytes(encode(0x81, text));
+		
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		WebSocketFrame frame = new WebSocketFrame(null, true);
+		
+		assertTrue(frame.process(buffer));
+		assertEquals(WebSocketFrame.Type.PING, frame.getType());
+		assertPayload(ping, frame);
+		assertEquals(2 + 4 + text.length, buffer.remaining());
+		
+		frame.reset();
+		
+		assertTrue(frame.process(buffer));
+		assertEquals(WebSocketFrame.Type.TEXT, frame.getType());
+		assertPayload(text, frame);
+		assertFalse(buffer.hasRemaining());
+		
+	}
+	
+	@Test
+	void streamsUnmaskedChunksOfADataFrame() {
+		
+		byte[] payload = payload(1000);
+		byte[] bytes = encode(0x82, payload);
+		WebSocketFrame frame = new WebSocketFrame(null, true);
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		
+		frame.setStreaming(true);
+		
+		// Pieces of every length from one up, so that chunks start at every alignment against the masking key.
+		for (int from = 0, step = 1; from < bytes.length; from += step, step++) {
+			
+			frame.process(ByteBuffer.wrap(bytes, from, Math.min(step, bytes.length - from)));
+			
+			ByteBuffer chunk = frame.getChunk();
+			
+			if (chunk != null) {
+				
+				byte[] piece = new byte[chunk.remaining()];
+				chunk.get(piece);
+				streamed.writeBytes(piece);
+				
+			}
+			
+		}
+		
+		assertArrayEquals(payload, streamed.toByteArray());
+		
+	}
+	
+	@Test
+	void decodesWhatItEncodes() {
+		
+		byte[] payload = payload(200);
+		ByteBuffer[] buffers = new WebSocketFrame(null, true, WebSocketFrame.Type.BINARY, ByteBuffer.wrap(payload)).getBuffers();
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		for (ByteBuffer buffer : buffers) {
+			
+			byte[] array = new byte[buffer.remaining()];
+			buffer.get(array);
+			bytes.writeBytes(array);
+			
+		}
+		
+		WebSocketFrame frame = new WebSocketFrame(null, true);
+		
+		assertTrue(frame.process(ByteBuffer.wrap(bytes.toByteArray())));
+		assertPayload(payload, frame);
+		
+	}
+	
+	@Test
+	void rejectsFramesThatBreakTheProtocol() {
+		
+		// Unmasked, where the server requires a mask.
+		assertRejected(new byte[] {(byte) 0x82, 0x00});
+		
+		// An opcode that is reserved.
+		assertRejected(encode(0x83, new byte[0]));
+		assertRejected(encode(0x8B, new byte[0]));
+		
+		// A fragmented control frame, and one whose payload is too long.
+		assertRejected(encode(0x09, new byte[0]));
+		assertRejected(encode(0x89, new byte[126]));
+		
+		// A 64-bit payload length with its most significant bit set.
+		assertRejected(new byte[] {(byte) 0x82, (byte) 0xFF, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+		
+	}
+	
+	@Test
+	void rejectsDataFramesBeyondTheMaximumPayloadLength() {
+		
+		WebSocketFrame frame = new WebSocketFrame(null, true);
+		frame.setMaxPayloadLength(100);
+		
+		assertThrows(IllegalStateException.class, () -> frame.process(ByteBuffer.wrap(encode(0x82, new byte[101]))));
+		
+		// Control frames answer to their own limit.
+		WebSocketFrame ping = new WebSocketFrame(null, true);
+		ping.setMaxPayloadLength(100);
+		
+		assertTrue(ping.process(ByteBuffer.wrap(encode(0x89, new byte[125]))));
+		
+	}
+	
+	@Test
+	void reportsNoPayloadUntilTheFrameIsComplete() {
+		
+		byte[] bytes = encode(0x82, payload(50));
+		WebSocketFrame frame = new WebSocketFrame(null, true);
+		
+		assertFalse(frame.process(ByteBuffer.wrap(bytes, 0, 20)));
+		assertTrue(frame.isHeaderComplete());
+		assertNull(frame.getPayload());
+		
+	}
+	
+	/**
+	 * Encodes a masked client frame by hand, so that decoding is not tested against the encoder alone.
+	 */
+	private static byte[] encode(int first, byte[] payload) {
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write(first);
+		
+		if (payload.length <= 125) {
+			
+			bytes.write(0x80 | payload.length);
+			
+		} else if (payload.length <= 0xFFFF) {
+			
+			bytes.write(0x80 | 126);
+			bytes.write(payload.length >>> 8);
+			bytes.write(payload.length);
+			
+		} else {
+			
+			bytes.write(0x80 | 127);
+			
+			for (int shift = 56; shift >= 0; shift -= 8) bytes.write((int) ((long) payload.length >>> shift));
+			
+		}
+		
+		for (int shift = 24; shift >= 0; shift -= 8) bytes.write(KEY >>> shift);
+		
+		for (int i = 0; i < payload.length; i++) bytes.write(payload[i] ^ (KEY >>> (24 - (i & 3) * 8)));
+		
+		return bytes.toByteArray();
+		
+	}
+	
+	private static byte[] payload(int length) {
+		
+		byte[] payload = new byte[length];
+		new Random(length).nextBytes(payload);
+		
+		return payload;
+		
+	}
+	
+	private static void assertPayload(byte[] expected, WebSocketFrame frame) {
+		
+		ByteBuffer payload = frame.getPayload();
+		
+		if (expected.length == 0 && payload == null) return;
+		
+		byte[] actual = new byte[payload.remaining()];
+		payload.duplicate().get(actual);
+		
+		assertArrayEquals(expected, actual);
+		
+	}
+	
+	private static void assertRejected(byte[] bytes) {
+		
+		assertThrows(IllegalStateException.class, () -> new WebSocketFrame(null, true).process(ByteBuffer.wrap(bytes)));
+		
+	}
+	
+}
@@ -0,0 +1,178 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link BufferPool} leases buffers of the right size class, and reuses them through the thread cache and
+ * the shared arena up to their bounds.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class BufferPoolTest {
+	
+	@Test
+	void leasesDirectBuffersRoundedUpToASizeClass() {
+		
+		BufferPool pool = new BufferPool();
+		
+		int[] sizes = {0, 1, 255, 256, 257, 4096, 4097, BufferPool.MAX_SIZE_CLASS};
+		int[] capacities = {256, 256, 256, 256, 512, 4096, 8192, BufferPool.MAX_SIZE_CLASS};
+		
+		for (int i = 0; i < sizes.length; i++) {
+			
+			ByteBuffer buffer = pool.lease(sizes[i]);
+			
+			assertTrue(buffer.isDirect());
+			assertEquals(0, buffer.position());
+			assertEquals(sizes[i], buffer.limit());
+			assertEquals(capacities[i], buffer.capacity(), "size " + sizes[i]);
+			
+			pool.release(buffer);
+			
+		}
+		
+	}
+	
+	@Test
+	void allocatesBuffersBeyondTheLargestClassOutright() {
+		
+		BufferPool pool = new BufferPool();
+		ByteBuffer buffer = pool.lease(BufferPool.MAX_SIZE_CLASS + 1);
+		
+		assertEquals(BufferPool.MAX_SIZE_CLASS + 1, buffer.capacity());
+		
+		// Not pooled, so handing it back is harmless.
+		pool.release(buffer);
+		
+		assertThrows(IllegalArgumentException.class, () -> pool.lease(-1));
+		
+	}
+	
+	@Test
+	void reusesBuffersThroughTheThreadCache() {
+		
+		BufferPool pool = new BufferPool();
+		ByteBuffer buffer = pool.lease(1000);
+		
+		buffer.putInt(42).limit(10);
+		pool.release(buffer);
+		
+		ByteBuffer again = pool.lease(600);
+		
+		assertSame(buffer, again);
+		assertEquals(0, again.position());
+		assertEquals(600, again.limit());
+		assertEquals(1, pool.getAllocationCount());
+		
+	}
+	
+	@Test
+	void sharesBuffersBetweenThreadsThroughTheArena() throws InterruptedException {
+		
+		BufferPool pool = new BufferPool(0, 64 * 1024);
+		ByteBuffer buffer = pool.lease(4096);
+		
+		pool.release(buffer);
+		
+		AtomicReference<ByteBuffer> leased = new AtomicReference<>();
+		Thread thread = new Thread(() -> leased.set(pool.lease(4096)));
+		thread.start();
+		thread.join();
+		
+		assertSame(buffer, leased.get());
+		assertEquals(1, pool.getAllocationCount());
+		
+	}
+	
+	@Test
+	void boundsTheArenaOfEachSizeClass() {
+		
+		// Room for two buffers of 256 bytes, and no thread cache.
+		BufferPool pool = new BufferPool(0, 512);
+		ByteBuffer[] buffers = {pool.lease(256), pool.lease(256), pool.lease(256)};
+		
+		for (ByteBuffer buffer : buffers) pool.release(buffer);
+		
+		assertEquals(3, pool.getAllocationCount());
+		
+		for (int i = 0; i < 3; i++) pool.lease(256);
+		
+		assertEquals(4, pool.getAllocationCount());
+		
+	}
+	
+	@Test
+	void ignoresBuffersThatItCouldNotHaveLeased() {
+		
+		BufferPool pool = new BufferPool();
+		
+		pool.release(null);
+		pool.release(ByteBuffer.allocate(256));
+		pool.release(ByteBuffer.allocateDirect(300));
+		
+		ByteBuffer buffer = pool.lease(256);
+		
+		assertTrue(buffer.isDirect());
+		assertEquals(256, buffer.capacity());
+		assertEquals(1, pool.getAllocationCount());
+		
+	}
+	
+	@Test
+	void refusesABufferReleasedTwiceWhileDetectingLeaks() {
+		
+		boolean detecting = BufferPool.getLeakDetection();
+		BufferPool.setLeakDetection(true);
+		
+		try {
+			
+			BufferPool pool = new BufferPool();
+			ByteBuffer buffer = pool.lease(256);
+			
+			pool.release(buffer);
+			pool.release(buffer);
+			
+			ByteBuffer first = pool.lease(256);
+			ByteBuffer second = pool.lease(256);
+			
+			assertSame(buffer, first);
+			assertNotSame(first, second);
+			
+			pool.release(first);
+			pool.release(second);
+			
+		} finally {
+			
+			BufferPool.setLeakDetection(detecting);
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,182 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the bucketing of a {@link LatencyHistogram}, and the percentiles that its snapshots report.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class LatencyHistogramTest {
+	
+	@Test
+	void givesSmallValuesABucketEach() {
+		
+		for (int value = 0; value < 128; value++) {
+			
+			assertEquals(value, LatencyHistogram.indexOf(value));
+			assertEquals(value, LatencyHistogram.highestValueIn(value));
+			
+		}
+		
+	}
+	
+	@Test
+	void coversEveryValueWithAdjoiningBuckets() {
+		
+		int last = LatencyHistogram.BUCKET_COUNT - 1;
+		
+		for (int index = 0; index < last; index++) {
+			
+			long highest = LatencyHistogram.highestValueIn(index);
+			
+			assertEquals(index, LatencyHistogram.indexOf(highest), "bucket " + index);
+			assertEquals(index + 1, LatencyHistogram.indexOf(highest + 1), "bucket " + index);
+			
+		}
+		
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(last));
+		assertEquals(last, LatencyHistogram.indexOf(Long.MAX_VALUE));
+		
+	}
+	
+	@Test
+	void boundsEveryValueToWithinOneSixtyFourth() {
+		
+		Random random = new Random(19);
+		
+		for (int i = 0; i < 100_000; i++) {
+			
+			// Spread evenly across magnitudes, rather than bunched near the largest.
+			long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+			long highest = LatencyHistogram.highestValueIn(LatencyHistogram.indexOf(value));
+			
+			assertTrue(highest >= value, () -> "value " + value);
+			assertTrue(highest - value <= value / 64, () -> "value " + value + ", highest " + highest);
+			
+		}
+		
+	}
+	
+	@Test
+	void summarisesRecordedDurations() {
+		
+		LatencyHistogram histogram = new LatencyHistogram();
+		
+		for (long micros = 1; micros <= 1000; micros++) histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+		
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot(TimeUnit.MICROSECONDS);
+		
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500.5, snapshot.getMean(), 1e-9);
+		assertEquals(1000, snapshot.getMax());
+		
+		// Each percentile may overstate the true value by the histogram's precision, but never understate it.
+		assertWithinPrecision(500, snapshot.getP50());
+		assertWithinPrecision(900, snapshot.getP90());
+		assertWithinPrecision(990, snapshot.getP99());
+		assertWithinPrecision(999, snapshot.getP999());
+		
+	}
+	
+	@Test
+	void neverReportsAPercentileAboveTheMax() {
+		
+		LatencyHistogram histogram = new LatencyHistogram();
+		
+		histogram.record(1_000_001);
+		
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot(TimeUnit.NANOSECONDS);
+		
+		assertEquals(1_000_001, snapshot.getP50());
+		assertEquals(1_000_001, snapshot.getMax());
+		
+	}
+	
+	@Test
+	void countsNegativeDurationsAsZero() {
+		
+		LatencyHistogram histogram = new LatencyHistogram();
+		
+		histogram.record(-5);
+		
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot(TimeUnit.NANOSECONDS);
+		
+		assertEquals(1, snapshot.getCount());
+		assertEquals(0, snapshot.getP50());
+		assertEquals(0, snapshot.getMax());
+		
+	}
+	
+	@Test
+	void summarisesNothingAsZero() {
+		
+		LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot(TimeUnit.MILLISECONDS);
+		
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getP999());
+		assertEquals(0, snapshot.getMax());
+		
+	}
+	
+	@Test
+	void countsEveryDurationRecordedConcurrently() throws InterruptedException {
+		
+		LatencyHistogram histogram = new LatencyHistogram();
+		List<Thread> threads = new ArrayList<>();
+		
+		for (int i = 0; i < 4; i++) {
+			
+			Thread thread = new Thread(() -> {
+				
+				for (long nanos = 0; nanos < 50_000; nanos++) histogram.record(nanos);
+				
+			});
+			
+			threads.add(thread);
+			thread.start();
+			
+		}
+		
+		for (Thread thread : threads) thread.join();
+		
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot(TimeUnit.NANOSECONDS);
+		
+		assertEquals(200_000, snapshot.getCount());
+		assertEquals(49_999, snapshot.getMax());
+		
+	}
+	
+	private static void assertWithinPrecision(long expected, long actual) {
+		
+		assertTrue(actual >= expected && actual - expected <= expected / 64, "expected " + expected + " but was " + actual);
+		
+	}
+	
+}
@@ -0,0 +1,169 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that every path of {@link MaskingUtils} XORs a payload with the masking key octet by octet, as
+ * <a href="https://tools.ietf.org/html/rfc6455#section-5.3">[RFC6455] Section 5.3</a> describes.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class MaskingUtilsTest {
+	
+	private static final int KEY = 0x37FA213D;
+	
+	private static final int[] LENGTHS = {0, 1, 3, 7, 8, 15, 31, 63, 64, 65, 125, 1000, 4099};
+	
+	@AfterEach
+	void restoreVectorized() {
+		
+		MaskingUtils.setVectorized(true);
+		
+	}
+	
+	@Test
+	void vectorApiIsAvailable() {
+		
+		assertTrue(MaskingUtils.setVectorized(true));
+		
+	}
+	
+	@Test
+	void masksHeapBuffers() {
+		
+		for (boolean vectorized : new boolean[] {true, false}) {
+			
+			MaskingUtils.setVectorized(vectorized);
+			
+			for (int length : LENGTHS) check(ByteBuffer.allocate(length + 5), length);
+			
+		}
+		
+	}
+	
+	@Test
+	void masksDirectBuffers() {
+		
+		for (boolean vectorized : new boolean[] {true, false}) {
+			
+			MaskingUtils.setVectorized(vectorized);
+			
+			for (int length : LENGTHS) {
+				
+				check(ByteBuffer.allocateDirect(length + 5), length);
+				check(ByteBuffer.allocateDirect(length + 5).order(ByteOrder.LITTLE_ENDIAN), length);
+				
+			}
+			
+		}
+		
+	}
+	
+	@Test
+	void masksSlicesFromAnyOffsetIntoThePayload() {
+		
+		for (boolean vectorized : new boolean[] {true, false}) {
+			
+			MaskingUtils.setVectorized(vectorized);
+			
+			for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.allocate(300), ByteBuffer.allocateDirect(300)}) {
+				
+				byte[] payload = payload(300);
+				buffer.put(payload).clear();
+				
+				// The payload is masked in pieces that start at every alignment against the key.
+				for (int from = 0, step = 1; from < 300; from += step, step++) {
+					
+					buffer.limit(Math.min(300, from + step)).position(from);
+					MaskingUtils.mask(buffer, KEY, from);
+					
+				}
+				
+				buffer.clear();
+				byte[] masked = new byte[300];
+				buffer.get(masked);
+				
+				assertArrayEquals(expected(payload, 0), masked);
+				
+			}
+			
+		}
+		
+	}
+	
+	private static void check(ByteBuffer buffer, int length) {
+		
+		byte[] payload = payload(length);
+		
+		// The bytes before the position and after the limit must be left alone.
+		buffer.position(2);
+		buffer.put(payload);
+		buffer.limit(2 + length).position(2);
+		
+		MaskingUtils.mask(buffer, KEY, 1);
+		
+		assertEquals(2, buffer.position());
+		
+		byte[] masked = new byte[length];
+		buffer.get(masked);
+		
+		assertArrayEquals(expected(payload, 1), masked, "length " + length + ", " + buffer);
+		assertEquals(0, buffer.get(0));
+		assertEquals(0, buffer.get(1));
+		
+		buffer.limit(buffer.capacity());
+		
+		for (int i = 2 + length; i < buffer.capacity(); i++) assertEquals(0, buffer.get(i));
+		
+	}
+	
+	private static byte[] payload(int length) {
+		
+		byte[] payload = new byte[length];
+		new Random(length).nextBytes(payload);
+		
+		return payload;
+		
+	}
+	
+	private static byte[] expected(byte[] payload, long offset) {
+		
+		byte[] expected = new byte[payload.length];
+		
+		for (int i = 0; i < payload.length; i++) {
+			
+			expected[i] = (byte) (payload[i] ^ (KEY >>> (24 - (int) ((offset + i) & 3) * 8)));
+			
+		}
+		
+		return expected;
+		
+	}
+	
+}
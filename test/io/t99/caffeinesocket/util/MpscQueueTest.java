@@ -0,0 +1,149 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link MpscQueue} hands its single consumer every element offered, in the order in which each producer
+ * offered them.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class MpscQueueTest {
+	
+	@Test
+	void pollsInTheOrderOffered() {
+		
+		MpscQueue<Element> queue = new MpscQueue<>();
+		
+		assertTrue(queue.isEmpty());
+		assertNull(queue.peek());
+		assertNull(queue.poll());
+		
+		Element first = new Element(0, 0);
+		Element second = new Element(0, 1);
+		
+		queue.offer(first);
+		queue.offer(second);
+		
+		assertFalse(queue.isEmpty());
+		assertSame(first, queue.peek());
+		assertSame(first, queue.poll());
+		assertSame(second, queue.poll());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+		
+		// An emptied queue carries on as before.
+		queue.offer(first);
+		
+		assertSame(first, queue.poll());
+		
+	}
+	
+	@Test
+	void keepsTheOrderOfEachOfManyProducers() throws InterruptedException {
+		
+		int producers = 4;
+		int perProducer = 100_000;
+		
+		MpscQueue<Element> queue = new MpscQueue<>();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		
+		for (int i = 0; i < producers; i++) {
+			
+			int producer = i;
+			
+			Thread thread = new Thread(() -> {
+				
+				try {
+					
+					start.await();
+					
+				} catch (InterruptedException e) {
+					
+					return;
+					
+				}
+				
+				for (int sequence = 0; sequence < perProducer; sequence++) queue.offer(new Element(producer, sequence));
+				
+			});
+			
+			threads.add(thread);
+			thread.start();
+			
+		}
+		
+		start.countDown();
+		
+		int[] next = new int[producers];
+		int received = 0;
+		
+		while (received < producers * perProducer) {
+			
+			// Empty either because every producer is behind, or because an offer has yet to be linked in.
+			Element element = queue.poll();
+			
+			if (element == null) {
+				
+				Thread.onSpinWait();
+				continue;
+				
+			}
+			
+			assertEquals(next[element.producer]++, element.sequence);
+			received++;
+			
+		}
+		
+		for (Thread thread : threads) thread.join();
+		
+		assertNull(queue.poll());
+		
+		for (int count : next) assertEquals(perProducer, count);
+		
+	}
+	
+	private static class Element extends MpscQueue.Node {
+		
+		private final int producer;
+		
+		private final int sequence;
+		
+		private Element(int producer, int sequence) {
+			
+			this.producer = producer;
+			this.sequence = sequence;
+			
+		}
+		
+	}
+	
+}
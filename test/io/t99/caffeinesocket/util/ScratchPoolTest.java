@@ -0,0 +1,101 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests that a {@link ScratchPool} keeps one object per platform thread, and shares a bounded pool between virtual
+ * threads.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class ScratchPoolTest {
+	
+	@Test
+	void platformThreadsKeepTheirOwnObject() throws InterruptedException {
+		
+		AtomicInteger created = new AtomicInteger();
+		ScratchPool<Object> pool = new ScratchPool<>(() -> created.incrementAndGet(), 4);
+		
+		assertFalse(VirtualThreads.isCurrentVirtual());
+		
+		Object first = pool.lease();
+		pool.release(first);
+		
+		assertSame(first, pool.lease());
+		
+		AtomicReference<Object> other = new AtomicReference<>();
+		Thread thread = new Thread(() -> other.set(pool.lease()));
+		thread.start();
+		thread.join();
+		
+		assertNotSame(first, other.get());
+		assertEquals(2, created.get());
+		
+	}
+	
+	@Test
+	void virtualThreadsShareABoundedPool() throws InterruptedException {
+		
+		assumeTrue(VirtualThreads.isSupported());
+		
+		AtomicInteger created = new AtomicInteger();
+		ScratchPool<Object> pool = new ScratchPool<>(() -> created.incrementAndGet(), 1);
+		
+		AtomicReference<Object> first = new AtomicReference<>();
+		AtomicReference<Object> second = new AtomicReference<>();
+		AtomicReference<Object> third = new AtomicReference<>();
+		
+		Thread thread = VirtualThreads.newThread(() -> {
+			
+			Object a = pool.lease();
+			Object b = pool.lease();
+			
+			first.set(a);
+			second.set(b);
+			
+			// Only one of the two fits back into the pool.
+			pool.release(a);
+			pool.release(b);
+			
+		}, "scratch-1");
+		
+		thread.start();
+		thread.join();
+		
+		thread = VirtualThreads.newThread(() -> third.set(pool.lease()), "scratch-2");
+		thread.start();
+		thread.join();
+		
+		assertNotSame(first.get(), second.get());
+		assertSame(first.get(), third.get());
+		assertEquals(2, created.get());
+		
+	}
+	
+}
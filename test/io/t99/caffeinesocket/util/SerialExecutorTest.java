@@ -0,0 +1,261 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link SerialExecutor} runs its tasks in order, and that its queue is never stranded by an underlying
+ * executor that refuses to run it.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class SerialExecutorTest {
+	
+	private static final int TASKS = SerialExecutor.BATCH_SIZE * 3 + 1;
+	
+	@Test
+	void runsEveryTaskWhenTheRemainderIsRefused() throws InterruptedException {
+		
+		// Only the first hand-over is accepted, so every resubmission after a batch is refused.
+		RejectingExecutor executor = new RejectingExecutor(1);
+		SerialExecutor serial = new SerialExecutor(executor);
+		
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(TASKS);
+		List<Integer> order = new ArrayList<>();
+		
+		serial.execute(() -> {
+			
+			started.countDown();
+			
+			try {
+				
+				release.await();
+				
+			} catch (InterruptedException e) {
+				
+				Thread.currentThread().interrupt();
+				
+			}
+			
+			order.add(0);
+			done.countDown();
+			
+		});
+		
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		for (int i = 1; i < TASKS; i++) {
+			
+			int index = i;
+			
+			serial.execute(() -> {
+				
+				order.add(index);
+				done.countDown();
+				
+			});
+			
+		}
+		
+		release.countDown();
+		
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		
+		// The count is only brought down once the last task has returned.
+		executor.join();
+		
+		assertEquals(0, serial.getPending());
+		assertTrue(executor.refused.get() > 0);
+		
+		for (int i = 0; i < TASKS; i++) assertEquals(i, order.get(i));
+		
+	}
+	
+	@Test
+	void resetsTheQueueWhenTheHandOverIsRefused() throws InterruptedException {
+		
+		RejectingExecutor executor = new RejectingExecutor(0);
+		SerialExecutor serial = new SerialExecutor(executor);
+		
+		for (int i = 0; i < TASKS; i++) assertThrows(RejectedExecutionException.class, () -> serial.execute(() -> {}));
+		
+		assertEquals(0, serial.getPending());
+		
+		// Once the executor accepts again, the next submission hands the queue over afresh.
+		executor.accepts.set(1);
+		
+		CountDownLatch ran = new CountDownLatch(1);
+		
+		serial.execute(ran::countDown);
+		
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertEquals(TASKS + 1, executor.refused.get() + executor.accepted.get());
+		
+	}
+	
+	@Test
+	void runsEveryTaskOfManyConcurrentSubmittersOnce() throws InterruptedException {
+		
+		int submitters = 8;
+		int perSubmitter = 20_000;
+		
+		ExecutorService workers = Executors.newFixedThreadPool(4);
+		SerialExecutor serial = new SerialExecutor(workers);
+		
+		// Only ever touched by the tasks, which the executor runs one at a time.
+		int[] next = new int[submitters];
+		AtomicInteger outOfOrder = new AtomicInteger();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger overlapping = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(submitters * perSubmitter);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		
+		for (int i = 0; i < submitters; i++) {
+			
+			int submitter = i;
+			
+			Thread thread = new Thread(() -> {
+				
+				try {
+					
+					start.await();
+					
+				} catch (InterruptedException e) {
+					
+					return;
+					
+				}
+				
+				for (int j = 0; j < perSubmitter; j++) {
+					
+					int index = j;
+					
+					serial.execute(() -> {
+						
+						if (running.incrementAndGet() != 1) overlapping.incrementAndGet();
+						if (next[submitter]++ != index) outOfOrder.incrementAndGet();
+						
+						running.decrementAndGet();
+						done.countDown();
+						
+					});
+					
+				}
+				
+			});
+			
+			threads.add(thread);
+			thread.start();
+			
+		}
+		
+		// Failed tasks would be reported here, rather than to the test.
+		AtomicInteger failed = new AtomicInteger();
+		Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler((thread, e) -> failed.incrementAndGet());
+		
+		try {
+			
+			start.countDown();
+			
+			for (Thread thread : threads) thread.join();
+			
+			assertTrue(done.await(30, TimeUnit.SECONDS));
+			
+		} finally {
+			
+			workers.shutdown();
+			assertTrue(workers.awaitTermination(5, TimeUnit.SECONDS));
+			Thread.setDefaultUncaughtExceptionHandler(previous);
+			
+		}
+		
+		assertEquals(0, failed.get());
+		assertEquals(0, outOfOrder.get());
+		assertEquals(0, overlapping.get());
+		assertEquals(0, serial.getPending());
+		
+		for (int count : next) assertEquals(perSubmitter, count);
+		
+	}
+	
+	/**
+	 * Runs a set number of submissions, each on a thread of its own, and refuses every one after them.
+	 */
+	private static class RejectingExecutor implements Executor {
+		
+		private final AtomicInteger accepts;
+		
+		private final AtomicInteger accepted = new AtomicInteger();
+		
+		private final AtomicInteger refused = new AtomicInteger();
+		
+		private final List<Thread> threads = new CopyOnWriteArrayList<>();
+		
+		private RejectingExecutor(int accepts) {
+			
+			this.accepts = new AtomicInteger(accepts);
+			
+		}
+		
+		@Override
+		public void execute(Runnable command) {
+			
+			if (accepts.getAndDecrement() <= 0) {
+				
+				refused.incrementAndGet();
+				throw new RejectedExecutionException("Refused.");
+				
+			}
+			
+			accepted.incrementAndGet();
+			
+			Thread thread = new Thread(command);
+			threads.add(thread);
+			thread.start();
+			
+		}
+		
+		private void join() throws InterruptedException {
+			
+			for (Thread thread : threads) thread.join(5000);
+			
+		}
+		
+	}
+	
+}
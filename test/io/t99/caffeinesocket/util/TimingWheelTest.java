@@ -0,0 +1,246 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link TimingWheel} runs each task once its delay has passed and not before, across any number of turns
+ * of the wheel, and never runs a task that was cancelled.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class TimingWheelTest {
+	
+	/**
+	 * How long a test waits for a task that should have run, far beyond any delay that is scheduled.
+	 */
+	private static final long PATIENCE_NANOS = TimeUnit.SECONDS.toNanos(5);
+	
+	@Test
+	void runsATaskNoSoonerThanItsDelay() {
+		
+		// Eight buckets of a millisecond, so that the delay takes several turns of the wheel.
+		TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, false);
+		AtomicInteger runs = new AtomicInteger();
+		
+		long start = System.nanoTime();
+		TimingWheel.Timeout timeout = wheel.schedule(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+		
+		advanceUntil(wheel, () -> runs.get() != 0);
+		
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+		assertTrue(timeout.isExpired());
+		
+		advanceFor(wheel, 20);
+		
+		assertEquals(1, runs.get());
+		
+	}
+	
+	@Test
+	void runsTasksInTheOrderOfTheirDeadlines() {
+		
+		TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, false);
+		List<Integer> order = new CopyOnWriteArrayList<>();
+		
+		for (int delay : new int[] {26, 3, 17, 9, 0}) wheel.schedule(() -> order.add(delay), delay, TimeUnit.MILLISECONDS);
+		
+		advanceUntil(wheel, () -> order.size() == 5);
+		
+		assertEquals(List.of(0, 3, 9, 17, 26), order);
+		
+	}
+	
+	@Test
+	void runsTasksWithNoDelayOnTheNextTick() {
+		
+		TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, false);
+		AtomicInteger runs = new AtomicInteger();
+		
+		wheel.schedule(runs::incrementAndGet, 0, TimeUnit.MILLISECONDS);
+		wheel.schedule(runs::incrementAndGet, -5, TimeUnit.MILLISECONDS);
+		
+		advanceUntil(wheel, () -> runs.get() == 2);
+		
+	}
+	
+	@Test
+	void neverRunsACancelledTask() {
+		
+		TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, false);
+		AtomicInteger cancelledRuns = new AtomicInteger();
+		AtomicInteger runs = new AtomicInteger();
+		
+		TimingWheel.Timeout beforeTransfer = wheel.schedule(cancelledRuns::incrementAndGet, 5, TimeUnit.MILLISECONDS);
+		
+		assertTrue(beforeTransfer.cancel());
+		assertFalse(beforeTransfer.cancel());
+		assertTrue(beforeTransfer.isCancelled());
+		
+		// Cancelled once it is already in a bucket, between tasks that share it.
+		wheel.schedule(runs::incrementAndGet, 12, TimeUnit.MILLISECONDS);
+		TimingWheel.Timeout inBucket = wheel.schedule(cancelledRuns::incrementAndGet, 12, TimeUnit.MILLISECONDS);
+		wheel.schedule(runs::incrementAndGet, 12, TimeUnit.MILLISECONDS);
+		
+		wheel.advance();
+		
+		assertTrue(inBucket.cancel());
+		
+		advanceUntil(wheel, () -> runs.get() == 2);
+		advanceFor(wheel, 10);
+		
+		assertEquals(0, cancelledRuns.get());
+		assertFalse(inBucket.isExpired());
+		
+	}
+	
+	@Test
+	void cannotCancelATaskThatHasRun() {
+		
+		TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, false);
+		AtomicInteger runs = new AtomicInteger();
+		
+		TimingWheel.Timeout timeout = wheel.schedule(runs::incrementAndGet, 1, TimeUnit.MILLISECONDS);
+		
+		advanceUntil(wheel, () -> runs.get() == 1);
+		
+		assertFalse(timeout.cancel());
+		assertFalse(timeout.isCancelled());
+		assertTrue(timeout.isExpired());
+		
+	}
+	
+	@Test
+	void keepsRunningTasksAfterOneFails() {
+		
+		TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8, false);
+		AtomicInteger runs = new AtomicInteger();
+		
+		wheel.schedule(() -> { throw new IllegalStateException("Failed on purpose."); }, 2, TimeUnit.MILLISECONDS);
+		wheel.schedule(runs::incrementAndGet, 2, TimeUnit.MILLISECONDS);
+		wheel.schedule(runs::incrementAndGet, 4, TimeUnit.MILLISECONDS);
+		
+		advanceUntil(wheel, () -> runs.get() == 2);
+		
+	}
+	
+	@Test
+	void reportsTheTimeUntilTheNextTick() {
+		
+		TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8, false);
+		
+		long untilNextTick = wheel.advance();
+		
+		assertTrue(untilNextTick > 0);
+		assertTrue(untilNextTick <= TimeUnit.MILLISECONDS.toNanos(10));
+		
+	}
+	
+	@Test
+	void runsTasksOnItsOwnThread() throws InterruptedException {
+		
+		TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8);
+		CountDownLatch ran = new CountDownLatch(1);
+		Thread[] runner = new Thread[1];
+		
+		try {
+			
+			wheel.schedule(() -> {
+				
+				runner[0] = Thread.currentThread();
+				ran.countDown();
+				
+			}, 5, TimeUnit.MILLISECONDS);
+			
+			assertTrue(ran.await(5, TimeUnit.SECONDS));
+			assertEquals("caffeinesocket-timer", runner[0].getName());
+			assertThrows(IllegalStateException.class, wheel::advance);
+			
+		} finally {
+			
+			wheel.stop();
+			
+		}
+		
+	}
+	
+	@Test
+	void rejectsIllegalArguments() {
+		
+		assertThrows(IllegalArgumentException.class, () -> new TimingWheel(0, TimeUnit.MILLISECONDS, 8));
+		assertThrows(IllegalArgumentException.class, () -> new TimingWheel(1, TimeUnit.MILLISECONDS, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TimingWheel(1, TimeUnit.MILLISECONDS, 8, false).schedule(null, 1, TimeUnit.MILLISECONDS));
+		
+	}
+	
+	/**
+	 * Advances a wheel without a thread of its own, as an event loop would, until the condition holds.
+	 */
+	private static void advanceUntil(TimingWheel wheel, BooleanSupplier condition) {
+		
+		long deadline = System.nanoTime() + PATIENCE_NANOS;
+		
+		while (!condition.getAsBoolean()) {
+			
+			assertTrue(System.nanoTime() < deadline, "Timed out waiting for the wheel.");
+			
+			sleep(wheel.advance());
+			
+		}
+		
+	}
+	
+	/**
+	 * Advances a wheel without a thread of its own for the given number of milliseconds.
+	 */
+	private static void advanceFor(TimingWheel wheel, long millis) {
+		
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+		
+		while (System.nanoTime() < deadline) sleep(wheel.advance());
+		
+	}
+	
+	private static void sleep(long nanos) {
+		
+		try {
+			
+			TimeUnit.NANOSECONDS.sleep(nanos);
+			
+		} catch (InterruptedException e) {
+			
+			Thread.currentThread().interrupt();
+			
+		}
+		
+	}
+	
+}
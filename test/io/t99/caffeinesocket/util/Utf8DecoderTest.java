@@ -0,0 +1,263 @@
+package io.t99.caffeinesocket.util;
+
+/*
+ *	Copyright 2018, Trevor Sears <trevorsears.main@gmail.com>
+ *
+ *	Licensed under the Apache License, Version 2.0 (the "License");
+ *	you may not use this file except in compliance with the License.
+ *	You may obtain a copy of the License at
+ *
+ *		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *	Unless required by applicable law or agreed to in writing, software
+ *	distributed under the License is distributed on an "AS IS" BASIS,
+ *	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *	See the License for the specific language governing permissions and
+ *	limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests that a {@link Utf8Decoder} decodes valid UTF-8 however it is split, and rejects everything that
+ * <a href="https://tools.ietf.org/html/rfc3629#section-3">[RFC3629] Section 3</a> rules out.
+ *
+ * @author <a href="mailto:trevorsears.main@gmail.com">Trevor Sears</a>
+ * @version v0.1.0
+ */
+class Utf8DecoderTest {
+	
+	private static final String TEXT = "plain ASCII that runs past eight bytes, é ñ ß, € 中文 ☃, 😀 𝄞 and more ASCII at the end";
+	
+	@Test
+	void decodesTextSplitAtAnyTwoPoints() throws MalformedInputException {
+		
+		byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+		Utf8Decoder decoder = new Utf8Decoder();
+		
+		for (int first = 0; first <= bytes.length; first++) {
+			
+			for (int second = first; second <= bytes.length; second++) {
+				
+				decoder.reset();
+				decoder.decode(ByteBuffer.wrap(bytes, 0, first));
+				decoder.decode(ByteBuffer.wrap(bytes, first, second - first));
+				decoder.decode(ByteBuffer.wrap(bytes, second, bytes.length - second));
+				decoder.finish();
+				
+				assertEquals(TEXT, decoder.toString(), "split at " + first + " and " + second);
+				
+			}
+			
+		}
+		
+	}
+	
+	@Test
+	void decodesTextOneByteAtATime() throws MalformedInputException {
+		
+		byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+		Utf8Decoder decoder = new Utf8Decoder();
+		
+		for (byte b : bytes) decoder.decode(ByteBuffer.wrap(new byte[] {b}));
+		
+		decoder.finish();
+		
+		assertEquals(TEXT, decoder.toString());
+		assertEquals(TEXT, decoder.getText().toString());
+		assertEquals(TEXT.length(), decoder.length());
+		
+	}
+	
+	@Test
+	void decodesTheBoundariesOfEachSequenceLength() throws MalformedInputException {
+		
+		for (int codePoint : new int[] {0x00, 0x7F, 0x80, 0x7FF, 0x800, 0xD7FF, 0xE000, 0xFFFF, 0x10000, 0x10FFFF}) {
+			
+			String text = new String(Character.toChars(codePoint));
+			
+			assertEquals(text, decode(text.getBytes(StandardCharsets.UTF_8)), Integer.toHexString(codePoint));
+			
+		}
+		
+	}
+	
+	@Test
+	void rejectsOverlongEncodings() {
+		
+		assertMalformed(0xC0, 0x80);
+		assertMalformed(0xC1, 0xBF);
+		assertMalformed(0xE0, 0x80, 0x80);
+		assertMalformed(0xE0, 0x9F, 0xBF);
+		assertMalformed(0xF0, 0x80, 0x80, 0x80);
+		assertMalformed(0xF0, 0x8F, 0xBF, 0xBF);
+		
+	}
+	
+	@Test
+	void rejectsSurrogates() {
+		
+		assertMalformed(0xED, 0xA0, 0x80);
+		assertMalformed(0xED, 0xAF, 0xBF);
+		assertMalformed(0xED, 0xB0, 0x80);
+		assertMalformed(0xED, 0xBF, 0xBF);
+		
+		// A surrogate pair encoded as two three byte sequences, as CESU-8 would.
+		assertMalformed(0xED, 0xA0, 0xBD, 0xED, 0xB8, 0x80);
+		
+	}
+	
+	@Test
+	void rejectsCodePointsBeyondTheLastPlane() {
+		
+		assertMalformed(0xF4, 0x90, 0x80, 0x80);
+		assertMalformed(0xF5, 0x80, 0x80, 0x80);
+		assertMalformed(0xF8, 0x88, 0x80, 0x80, 0x80);
+		assertMalformed(0xFE);
+		assertMalformed(0xFF);
+		
+	}
+	
+	@Test
+	void rejectsMisplacedAndMissingContinuationBytes() {
+		
+		assertMalformed(0x80);
+		assertMalformed(0x41, 0xBF);
+		assertMalformed(0xC3, 0x41);
+		assertMalformed(0xE2, 0x82, 0x41);
+		assertMalformed(0xF0, 0x9F, 0x98, 0xC3, 0xA9);
+		
+	}
+	
+	@Test
+	void rejectsTextThatEndsPartWayThroughACharacter() throws MalformedInputException {
+		
+		for (byte[] truncated : new byte[][] {{(byte) 0xC3}, {(byte) 0xE2, (byte) 0x82}, {(byte) 0xF0, (byte) 0x9F, (byte) 0x98}}) {
+			
+			Utf8Decoder decoder = new Utf8Decoder();
+			decoder.decode(ByteBuffer.wrap(truncated));
+			
+			assertThrows(MalformedInputException.class, decoder::finish);
+			
+		}
+		
+	}
+	
+	@Test
+	void rejectsInvalidSequencesSplitAcrossPieces() throws MalformedInputException {
+		
+		Utf8Decoder decoder = new Utf8Decoder();
+		decoder.decode(ByteBuffer.wrap(new byte[] {'a', (byte) 0xED}));
+		
+		assertThrows(MalformedInputException.class, () -> decoder.decode(ByteBuffer.wrap(new byte[] {(byte) 0xA0, (byte) 0x80})));
+		
+		decoder.reset();
+		decoder.decode(ByteBuffer.wrap(new byte[] {(byte) 0xE0}));
+		
+		assertThrows(MalformedInputException.class, () -> decoder.decode(ByteBuffer.wrap(new byte[] {(byte) 0x9F})));
+		
+	}
+	
+	@Test
+	void clearingTheTextKeepsACharacterThatIsPartWayDecoded() throws MalformedInputException {
+		
+		Utf8Decoder decoder = new Utf8Decoder();
+		decoder.decode(ByteBuffer.wrap(new byte[] {'a', 'b', (byte) 0xE2, (byte) 0x82}));
+		
+		assertEquals("ab", decoder.toString());
+		
+		decoder.clearText();
+		decoder.decode(ByteBuffer.wrap(new byte[] {(byte) 0xAC, 'c'}));
+		decoder.finish();
+		
+		assertEquals("€c", decoder.toString());
+		
+		decoder.reset();
+		
+		assertEquals(0, decoder.length());
+		
+	}
+	
+	@Test
+	void agreesWithTheJdkOnRandomBytes() throws CharacterCodingException {
+		
+		Random random = new Random(8);
+		Utf8Decoder decoder = new Utf8Decoder();
+		
+		CharsetDecoder jdk = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPORT)
+			.onUnmappableCharacter(CodingErrorAction.REPORT);
+			
+		for (int i = 0; i < 20_000; i++) {
+			
+			byte[] bytes = new byte[random.nextInt(12)];
+			
+			// Mostly bytes at or above 0x80, so that most sequences are multi-byte.
+			for (int j = 0; j < bytes.length; j++) bytes[j] = (byte) (random.nextInt(4) == 0 ? random.nextInt(0x80) : 0x80 + random.nextInt(0x80));
+			
+			String expected;
+			
+			try {
+				
+				expected = jdk.decode(ByteBuffer.wrap(bytes)).toString();
+				
+			} catch (MalformedInputException e) {
+				
+				expected = null;
+				
+			}
+			
+			String actual;
+			
+			try {
+				
+				decoder.reset();
+				decoder.decode(ByteBuffer.wrap(bytes));
+				decoder.finish();
+				actual = decoder.toString();
+				
+			} catch (MalformedInputException e) {
+				
+				actual = null;
+				
+			}
+			
+			assertEquals(expected, actual, () -> Arrays.toString(bytes));
+			
+		}
+		
+	}
+	
+	private static String decode(byte[] bytes) throws MalformedInputException {
+		
+		Utf8Decoder decoder = new Utf8Decoder();
+		decoder.decode(ByteBuffer.wrap(bytes));
+		decoder.finish();
+		
+		return decoder.toString();
+		
+	}
+	
+	private static void assertMalformed(int... octets) {
+		
+		byte[] bytes = new byte[octets.length];
+		
+		for (int i = 0; i < octets.length; i++) bytes[i] = (byte) octets[i];
+		
+		assertThrows(MalformedInputException.class, () -> decode(bytes));
+		
+	}
+	
+}